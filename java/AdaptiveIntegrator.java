@@ -0,0 +1,82 @@
+/**
+ * Per-particle block time steps on top of a {@link SymplecticIntegrator}.
+ *
+ * At the start of each step every particle picks a level {@code l} from
+ * its local dynamical time T, the shortest over the field's sources (see
+ * {@link AttractorField#dynamicalTime}): the smallest with
+ * {@code dt / 2^l <= eta * T}, capped at {@code maxLevel}.
+ * It then takes {@code 2^l} base steps of {@code dt / 2^l}. Levels are
+ * powers of two, so every particle lands back on the shared step boundary
+ * and rendering, spawning and self-gravity see one synchronised state.
+ *
+ * Orbits far from the attractors stay at level 0 and cost one base step;
+ * only the few particles skimming the centre or the event horizon pay for
+ * the fine steps they need. Choosing the level costs one extra force
+ * evaluation, which is counted.
+ */
+public final class AdaptiveIntegrator implements Integrator {
+
+    private final SymplecticIntegrator base;
+    private final double eta;
+    private final int maxLevel;
+
+    public AdaptiveIntegrator(SymplecticIntegrator base, double eta, int maxLevel) {
+        if (eta <= 0)
+            throw new IllegalArgumentException("eta must be positive: " + eta);
+        this.base = base;
+        this.eta = eta;
+        this.maxLevel = Math.max(0, Math.min(maxLevel, 20));
+    }
+
+    @Override
+    public String name() {
+        return "adaptive " + base.name() + " (eta " + eta + ", max level " + maxLevel + ")";
+    }
+
+    @Override
+    public long advance(ParticleStore store, int from, int to, AttractorField field, double dt, double[] fx,
+            double[] fy) {
+        double[] xs = store.x, ys = store.y, mxs = store.momentumX, mys = store.momentumY;
+        byte[] flags = field.absorbing ? store.flags : null;
+        // Step coefficients per level, built when a level is first used
+        double[][] driftDt = new double[maxLevel + 1][], kickDt = new double[maxLevel + 1][];
+        long evaluations = 0;
+        for (int i = from; i < to; i++) {
+            if (flags != null && flags[i] == AttractorField.ABSORBED)
+                continue;
+            double t = field.dynamicalTime(xs[i], ys[i]);
+            evaluations++;
+            if (t < 0) { // inside a cutoff
+                if (flags != null)
+                    flags[i] = AttractorField.ABSORBED;
+                continue;
+            }
+            int level = level(dt, t);
+            int subs = 1 << level;
+            if (driftDt[level] == null) {
+                driftDt[level] = base.driftDt(dt / subs);
+                kickDt[level] = base.kickDt(dt / subs);
+            }
+            // The extra force is a full-step impulse: scale it up for the first sub-step's kick
+            double efx = fx == null ? 0 : fx[i] * subs * base.firstKickInverse;
+            double efy = fy == null ? 0 : fy[i] * subs * base.firstKickInverse;
+            for (int sub = 0; sub < subs; sub++) {
+                evaluations += base.step(xs, ys, mxs, mys, flags, i, field, driftDt[level], kickDt[level],
+                        sub == 0 ? efx : 0, sub == 0 ? efy : 0);
+                if (flags != null && flags[i] == AttractorField.ABSORBED)
+                    break;
+            }
+        }
+        return evaluations;
+    }
+
+    /** Smallest level whose sub-step {@code dt / 2^level} is within {@code eta * t}. */
+    int level(double dt, double t) {
+        double ratio = dt / (eta * t);
+        if (!(ratio > 1))
+            return 0;
+        if (ratio >= 1 << maxLevel)
+            return maxLevel;
+        return 64 - Long.numberOfLeadingZeros((long) Math.ceil(ratio) - 1);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * A point mass that pulls the particles of a {@link SimulationCore}.
+ *
+ * A pinned attractor stays where it is put: the fixed centre of the
+ * gravity and galaxy simulations, or the mouse-driven black hole, moved
+ * from the input thread with {@link #setPosition}. A free attractor has a
+ * velocity and moves under the gravity of the other attractors (binary
+ * black holes, colliding galaxies); particles are test masses and do not
+ * pull back.
+ */
+public final class Attractor {
+
+    private final double mass;
+    private final boolean pinned;
+    // Written by the input thread for pinned attractors, read once per step
+    private volatile double x, y;
+    // Free attractors only; touched by the loop thread alone
+    double vx, vy;
+
+    private Attractor(double x, double y, double mass, boolean pinned, double vx, double vy) {
+        this.x = x;
+        this.y = y;
+        this.mass = mass;
+        this.pinned = pinned;
+        this.vx = vx;
+        this.vy = vy;
+    }
+
+    /** Attractor that stays at (x, y) until moved with {@link #setPosition}. */
+    public static Attractor pinned(double x, double y, double mass) {
+        return new Attractor(x, y, mass, true, 0, 0);
+    }
+
+    /** Attractor starting at (x, y) with velocity (vx, vy), moving under the others' gravity. */
+    public static Attractor free(double x, double y, double mass, double vx, double vy) {
+        return new Attractor(x, y, mass, false, vx, vy);
+    }
+
+    public double x() {
+        return x;
+    }
+
+    public double y() {
+        return y;
+    }
+
+    public double mass() {
+        return mass;
+    }
+
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    public double velocityX() {
+        return vx;
+    }
+
+    public double velocityY() {
+        return vy;
+    }
+
+    /** Moves a pinned attractor; safe to call from any thread. Ignored for free attractors. */
+    public void setPosition(double x, double y) {
+        if (pinned) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /** Integration update of a free attractor (loop thread). */
+    void moveTo(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Force field of one or more fixed point attractors, as seen by particles
+ * of equal mass: the law ({@link ForceKernel#inverseR} or
+ * {@link ForceKernel#inverseRSquared}), each source's position and
+ * strength, and the cutoff radius inside which the law is not applied.
+ *
+ * Inside the cutoff of any source a non-absorbing field leaves the
+ * particle where it is (the galaxy's {@code distSq < 1} rule); an
+ * absorbing field marks it with {@link #ABSORBED} in the store's flags
+ * column (the black hole's event horizon), and integrators skip flagged
+ * particles from then on.
+ *
+ * A field is a snapshot: {@link SimulationCore} builds one per step from
+ * its {@link Attractor}s, so sources that move do so between steps.
+ */
+public final class AttractorField {
+
+    public enum Law {
+        /** |F| = k / r (Gravity.py, the galaxy). */
+        INVERSE_R,
+        /** |F| = k / r^2 (the black hole). */
+        INVERSE_R_SQUARED
+    }
+
+    /** Flags value of particles that crossed an absorbing cutoff. */
+    public static final byte ABSORBED = 1;
+
+    final Law law;
+    final int sources;
+    final double[] cx, cy;
+    final double[] k;
+    final double mass;
+    final double inverseMass;
+    final double cutoffSq;
+    final boolean absorbing;
+    private final boolean inverseSquare;
+
+    /** Single source of strength {@code k} at ({@code cx}, {@code cy}). */
+    public AttractorField(Law law, double cx, double cy, double k, double mass, double cutoff, boolean absorbing) {
+        this(law, new double[] { cx }, new double[] { cy }, new double[] { k }, mass, cutoff, absorbing);
+    }
+
+    /** Sources {@code j} of strength {@code k[j]} at ({@code cx[j]}, {@code cy[j]}); the arrays are kept. */
+    public AttractorField(Law law, double[] cx, double[] cy, double[] k, double mass, double cutoff,
+            boolean absorbing) {
+        this.law = law;
+        this.sources = k.length;
+        this.cx = cx;
+        this.cy = cy;
+        this.k = k;
+        this.mass = mass;
+        this.inverseMass = 1 / mass;
+        this.cutoffSq = cutoff * cutoff;
+        this.absorbing = absorbing;
+        this.inverseSquare = law == Law.INVERSE_R_SQUARED;
+    }
+
+    /** Force scale {@code s} of source {@code j} at squared distance {@code distSq}: F = s * (source - position). */
+    double scale(int j, double distSq) {
+        return inverseSquare ? ForceKernel.inverseRSquared(k[j], distSq) : ForceKernel.inverseR(k[j], distSq);
+    }
+
+    /** Potential energy of one particle at (x, y): k ln r per source for 1/r, -k / r for 1/r^2. */
+    double potential(double x, double y) {
+        double u = 0;
+        for (int j = 0; j < sources; j++) {
+            double dx = cx[j] - x, dy = cy[j] - y;
+            double distSq = dx * dx + dy * dy;
+            u += inverseSquare ? -k[j] / Math.sqrt(distSq) : 0.5 * k[j] * Math.log(distSq);
+        }
+        return u;
+    }
+
+    /**
+     * Shortest dynamical time sqrt(r / |a|) over the sources at (x, y), or
+     * -1 inside a cutoff. A circular orbit around a lone source takes
+     * 2 pi times this long. Since |a| = s r / m it is simply sqrt(m / s).
+     */
+    double dynamicalTime(double x, double y) {
+        double maxScale = 0;
+        for (int j = 0; j < sources; j++) {
+            double dx = cx[j] - x, dy = cy[j] - y;
+            double distSq = dx * dx + dy * dy;
+            if (distSq < cutoffSq)
+                return -1;
+            maxScale = Math.max(maxScale, scale(j, distSq));
+        }
+        return Math.sqrt(mass / maxScale);
+    }
+
+    public int sources() {
+        return sources;
+    }
+
+    public double centerX(int j) {
+        return cx[j];
+    }
+
+    public double centerY(int j) {
+        return cy[j];
+    }
+}
@@ -0,0 +1,301 @@
+import java.util.Arrays;
+
+/**
+ * Barnes-Hut quadtree for {@link SelfGravity}, rebuilt every step.
+ *
+ * Nodes live in parallel primitive arrays that are reused from step to step,
+ * so a rebuild allocates nothing once the arrays have grown to fit. Each
+ * split creates its four children contiguously, addressed through
+ * {@code firstChild}. Coincident particles that still share a cell at
+ * {@link #MAX_DEPTH} are lumped into one leaf.
+ *
+ * A cell of width s at distance d from a particle is treated as a single
+ * mass at its centre of mass when s / d &lt; theta; theta = 0 degenerates to
+ * direct summation, and ~0.5 gives sub-percent force errors (check with
+ * {@link DirectSummation#relativeError}). The build is serial O(n log n);
+ * the force walk runs in parallel on the {@link ParallelStepper}.
+ *
+ * Particles are inserted and walked in Morton (Z-curve) order of their
+ * position, without reordering the store: consecutive walks then visit
+ * mostly the same nodes and find them in cache.
+ */
+public class BarnesHutTree implements SelfGravity {
+
+    private static final int MAX_DEPTH = 48;
+    private static final int EMPTY = -1;
+    private static final int LUMPED = -2;
+    // Walks for a body outside the tree skip no leaf
+    private static final int OUTSIDE = Integer.MIN_VALUE;
+    // Largest quantised coordinate in a Morton key, and the key past every finite one
+    private static final int MORTON_MAX = 0x7FFF;
+    private static final long NON_FINITE_KEY = 1L << 30;
+
+    private final double g;
+    private final double thetaSq;
+    private final double softeningSq;
+    private final ParallelStepper stepper;
+
+    // ---------- Node arrays ---------------------------------------------------
+    private int nodeCount;
+    private int[] firstChild = new int[0];
+    private int[] body = new int[0];
+    private double[] mass = new double[0];
+    private double[] comX = new double[0];
+    private double[] comY = new double[0];
+    private double[] centerX = new double[0];
+    private double[] centerY = new double[0];
+    private double[] half = new double[0];
+
+    // Particles by Morton key of their position: key << 32 | index (non-negative), then the indices
+    private long[] keys = new long[0];
+    private int[] order = new int[0];
+
+    public BarnesHutTree(double g, double theta, double softening, ParallelStepper stepper) {
+        this.g = g;
+        this.thetaSq = theta * theta;
+        this.softeningSq = softening * softening;
+        this.stepper = stepper;
+    }
+
+    @Override
+    public double coupling() {
+        return g;
+    }
+
+    @Override
+    public String name() {
+        return "barnes-hut(theta=" + Math.sqrt(thetaSq) + ")";
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public void computeForces(ParticleStore store, double particleMass, double[] fx, double[] fy) {
+        int n = store.size();
+        build(store.x, store.y, n, particleMass);
+
+        double[] xs = store.x, ys = store.y;
+        int[] sorted = order;
+        double k = g * particleMass;
+        stepper.forEach(n, (from, to) -> {
+            int[] stack = new int[3 * MAX_DEPTH + 8];
+            double[] force = new double[2];
+            for (int o = from; o < to; o++) {
+                int i = sorted[o];
+                walk(i, xs[i], ys[i], k, stack, force);
+                fx[i] = force[0];
+                fy[i] = force[1];
+            }
+        });
+    }
+
+    /** Walks the tree built by the last {@link #computeForces}; the body is not in it. */
+    @Override
+    public void accelerationAt(double x, double y, double[] out) {
+        if (nodeCount == 0) {
+            out[0] = out[1] = 0;
+            return;
+        }
+        walk(OUTSIDE, x, y, g, new int[3 * MAX_DEPTH + 8], out);
+    }
+
+    // =========================================================================
+    // Build
+    // =========================================================================
+
+    /** Rebuilds the tree over the first {@code n} particles and sorts them into Morton order. */
+    public void build(double[] xs, double[] ys, int n, double particleMass) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            double x = xs[i], y = ys[i];
+            if (!Double.isFinite(x) || !Double.isFinite(y))
+                continue;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+
+        nodeCount = 0;
+        if (minX > maxX) { // nothing finite to insert
+            newNode(0, 0, 1);
+            sortByMorton(xs, ys, n, 0, 0, 1);
+            return;
+        }
+        double h = Math.max(maxX - minX, maxY - minY) * 0.5 + 1e-9;
+        double rootX = (minX + maxX) * 0.5, rootY = (minY + maxY) * 0.5;
+        newNode(rootX, rootY, h);
+        sortByMorton(xs, ys, n, rootX - h, rootY - h, 2 * h);
+
+        for (int o = 0; o < n; o++) {
+            int i = order[o];
+            double x = xs[i], y = ys[i];
+            if (Double.isFinite(x) && Double.isFinite(y))
+                insert(i, x, y, particleMass, xs, ys);
+        }
+
+        // Convert mass-weighted sums into centres of mass
+        for (int node = 0; node < nodeCount; node++) {
+            double m = mass[node];
+            if (m > 0) {
+                comX[node] /= m;
+                comY[node] /= m;
+            }
+        }
+    }
+
+    /**
+     * Fills {@link #order} with the particles along a Z-curve over the given
+     * square, quantised to 15 bits per axis. The 30-bit key keeps every
+     * packed value non-negative, so signed order is key order. Particles
+     * with a non-finite coordinate get {@link #NON_FINITE_KEY}, above every
+     * finite key, and end up last in index order.
+     */
+    private void sortByMorton(double[] xs, double[] ys, int n, double left, double top, double size) {
+        if (keys.length < n) {
+            keys = new long[Math.max(n, keys.length * 2)];
+            order = new int[keys.length];
+        }
+        long[] k = keys;
+        double scale = MORTON_MAX / size;
+        stepper.forEach(n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                double x = xs[i], y = ys[i];
+                long key = NON_FINITE_KEY;
+                if (Double.isFinite(x) && Double.isFinite(y)) {
+                    int qx = Math.min(MORTON_MAX, Math.max(0, (int) ((x - left) * scale)));
+                    int qy = Math.min(MORTON_MAX, Math.max(0, (int) ((y - top) * scale)));
+                    key = spreadBits(qx) | spreadBits(qy) << 1;
+                }
+                k[i] = key << 32 | i;
+            }
+        });
+        Arrays.sort(k, 0, n);
+        for (int o = 0; o < n; o++)
+            order[o] = (int) k[o];
+    }
+
+    /** Moves the low 15 bits of {@code v} to the even bit positions. */
+    private static long spreadBits(int v) {
+        long x = v & MORTON_MAX;
+        x = (x | x << 8) & 0x00FF00FFL;
+        x = (x | x << 4) & 0x0F0F0F0FL;
+        x = (x | x << 2) & 0x33333333L;
+        x = (x | x << 1) & 0x55555555L;
+        return x;
+    }
+
+    private void insert(int i, double x, double y, double m, double[] xs, double[] ys) {
+        int node = 0;
+        int depth = 0;
+        while (true) {
+            if (firstChild[node] >= 0) {
+                addMass(node, x, y, m);
+                node = firstChild[node] + quadrant(node, x, y);
+                depth++;
+                continue;
+            }
+            if (body[node] == EMPTY) {
+                body[node] = i;
+                addMass(node, x, y, m);
+                return;
+            }
+            if (depth >= MAX_DEPTH) {
+                body[node] = LUMPED;
+                addMass(node, x, y, m);
+                return;
+            }
+
+            // Split the leaf: push its single body one level down, then retry
+            int b = body[node];
+            double q = half[node] * 0.5;
+            double cx = centerX[node], cy = centerY[node];
+            int c = newNode(cx - q, cy - q, q);
+            newNode(cx + q, cy - q, q);
+            newNode(cx - q, cy + q, q);
+            newNode(cx + q, cy + q, q);
+            firstChild[node] = c;
+            body[node] = EMPTY;
+
+            int bc = c + quadrant(node, xs[b], ys[b]);
+            body[bc] = b;
+            addMass(bc, xs[b], ys[b], m);
+        }
+    }
+
+    private int quadrant(int node, double x, double y) {
+        return (x >= centerX[node] ? 1 : 0) | (y >= centerY[node] ? 2 : 0);
+    }
+
+    private void addMass(int node, double x, double y, double m) {
+        mass[node] += m;
+        comX[node] += m * x;
+        comY[node] += m * y;
+    }
+
+    private int newNode(double cx, double cy, double h) {
+        if (nodeCount == firstChild.length)
+            grow();
+        int node = nodeCount++;
+        firstChild[node] = EMPTY;
+        body[node] = EMPTY;
+        mass[node] = 0;
+        comX[node] = 0;
+        comY[node] = 0;
+        centerX[node] = cx;
+        centerY[node] = cy;
+        half[node] = h;
+        return node;
+    }
+
+    private void grow() {
+        int cap = Math.max(64, firstChild.length * 2);
+        firstChild = Arrays.copyOf(firstChild, cap);
+        body = Arrays.copyOf(body, cap);
+        mass = Arrays.copyOf(mass, cap);
+        comX = Arrays.copyOf(comX, cap);
+        comY = Arrays.copyOf(comY, cap);
+        centerX = Arrays.copyOf(centerX, cap);
+        centerY = Arrays.copyOf(centerY, cap);
+        half = Arrays.copyOf(half, cap);
+    }
+
+    // =========================================================================
+    // Force walk
+    // =========================================================================
+
+    /** Sums the pull on particle {@code i} at (x, y) into {@code out[0]}, {@code out[1]}. */
+    private void walk(int i, double x, double y, double k, int[] stack, double[] out) {
+        double sx = 0, sy = 0;
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            double m = mass[node];
+            if (m == 0 || body[node] == i)
+                continue;
+
+            double dx = comX[node] - x;
+            double dy = comY[node] - y;
+            double d2 = dx * dx + dy * dy;
+            int fc = firstChild[node];
+            double size = 2 * half[node];
+            if (fc < 0 || size * size < thetaSq * d2) {
+                // Leaf, or far enough away to treat as one mass
+                double s = ForceKernel.inverseR(k * m, d2 + softeningSq);
+                sx += s * dx;
+                sy += s * dy;
+            } else {
+                stack[sp++] = fc;
+                stack[sp++] = fc + 1;
+                stack[sp++] = fc + 2;
+                stack[sp++] = fc + 3;
+            }
+        }
+        out[0] = sx;
+        out[1] = sy;
+    }
+}
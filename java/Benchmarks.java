@@ -0,0 +1,213 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The benchmark cases for the physics step, rendering and spawning paths.
+ *
+ * The JMH benchmarks in {@code jmh/} time them. JMH will not run a
+ * benchmark in the default package, and a class in a named package cannot
+ * refer to one in the default package. So the benchmarks build each case
+ * here by name and only ever see it as a {@link DoubleSupplier}. Each call
+ * runs the timed operation once and returns a value read from its result,
+ * which the benchmark returns to JMH so the work cannot be dropped as dead
+ * code.
+ *
+ * <pre>
+ *   mvn -P jmh package
+ *   java -jar target/benchmarks.jar -rf json -rff bench.json
+ *   java -jar target/benchmarks.jar "galaxyStep|blackholeStep" -p particles=10000 -p workers=1,8
+ * </pre>
+ */
+public final class Benchmarks {
+
+    private static final int WIDTH = GravityModel.WIDTH;
+    private static final int HEIGHT = GravityModel.HEIGHT;
+
+    /** One case on its own stepper; closing it stops the stepper's workers. */
+    public static final class Case implements DoubleSupplier, AutoCloseable {
+        private final DoubleSupplier op;
+        private final ParallelStepper stepper;
+
+        private Case(DoubleSupplier op, ParallelStepper stepper) {
+            this.op = op;
+            this.stepper = stepper;
+        }
+
+        @Override
+        public double getAsDouble() {
+            return op.getAsDouble();
+        }
+
+        @Override
+        public void close() {
+            stepper.shutdown();
+        }
+    }
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Prepares case {@code name} for {@code particles} particles on
+     * {@code workers} threads. The names are the JMH benchmark methods.
+     */
+    public static Case create(String name, int particles, int workers) {
+        ParallelStepper stepper = new ParallelStepper(workers);
+        try {
+            return new Case(op(name, particles, stepper), stepper);
+        } catch (RuntimeException e) {
+            stepper.shutdown();
+            throw e;
+        }
+    }
+
+    // =========================================================================
+    // Cases
+    // =========================================================================
+
+    private static DoubleSupplier op(String name, int n, ParallelStepper stepper) {
+        return switch (name) {
+            // Particle.move over a ParticleStore, through whichever kernel is loaded
+            case "particleMove" -> {
+                ParticleStore store = randomStore(n);
+                ParticleKernel kernel = ParticleKernel.load();
+                yield () -> {
+                    stepper.forEach(store.size(), (from, to) -> kernel.move(store, from, to, 750, 400));
+                    return sample(store);
+                };
+            }
+            case "galaxyStep" -> stepOf(new GalaxyModel(n, stepper));
+            case "blackholeStep" -> stepOf(new BlackholeModel(n, stepper));
+            // Two merging galaxies with a Barnes-Hut tree: compare against GalaxyCollision's stars x steps/s target
+            case "collisionStep" -> stepOf(new GalaxyCollision(2, 200, 0.3).create(n, stepper));
+
+            // One particle-mesh force pass on the default 256 grid: mostly grid cost until millions of particles
+            case "pmForces" -> {
+                ParticleStore store = randomStore(n);
+                ParticleMesh mesh = new ParticleMesh(0.1, 256, stepper);
+                double[] fx = new double[n], fy = new double[n];
+                yield () -> {
+                    mesh.computeForces(store, Particle.MASS, fx, fy);
+                    return fx[n - 1] + fy[0];
+                };
+            }
+
+            // Counting-sort rebuild of the neighbor grid, and the two short-range sweeps on top of it
+            case "gridBuild" -> {
+                ParticleStore store = randomStore(n);
+                SpatialGrid grid = new SpatialGrid(0, 0, WIDTH, HEIGHT, 3, stepper);
+                yield () -> {
+                    grid.build(store.x, store.y, store.size());
+                    return grid.order[n - 1];
+                };
+            }
+            case "gridCollide" -> {
+                ParticleStore store = randomStore(n);
+                LocalInteractions contacts = new LocalInteractions(LocalInteractions.Mode.COLLIDE, 3, 1, 0, 1,
+                        stepper);
+                yield () -> {
+                    contacts.apply(store, Particle.DT);
+                    return sample(store);
+                };
+            }
+            case "gridPressure" -> {
+                ParticleStore store = randomStore(n);
+                LocalInteractions contacts = new LocalInteractions(LocalInteractions.Mode.PRESSURE, 3, 1, 20000, 1,
+                        stepper);
+                yield () -> {
+                    contacts.apply(store, Particle.DT);
+                    return sample(store);
+                };
+            }
+
+            // Both lensing passes into an off-screen raster
+            case "blackholeLensing" -> {
+                BlackholeModel model = new BlackholeModel(n, stepper);
+                PixelRaster raster = newRaster();
+                yield () -> {
+                    model.renderBehind(raster);
+                    model.renderFront(raster);
+                    return raster.pixels()[raster.pixels().length / 2];
+                };
+            }
+
+            // The per-particle Graphics2D path the simulations used before PixelRaster
+            case "renderGraphics2d" -> {
+                ParticleStore store = randomStore(n);
+                BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+                yield () -> {
+                    Graphics2D g2 = image.createGraphics();
+                    g2.setColor(new Color(20, 20, 20));
+                    g2.fillRect(0, 0, WIDTH, HEIGHT);
+                    g2.setColor(Color.WHITE);
+                    for (int i = 0; i < store.size(); i++)
+                        g2.fillRect((int) store.x[i], (int) store.y[i], 1, 1);
+                    g2.dispose();
+                    return image.getRGB(WIDTH / 2, HEIGHT / 2);
+                };
+            }
+            case "renderRaster" -> {
+                ParticleStore store = randomStore(n);
+                PixelRaster raster = newRaster();
+                yield () -> {
+                    raster.fill(0x141414);
+                    for (int i = 0; i < store.size(); i++)
+                        raster.plot((int) store.x[i], (int) store.y[i], 0xFFFFFF);
+                    return raster.pixels()[raster.pixels().length / 2];
+                };
+            }
+
+            // One op = spawning n particles in batches of 100, starting from an empty store
+            case "spawnCircle" -> {
+                GravityModel model = new GravityModel(stepper, ParticleKernel.SCALAR);
+                yield () -> {
+                    model.particles().clear();
+                    for (int i = 0; i < n; i += 100)
+                        model.generateCircle(WIDTH / 2, HEIGHT / 2);
+                    return sample(model.particles());
+                };
+            }
+            case "spawnLine" -> {
+                GravityModel model = new GravityModel(stepper, ParticleKernel.SCALAR);
+                yield () -> {
+                    model.particles().clear();
+                    for (int i = 0; i < n; i += 100)
+                        model.generateLine(HEIGHT / 2);
+                    return sample(model.particles());
+                };
+            }
+            default -> throw new IllegalArgumentException("unknown benchmark case " + name);
+        };
+    }
+
+    private static DoubleSupplier stepOf(SimulationModel model) {
+        return () -> {
+            model.step();
+            return sample(model.core().particles());
+        };
+    }
+
+    // Last particle's state, or 0 for an empty store
+    private static double sample(ParticleStore store) {
+        int last = store.size() - 1;
+        return last < 0 ? 0 : store.x[last] + store.momentumY[last];
+    }
+
+    private static ParticleStore randomStore(int n) {
+        ParticleStore store = new ParticleStore(n);
+        int base = store.append(n);
+        Random rng = new Random(42);
+        for (int i = 0; i < n; i++) {
+            store.x[base + i] = rng.nextInt(WIDTH);
+            store.y[base + i] = rng.nextInt(HEIGHT);
+        }
+        return store;
+    }
+
+    private static PixelRaster newRaster() {
+        return new PixelRaster(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB));
+    }
+}
@@ -0,0 +1,341 @@
+import java.util.SplittableRandom;
+
+/**
+ * Physics and lensed projection of {@link BlackholeSimulation}: an accretion
+ * disk orbiting a movable 1/r^2 mass that consumes anything crossing its
+ * event horizon and respawns it into the disk. The disk moves on a
+ * {@link SimulationCore}; with extra attractors (a binary) every hole has a
+ * horizon, and the lensing is drawn around the first.
+ */
+public class BlackholeModel implements SimulationModel {
+
+    public static final int WIDTH = 1500;
+    public static final int HEIGHT = 800;
+    public static final int DEFAULT_PARTICLES = 5000;
+
+    // Physics parameters
+    static final double G = 1.0;
+    static final double M = 5e6; // Adjusted for 1/r^2 stable orbits
+    static final double DT = 0.005; // Slightly faster time step
+    static final double EVENT_HORIZON_RADIUS = 50.0;
+    // Particle mass, shared by the whole disk
+    static final double MASS = 2.0;
+    // flags bit set by the parallel step for particles that crossed the horizon
+    static final byte CONSUMED = AttractorField.ABSORBED;
+
+    // Perspective variables for real Gargantua equations
+    static final double TILT = 0.15; // Tilted disk
+    static final double RE = 68.0; // Einstein radius
+    static final double R_SHADOW = 50.0; // Event horizon shadow
+
+    // Particle palette, packed for PixelRaster (no Color allocated per particle)
+    private static final int COLOR_BLUE_WHITE = PixelRaster.rgb(220, 240, 255);
+    private static final int COLOR_YELLOW_WHITE = PixelRaster.rgb(255, 230, 180);
+    private static final int COLOR_ORANGE = PixelRaster.rgb(255, 150, 50);
+    private static final int COLOR_DEEP_RED = PixelRaster.rgb(180, 60, 30);
+    private static final int SECONDARY_ALPHA = 100; // Ghostly halos
+    private static final int CORE_GLOW_ALPHA = 100;
+    private static final int TRAIL_ALPHA = 51; // 20% fade to black per frame
+    // Marks queued primary images that get the bright core (speed > 220)
+    private static final int GLOW_BIT = 1 << 24;
+
+    // ---------- State --------------------------------------------------------
+    // Fixed-size pool: consumed particles are respawned into their own slot
+    private final ParticleStore particles;
+    private final ParallelStepper stepper;
+    // Initial spawn positions and jitter; seeded by -Dgravity.seed
+    private final SplittableRandom rng = RandomStreams.shared().stream("blackhole");
+    // Respawns draw stream number stepCount of this key, so a snapshot can resume them
+    private final long respawnKey;
+    private long stepCount = 0;
+    // The hole (attractor 0, pinned to the mouse) and any extra ones
+    private final SimulationCore core;
+
+    // Lens mapping cache and the primary images queued between the two render passes
+    private final LensingTable lensing = new LensingTable();
+    private int[] primaryX = new int[0];
+    private int[] primaryY = new int[0];
+    private int[] primaryColor = new int[0];
+    private int primaryCount = 0;
+    private int primaryStride = 1;
+
+    // Quality knobs (set by the quality governor): draw every k-th particle,
+    // and whether to draw secondary images and glow halos at all
+    private int renderStride = 1;
+    private boolean halos = true;
+
+    private int activeCount = 0;
+    private int particlesConsumed = 0;
+
+    public BlackholeModel() {
+        this(DEFAULT_PARTICLES, ParallelStepper.shared());
+    }
+
+    public BlackholeModel(int initialParticles, ParallelStepper stepper) {
+        this.stepper = stepper;
+        this.particles = new ParticleStore(initialParticles).enableFlags();
+        this.core = createCore(particles, stepper, WIDTH / 2, HEIGHT / 2);
+        // Initial population: the whole accretion ring in one bulk spawn
+        double cx = core.barycenterX(), cy = core.barycenterY(), mass = core.totalMass();
+        BulkSpawn.append(particles, initialParticles, rng, stepper, (from, to, r) -> {
+            for (int i = from; i < to; i++)
+                spawnParticle(i, r, cx, cy, mass);
+        });
+        activeCount = particles.size();
+        respawnKey = rng.nextLong();
+    }
+
+    /**
+     * Resumes from a blackhole {@link Snapshot}, taking ownership of its
+     * particles; every hole starts where it was when the snapshot was taken,
+     * free ones with their velocities, and respawns draw what they would
+     * have drawn without the break.
+     */
+    public BlackholeModel(Snapshot snapshot, ParallelStepper stepper) {
+        snapshot.requireModel("blackhole");
+        this.stepper = stepper;
+        this.particles = snapshot.particles().enableFlags();
+        this.core = createCore(particles, stepper, (int) snapshot.centerX(), (int) snapshot.centerY());
+        snapshot.restoreAttractors(core);
+        // Files without the streams get a fresh key
+        this.respawnKey = snapshot.hasRandom() ? snapshot.randomKey() : rng.nextLong();
+        this.stepCount = snapshot.randomIndex();
+        this.particlesConsumed = (int) snapshot.counter();
+        this.activeCount = particles.size();
+    }
+
+    private static SimulationCore createCore(ParticleStore particles, ParallelStepper stepper, int x, int y) {
+        SimulationCore core = new SimulationCore(particles, stepper, AttractorField.Law.INVERSE_R_SQUARED, G, MASS,
+                DT, EVENT_HORIZON_RADIUS, true);
+        core.addAttractor(Attractor.pinned(x, y, M));
+        return core;
+    }
+
+    @Override
+    public String name() {
+        return "blackhole";
+    }
+
+    @Override
+    public int particleCount() {
+        return particles.size();
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        return new Snapshot(name(), particles, MASS, blackholeX(), blackholeY(), particlesConsumed, core.attractors(),
+                core.attractorSoftening(), 0).withRandom(respawnKey, stepCount);
+    }
+
+    /** Particles still outside the horizon after the last step. */
+    public int activeCount() {
+        return activeCount;
+    }
+
+    public int particlesConsumed() {
+        return particlesConsumed;
+    }
+
+    public ParticleStore particles() {
+        return particles;
+    }
+
+    @Override
+    public SimulationCore core() {
+        return core;
+    }
+
+    /** Position of the first hole, the one the mouse moves and the lens is drawn around. */
+    public int blackholeX() {
+        return (int) core.attractor(0).x();
+    }
+
+    public int blackholeY() {
+        return (int) core.attractor(0).y();
+    }
+
+    /** Draws only every {@code k}-th particle; 1 draws all. */
+    public void setRenderStride(int k) {
+        renderStride = Math.max(1, k);
+    }
+
+    /** Turns the secondary images and the glow around fast primaries on or off. */
+    public void setHalos(boolean on) {
+        halos = on;
+    }
+
+    /** Moves the first hole, unless it is free (then it follows its orbit). */
+    public void setBlackholePosition(int x, int y) {
+        core.attractor(0).setPosition(x, y);
+    }
+
+    /**
+     * (Re)initialises slot {@code i} as a fresh particle on a circular orbit
+     * around the holes' barycentre ({@code cx}, {@code cy}), as if their
+     * total {@code mass} sat there.
+     */
+    private void spawnParticle(int i, SplittableRandom rng, double cx, double cy, double mass) {
+        double angle = rng.nextDouble() * 2 * Math.PI;
+
+        // Spawn particles in a disk from R=70 to R=800, concentrating near the center
+        double r = 70 + Math.pow(rng.nextDouble(), 1.5) * 730;
+
+        double px = cx + Math.cos(angle) * r;
+        double py = cy + Math.sin(angle) * r;
+
+        // Exact circular orbital velocity: v = sqrt(GM/r)
+        double orbitSpeed = Math.sqrt((G * mass) / r);
+
+        // Tangential velocity vector
+        double velAngle = angle + (Math.PI / 2); // 90 degrees offset for orbit
+
+        // Minor randomness so the disk has thickness and mixing
+        double mx = Math.cos(velAngle) * orbitSpeed * 2.0; // mass is 2.0
+        double my = Math.sin(velAngle) * orbitSpeed * 2.0;
+
+        // Tiny jitter in momentum
+        mx *= (0.98 + rng.nextDouble() * 0.04);
+        my *= (0.98 + rng.nextDouble() * 0.04);
+
+        particles.x[i] = px;
+        particles.y[i] = py;
+        particles.momentumX[i] = mx;
+        particles.momentumY[i] = my;
+        particles.flags[i] = 0;
+    }
+
+    private static double speed(double mx, double my) {
+        return Math.sqrt(mx * mx + my * my) / MASS;
+    }
+
+    private static int getParticleColor(double speed) {
+        if (speed > 220)
+            return COLOR_BLUE_WHITE;
+        if (speed > 150)
+            return COLOR_YELLOW_WHITE;
+        if (speed > 100)
+            return COLOR_ORANGE;
+        return COLOR_DEEP_RED;
+    }
+
+    // =========================================================================
+    // Step
+    // =========================================================================
+
+    @Override
+    public void step() {
+        int n = particles.size();
+        core.step(null, null);
+
+        // Respawn consumed particles in place (no shifting), in parallel blocks with their own streams
+        byte[] flags = particles.flags;
+        double cx = core.barycenterX(), cy = core.barycenterY(), mass = core.totalMass();
+        int[] consumed = { 0 };
+        SplittableRandom respawns = RandomStreams.indexed(respawnKey, stepCount++);
+        BulkSpawn.forEachBlock(0, n, respawns, stepper, (from, to, r) -> {
+            int c = 0;
+            for (int i = from; i < to; i++) {
+                if (flags[i] == CONSUMED) {
+                    c++;
+                    spawnParticle(i, r, cx, cy, mass);
+                    core.forget(i);
+                }
+            }
+            synchronized (consumed) {
+                consumed[0] += c;
+            }
+        });
+        activeCount = n - consumed[0];
+        particlesConsumed += consumed[0];
+    }
+
+    // =========================================================================
+    // Render
+    // =========================================================================
+
+    /** Full frame without Java2D: trails, secondary images, shadow, primary images. */
+    @Override
+    public void render(PixelRaster raster) {
+        renderBehind(raster);
+        for (Attractor a : core.attractors())
+            raster.fillCircle((int) a.x(), (int) a.y(), (int) R_SHADOW, 0x000000);
+        renderFront(raster);
+    }
+
+    /**
+     * Fades the previous frame, then projects every particle once: secondary
+     * images are drawn immediately (PASS 1) and primary images are queued for
+     * {@link #renderFront} so they land on top of the shadow.
+     */
+    public void renderBehind(PixelRaster raster) {
+        // Fade the previous frame to black to create a motion blur/trail effect
+        raster.fade(0x000000, TRAIL_ALPHA);
+
+        lensing.update(RE, TILT, R_SHADOW);
+        double sinTilt = lensing.sinTilt();
+        double cosTilt = lensing.cosTilt();
+        int bhx = blackholeX();
+        int bhy = blackholeY();
+
+        int n = particles.size();
+        if (primaryX.length < n) {
+            primaryX = new int[particles.capacity()];
+            primaryY = new int[particles.capacity()];
+            primaryColor = new int[particles.capacity()];
+        }
+        double[] xs = particles.x, ys = particles.y, mxs = particles.momentumX, mys = particles.momentumY;
+        int stride = renderStride;
+        boolean secondary = halos;
+        for (int i = 0; i < n; i += stride) {
+            double u = xs[i] - bhx;
+            double pz = ys[i] - bhy; // The 2D Y axis acts as our 3D Z axis (depth)
+            double v = pz * sinTilt;
+            double w = pz * cosTilt; // w > 0 means behind
+
+            // Unit vector towards the source; (1, 0) at the exact centre, like atan2(0, 0)
+            double beta = Math.sqrt(u * u + v * v);
+            double dirX = 1, dirY = 0;
+            if (beta > 0) {
+                double inv = 1.0 / beta;
+                dirX = u * inv;
+                dirY = v * inv;
+            }
+
+            int c = getParticleColor(speed(mxs[i], mys[i]));
+
+            // --- PASS 1: Secondary Images (Behind the Black Hole Shadow) ---
+            // Only draw if outside the shadow, otherwise it's blocked
+            if (secondary && w > 0 && lensing.secondaryVisible(beta)) {
+                double rMinus = lensing.secondaryRadius(beta);
+                raster.blendRect((int) (bhx - rMinus * dirX), (int) (bhy - rMinus * dirY), 2, 2, c,
+                        SECONDARY_ALPHA);
+            }
+
+            // Primary image, drawn later by renderFront
+            double rPlus = lensing.primaryRadius(beta);
+            primaryX[i] = (int) (bhx + rPlus * dirX);
+            primaryY[i] = (int) (bhy + rPlus * dirY);
+            primaryColor[i] = c == COLOR_BLUE_WHITE && secondary ? c | GLOW_BIT : c;
+        }
+        primaryCount = n;
+        primaryStride = stride;
+    }
+
+    /** Draws the primary images queued by the last {@link #renderBehind} (PASS 3). */
+    public void renderFront(PixelRaster raster) {
+        // --- PASS 3: Primary Images (In Front of the Black Hole Shadow) ---
+        for (int i = 0; i < primaryCount; i += primaryStride) {
+            int c = primaryColor[i];
+            int px = primaryX[i];
+            int py = primaryY[i];
+
+            // For extremely fast particles near the event horizon, give them a bright core
+            if ((c & GLOW_BIT) != 0) {
+                c &= 0xFFFFFF;
+                raster.blendRect(px - 1, py - 1, 4, 4, c, CORE_GLOW_ALPHA);
+            }
+
+            raster.plot2x2(px, py, c);
+        }
+    }
+}
@@ -3,9 +3,6 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
 
 /**
  * A Black Hole simulation where the mouse pointer acts as an incredibly massive
@@ -14,86 +11,41 @@ import java.util.Random;
 public class BlackholeSimulation extends JPanel implements Runnable {
 
     // ---------- Window / simulation constants --------------------------------
-    private static final int WIDTH = 1500;
-    private static final int HEIGHT = 800;
+    private static final int WIDTH = BlackholeModel.WIDTH;
+    private static final int HEIGHT = BlackholeModel.HEIGHT;
     private static final int TARGET_FPS = 100;
-
-    // Physics parameters
-    private static final double G = 1.0;
-    private static final double M = 5e6; // Adjusted for 1/r^2 stable orbits
-    private static final double DT = 0.005; // Slightly faster time step
-    private static final double EVENT_HORIZON_RADIUS = 50.0;
-
-    // State
-    private final List<BlackholeParticle> particles = new ArrayList<>();
-    private final Random rng = new Random();
+    // Each physics step covers this many DT (-Dgravity.stepScale), so fewer run per second
+    private static final int STEP_SCALE = Integrator.stepScaleFromProperties();
+    private static final double R_SHADOW = BlackholeModel.R_SHADOW;
+
+    // State: particles, physics and lensed projection (no Swing dependency);
+    // -Dgravity.snapshot=FILE resumes a saved run
+    private final BlackholeModel model = createModel();
+    // Fixed physics rate, independent of how fast frames are drawn
+    private final FixedTimestep timestep = FixedTimestep.fromProperties((double) TARGET_FPS / STEP_SCALE);
+    // Optional position stream (-Dgravity.record=FILE), written off the loop thread
+    private final TrajectoryRecorder recorder = TrajectoryRecorder.fromProperties(model.name());
+    private long stepCount = 0;
+    // Integrator line of the HUD, with drift re-measured about once a second
+    private String integratorStatus = "";
+    private long framesDrawn = 0;
 
     // Mouse pointer (The Black Hole)
-    private Point blackholePos = new Point(WIDTH / 2, HEIGHT / 2);
     private boolean mouseInside = true;
+    // Scripted pointer replacing the mouse (-Dgravity.input=FILE); null = live input
+    private final InputTimeline timeline = InputTimeline.fromProperties();
 
-    // Performance tracking
-    private long lastFrameTime = System.nanoTime();
-    private int fps = 0;
-    private int particlesConsumed = 0;
+    // Per-phase frame timing, overlay (M) and JSON / JMX export
+    private final FrameMetrics metrics = FrameMetrics.fromProperties(model.name(), TARGET_FPS);
+    // Lowers quality step by step when frames run over budget (-Dgravity.governor=false to disable)
+    private final QualityGovernor governor = QualityGovernor.fromProperties(metrics, timestep, true, false);
 
     // Off-screen buffers for smooth rendering (double buffering)
     private BufferedImage bufferDraw;
     private BufferedImage bufferDisplay;
-
-    // =========================================================================
-    // Inner Class: BlackholeParticle
-    // =========================================================================
-    /**
-     * Specialized particle class for the accretion disk
-     */
-    private class BlackholeParticle {
-        double x, y;
-        double mass = 2.0;
-        double momentumX, momentumY;
-        boolean consumed = false;
-
-        public BlackholeParticle(double x, double y, double mx, double my) {
-            this.x = x;
-            this.y = y;
-            this.momentumX = mx;
-            this.momentumY = my;
-        }
-
-        public void move(double x2, double y2) {
-            if (consumed)
-                return;
-
-            double dx = x - x2;
-            double dy = y - y2;
-            double distanceSq = dx * dx + dy * dy;
-            double hyp = Math.sqrt(distanceSq);
-
-            // Event horizon check
-            if (hyp < EVENT_HORIZON_RADIUS) {
-                consumed = true;
-                particlesConsumed++;
-                return;
-            }
-
-            // Using pure Newtonian gravity formula 1/r^2
-            double force = (G * mass * M) / distanceSq;
-            double theta = Math.atan2(y2 - y, x2 - x);
-
-            double forceX = force * Math.cos(theta);
-            double forceY = force * Math.sin(theta);
-
-            momentumX += forceX * DT;
-            momentumY += forceY * DT;
-
-            x += (momentumX / mass) * DT;
-            y += (momentumY / mass) * DT;
-        }
-
-        public double getSpeed() {
-            return Math.sqrt(momentumX * momentumX + momentumY * momentumY) / mass;
-        }
-    }
+    // Direct pixel access to the same two buffers, swapped alongside them
+    private PixelRaster rasterDraw;
+    private PixelRaster rasterDisplay;
 
     // =========================================================================
     // Construction & wiring
@@ -104,92 +56,60 @@ public class BlackholeSimulation extends JPanel implements Runnable {
         setBackground(Color.BLACK);
         bufferDraw = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
         bufferDisplay = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
-
-        // Initial population
-        for (int i = 0; i < 5000; i++) {
-            spawnParticle();
-        }
+        rasterDraw = new PixelRaster(bufferDraw);
+        rasterDisplay = new PixelRaster(bufferDisplay);
 
         // --- Mouse listeners --------------------------------------------------
-        addMouseMotionListener(new MouseMotionAdapter() {
-            @Override
-            public void mouseMoved(MouseEvent e) {
-                blackholePos.x = e.getX();
-                blackholePos.y = e.getY();
-            }
+        // Not when a script moves the hole instead
+        if (timeline == null) {
+            addMouseMotionListener(new MouseMotionAdapter() {
+                @Override
+                public void mouseMoved(MouseEvent e) {
+                    model.setBlackholePosition(e.getX(), e.getY());
+                }
 
-            @Override
-            public void mouseDragged(MouseEvent e) {
-                blackholePos.x = e.getX();
-                blackholePos.y = e.getY();
-            }
-        });
+                @Override
+                public void mouseDragged(MouseEvent e) {
+                    model.setBlackholePosition(e.getX(), e.getY());
+                }
+            });
 
-        addMouseListener(new MouseAdapter() {
-            @Override
-            public void mouseEntered(MouseEvent e) {
-                mouseInside = true;
-            }
+            addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseEntered(MouseEvent e) {
+                    mouseInside = true;
+                }
+
+                @Override
+                public void mouseExited(MouseEvent e) {
+                    // If mouse leaves, park the black hole in the center so it doesn't get stuck on
+                    // edges
+                    mouseInside = false;
+                    model.setBlackholePosition(WIDTH / 2, HEIGHT / 2);
+                }
+            });
+        }
+
+        // Optional extra holes (-Dgravity.attractors=binary, unless a snapshot brought its own),
+        // integrator (-Dgravity.integrator) and longer steps (-Dgravity.stepScale)
+        if (!Snapshot.requested())
+            model.core().attractorsFromProperties();
+        model.core().setIntegrator(Integrator.fromProperties(), STEP_SCALE);
 
+        // M toggles the frame metrics overlay
+        setFocusable(true);
+        addKeyListener(new KeyAdapter() {
             @Override
-            public void mouseExited(MouseEvent e) {
-                // If mouse leaves, park the black hole in the center so it doesn't get stuck on
-                // edges
-                mouseInside = false;
-                blackholePos.x = WIDTH / 2;
-                blackholePos.y = HEIGHT / 2;
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_M)
+                    metrics.toggleOverlay();
             }
         });
     }
 
-    private void spawnParticle() {
-        double angle = rng.nextDouble() * 2 * Math.PI;
-
-        // Spawn particles in a disk from R=70 to R=800, concentrating near the center
-        double r = 70 + Math.pow(rng.nextDouble(), 1.5) * 730;
-
-        double px = blackholePos.x + Math.cos(angle) * r;
-        double py = blackholePos.y + Math.sin(angle) * r;
-
-        // Exact circular orbital velocity: v = sqrt(GM/r)
-        double orbitSpeed = Math.sqrt((G * M) / r);
-
-        // Tangential velocity vector
-        double velAngle = angle + (Math.PI / 2); // 90 degrees offset for orbit
-
-        // Minor randomness so the disk has thickness and mixing
-        double mx = Math.cos(velAngle) * orbitSpeed * 2.0; // mass is 2.0
-        double my = Math.sin(velAngle) * orbitSpeed * 2.0;
-
-        // Tiny jitter in momentum
-        mx *= (0.98 + rng.nextDouble() * 0.04);
-        my *= (0.98 + rng.nextDouble() * 0.04);
-
-        particles.add(new BlackholeParticle(px, py, mx, my));
-    }
-
-    private Color getParticleColor(double speed, boolean isSecondary) {
-        int r, g, b;
-        if (speed > 220) {
-            r = 220;
-            g = 240;
-            b = 255; // Blue-white
-        } else if (speed > 150) {
-            r = 255;
-            g = 230;
-            b = 180; // Yellow-white
-        } else if (speed > 100) {
-            r = 255;
-            g = 150;
-            b = 50; // Orange
-        } else {
-            r = 180;
-            g = 60;
-            b = 30; // Deep red
-        }
-
-        int alpha = isSecondary ? 100 : 255; // Ghostly halos
-        return new Color(r, g, b, alpha);
+    private static BlackholeModel createModel() {
+        Snapshot snapshot = Snapshot.fromProperties();
+        return snapshot == null ? new BlackholeModel() : new BlackholeModel(snapshot, ParallelStepper.shared());
     }
 
     // =========================================================================
@@ -202,157 +122,113 @@ public class BlackholeSimulation extends JPanel implements Runnable {
 
         while (true) {
             long start = System.nanoTime();
-
-            // --- Update & render to off-screen buffer -----------------------
-            Graphics2D g2 = bufferDraw.createGraphics();
-
-            // Use an alpha composite to create a motion blur/trail effect
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.2f));
-            g2.setColor(Color.BLACK);
-            g2.fillRect(0, 0, WIDTH, HEIGHT);
-
-            // Switch back to solid drawing for particles
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
-
-            // Perspective variables for real Gargantua equations
-            double tilt = 0.15; // Tilted disk
-            double sinTilt = Math.sin(tilt);
-            double cosTilt = Math.cos(tilt);
-            double RE = 68.0; // Einstein radius
-            double R_SHADOW = 50.0; // Event horizon shadow
-
-            int activeCount = 0;
-            for (BlackholeParticle p : particles) {
-                p.move(blackholePos.x, blackholePos.y);
-                if (!p.consumed)
-                    activeCount++;
+            metrics.beginFrame(start);
+
+            // --- Physics: as many fixed steps as the elapsed time demands ----
+            int steps = timestep.advance(start);
+            for (int k = 0; k < steps; k++) {
+                if (k == steps - 1)
+                    model.savePositions();
+                if (timeline != null)
+                    timeline.apply(stepCount, model);
+                model.step();
+                if (recorder != null)
+                    recorder.record(stepCount, model);
+                stepCount++;
             }
-
-            // Remove consumed and respawn
-            for (int i = particles.size() - 1; i >= 0; i--) {
-                if (particles.get(i).consumed) {
-                    particles.remove(i);
-                    spawnParticle();
-                }
+            metrics.lap(FrameMetrics.Phase.PHYSICS);
+            // Behind schedule: skip drawing this frame so physics can catch up
+            if (!timestep.shouldRender()) {
+                metrics.skipFrame();
+                continue;
             }
 
+            // --- Render to off-screen buffer --------------------------------
             // --- PASS 1: Secondary Images (Behind the Black Hole Shadow) ---
-            for (BlackholeParticle p : particles) {
-                double px = p.x - blackholePos.x;
-                double pz = p.y - blackholePos.y; // The 2D Y axis acts as our 3D Z axis (depth)
-
-                double u = px;
-                double v = pz * sinTilt;
-                double w = pz * cosTilt; // w > 0 means behind
-
-                if (w > 0) {
-                    double beta = Math.sqrt(u * u + v * v);
-                    if (beta < 0.1)
-                        beta = 0.1;
-
-                    double phi = Math.atan2(v, u);
-                    // Secondary image radius (microlensing formula)
-                    double r_minus = 0.5 * (Math.sqrt(beta * beta + 4 * RE * RE) - beta);
-
-                    // Only draw if outside the shadow, otherwise it's blocked
-                    if (r_minus > R_SHADOW) {
-                        double renderX = blackholePos.x + r_minus * Math.cos(phi + Math.PI);
-                        double renderY = blackholePos.y + r_minus * Math.sin(phi + Math.PI);
-
-                        double speed = p.getSpeed();
-                        Color c = getParticleColor(speed, true);
-                        g2.setColor(c);
-                        g2.fillRect((int) renderX, (int) renderY, 2, 2);
-                    }
-                }
-            }
-
-            // --- PASS 2: Black Hole Shadow ---
-            // Draw a pure black circle to represent the light-trapping shadow
-            g2.setColor(Color.BLACK);
-            g2.fillOval((int) (blackholePos.x - R_SHADOW), (int) (blackholePos.y - R_SHADOW), (int) (R_SHADOW * 2),
-                    (int) (R_SHADOW * 2));
-
-            // Draw photon ring glow around the edge of the shadow
-            g2.setColor(new Color(255, 230, 200, 80));
-            g2.setStroke(new BasicStroke(3.0f));
-            g2.drawOval((int) (blackholePos.x - R_SHADOW), (int) (blackholePos.y - R_SHADOW), (int) (R_SHADOW * 2),
-                    (int) (R_SHADOW * 2));
-            g2.setColor(new Color(255, 255, 255, 150));
-            g2.setStroke(new BasicStroke(1.0f));
-            g2.drawOval((int) (blackholePos.x - R_SHADOW), (int) (blackholePos.y - R_SHADOW), (int) (R_SHADOW * 2),
-                    (int) (R_SHADOW * 2));
-
-            // --- PASS 3: Primary Images (In Front of the Black Hole Shadow) ---
-            for (BlackholeParticle p : particles) {
-                double px = p.x - blackholePos.x;
-                double pz = p.y - blackholePos.y;
-
-                double u = px;
-                double v = pz * sinTilt;
-                double w = pz * cosTilt;
-
-                double beta = Math.sqrt(u * u + v * v);
-                if (beta < 0.1)
-                    beta = 0.1;
-
-                double phi = Math.atan2(v, u);
-
-                // Primary image radius (microlensing formula)
-                double r_plus = 0.5 * (beta + Math.sqrt(beta * beta + 4 * RE * RE));
+            model.renderBehind(rasterDraw);
+            metrics.lap(FrameMetrics.Phase.LENSING);
 
-                double renderX = blackholePos.x + r_plus * Math.cos(phi);
-                double renderY = blackholePos.y + r_plus * Math.sin(phi);
-
-                double speed = p.getSpeed();
-                Color c = getParticleColor(speed, false);
-
-                // For extremely fast particles near the event horizon, give them a bright core
-                if (speed > 220) {
-                    g2.setColor(new Color(c.getRed(), c.getGreen(), c.getBlue(), 100));
-                    g2.fillRect((int) renderX - 1, (int) renderY - 1, 4, 4);
-                }
+            Graphics2D g2 = bufferDraw.createGraphics();
 
-                g2.setColor(c);
-                g2.fillRect((int) renderX, (int) renderY, 2, 2);
+            // --- PASS 2: Black Hole Shadow (one per hole) ---
+            for (Attractor a : model.core().attractors()) {
+                int bhx = (int) a.x();
+                int bhy = (int) a.y();
+
+                // Draw a pure black circle to represent the light-trapping shadow
+                g2.setColor(Color.BLACK);
+                g2.fillOval((int) (bhx - R_SHADOW), (int) (bhy - R_SHADOW), (int) (R_SHADOW * 2),
+                        (int) (R_SHADOW * 2));
+
+                // Draw photon ring glow around the edge of the shadow
+                g2.setColor(new Color(255, 230, 200, 80));
+                g2.setStroke(new BasicStroke(3.0f));
+                g2.drawOval((int) (bhx - R_SHADOW), (int) (bhy - R_SHADOW), (int) (R_SHADOW * 2),
+                        (int) (R_SHADOW * 2));
+                g2.setColor(new Color(255, 255, 255, 150));
+                g2.setStroke(new BasicStroke(1.0f));
+                g2.drawOval((int) (bhx - R_SHADOW), (int) (bhy - R_SHADOW), (int) (R_SHADOW * 2),
+                        (int) (R_SHADOW * 2));
             }
 
+            // --- PASS 3: Primary Images (In Front of the Black Hole Shadow) ---
+            model.renderFront(rasterDraw);
+            metrics.lap(FrameMetrics.Phase.RASTER);
+
             // --- HUD --------------------------------------------------------
             g2.setColor(Color.WHITE);
             g2.setFont(new Font("Monospaced", Font.BOLD, 14));
-            g2.drawString(String.format("BH Mass        : %.1e", M), 20, 30);
-            g2.drawString(String.format("Particles      : %d", activeCount), 20, 50);
-            g2.drawString(String.format("Matter Consumed: %d", particlesConsumed), 20, 70);
-            g2.drawString(String.format("FPS            : %d", fps), 20, 90);
+            g2.drawString(String.format("BH Mass        : %.1e", BlackholeModel.M), 20, 30);
+            g2.drawString(String.format("Particles      : %d", model.activeCount()), 20, 50);
+            g2.drawString(String.format("Matter Consumed: %d", model.particlesConsumed()), 20, 70);
+            g2.drawString(String.format("FPS            : %.0f", metrics.fps()), 20, 90);
+            g2.drawString(String.format("Steps/frame    : %d", timestep.lastSteps()), 20, 110);
+            g2.drawString("Quality        : " + governor.status(), 20, 130);
+            g2.drawString("Governor       : " + governor.lastDecision(), 20, 150);
+            SimulationCore core = model.core();
+            if (core.integrator() != null) {
+                if (framesDrawn++ % TARGET_FPS == 0)
+                    integratorStatus = String.format("%s, %d x DT, %s", core.integrator().name(),
+                            core.stepScale(), core.measureDrift().describe());
+                g2.drawString("Integrator     : " + integratorStatus, 20, 170);
+            }
             if (!mouseInside) {
                 g2.drawString("MOVE MOUSE INTO WINDOW", WIDTH / 2 - 100, 30);
             }
 
+            if (metrics.overlay())
+                metrics.drawOverlay(g2, WIDTH - 10, 10);
             g2.dispose();
+            metrics.lap(FrameMetrics.Phase.OVERLAY);
 
             // --- Swap buffers and push to screen --------------------------------------
             synchronized (this) {
                 BufferedImage temp = bufferDisplay;
                 bufferDisplay = bufferDraw;
                 bufferDraw = temp;
+                PixelRaster tempRaster = rasterDisplay;
+                rasterDisplay = rasterDraw;
+                rasterDraw = tempRaster;
             }
             repaint();
-
-            // --- FPS calculation -------------------------------------------
-            long now = System.nanoTime();
-            long elapsed = now - lastFrameTime;
-            if (elapsed > 0)
-                fps = (int) (1_000_000_000L / elapsed);
-            lastFrameTime = now;
+            metrics.lap(FrameMetrics.Phase.SWAP);
 
             // --- Cap to target FPS ------------------------------------------
-            long sleepNs = targetNs - (now - start);
+            long sleepNs = targetNs - (System.nanoTime() - start);
             if (sleepNs > 0) {
                 try {
                     Thread.sleep(sleepNs / 1_000_000, (int) (sleepNs % 1_000_000));
                 } catch (InterruptedException ignored) {
                 }
             }
+            metrics.lap(FrameMetrics.Phase.SLEEP);
+            metrics.endFrame(model.activeCount());
+
+            // --- Quality governor: react to this frame's cost ---------------
+            governor.update(metrics.lastWorkNs(), model.activeCount(), System.nanoTime());
+            timestep.setSubStepLimit(governor.subSteps());
+            model.setRenderStride(governor.renderStride());
+            model.setHalos(governor.halos());
         }
     }
 
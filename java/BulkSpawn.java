@@ -0,0 +1,52 @@
+import java.util.SplittableRandom;
+
+/**
+ * Spawns particles in bulk: one capacity reservation for the whole
+ * pattern, then one parallel pass that fills positions and momenta.
+ *
+ * The pass runs over fixed blocks of {@link #BLOCK} particles, each with its
+ * own stream split off the caller's stream by
+ * {@link RandomStreams#split}. A block's draws therefore do not depend on
+ * which worker fills it, and a seeded run spawns the same particles with any
+ * worker count. Patterns under one block run inline on the calling thread.
+ */
+public final class BulkSpawn {
+
+    /** Particles per block; each block gets its own random stream. */
+    public static final int BLOCK = 4096;
+
+    /** Fills particles {@code [from, to)}, drawing only from {@code rng}. */
+    @FunctionalInterface
+    public interface BlockFill {
+        void fill(int from, int to, SplittableRandom rng);
+    }
+
+    private BulkSpawn() {
+    }
+
+    /**
+     * Appends {@code count} particles to {@code store} with a single
+     * reservation and fills them with {@code fill}; returns the first index.
+     */
+    public static int append(ParticleStore store, int count, SplittableRandom rng, ParallelStepper stepper,
+            BlockFill fill) {
+        int base = store.append(count);
+        forEachBlock(base, base + count, rng, stepper, fill);
+        return base;
+    }
+
+    /** Runs {@code fill} over {@code [from, to)} block by block, in parallel, one split stream per block. */
+    public static void forEachBlock(int from, int to, SplittableRandom rng, ParallelStepper stepper,
+            BlockFill fill) {
+        int blocks = (to - from + BLOCK - 1) / BLOCK;
+        if (blocks <= 0)
+            return;
+        SplittableRandom[] streams = RandomStreams.split(rng, blocks);
+        stepper.forEach(blocks, 1, (first, last) -> {
+            for (int b = first; b < last; b++) {
+                int start = from + b * BLOCK;
+                fill.fill(start, Math.min(to, start + BLOCK), streams[b]);
+            }
+        });
+    }
+}
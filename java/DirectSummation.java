@@ -0,0 +1,98 @@
+/**
+ * O(n^2) reference for {@link SelfGravity}: every pair is summed exactly.
+ *
+ * Too slow for interactive use beyond a few thousand particles; it exists
+ * to measure the force error of {@link BarnesHutTree} (see
+ * {@link #relativeError}).
+ */
+public class DirectSummation implements SelfGravity {
+
+    private final double g;
+    private final double softeningSq;
+    private final ParallelStepper stepper;
+    // Particles of the last force pass, for accelerationAt
+    private ParticleStore store;
+    private double particleMass;
+
+    public DirectSummation(double g, double softening, ParallelStepper stepper) {
+        this.g = g;
+        this.softeningSq = softening * softening;
+        this.stepper = stepper;
+    }
+
+    @Override
+    public double coupling() {
+        return g;
+    }
+
+    @Override
+    public String name() {
+        return "direct";
+    }
+
+    @Override
+    public void computeForces(ParticleStore store, double particleMass, double[] fx, double[] fy) {
+        this.store = store;
+        this.particleMass = particleMass;
+        int n = store.size();
+        double[] xs = store.x, ys = store.y;
+        double k = g * particleMass * particleMass;
+        stepper.forEach(n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                double x = xs[i], y = ys[i];
+                double sx = 0, sy = 0;
+                for (int j = 0; j < n; j++) {
+                    if (j == i)
+                        continue;
+                    double dx = xs[j] - x;
+                    double dy = ys[j] - y;
+                    double s = ForceKernel.inverseR(k, dx * dx + dy * dy + softeningSq);
+                    sx += s * dx;
+                    sy += s * dy;
+                }
+                fx[i] = sx;
+                fy[i] = sy;
+            }
+        });
+    }
+
+    @Override
+    public void accelerationAt(double x, double y, double[] out) {
+        double sx = 0, sy = 0;
+        if (store != null) {
+            double[] xs = store.x, ys = store.y;
+            double k = g * particleMass;
+            for (int j = 0, n = store.size(); j < n; j++) {
+                double dx = xs[j] - x;
+                double dy = ys[j] - y;
+                double s = ForceKernel.inverseR(k, dx * dx + dy * dy + softeningSq);
+                sx += s * dx;
+                sy += s * dy;
+            }
+        }
+        out[0] = sx;
+        out[1] = sy;
+    }
+
+    /**
+     * RMS of |F_approx - F_exact| / |F_exact| over all particles, comparing
+     * {@code approx} against this exact sum.
+     */
+    public double relativeError(SelfGravity approx, ParticleStore store, double particleMass) {
+        int n = store.size();
+        double[] ex = new double[n], ey = new double[n], ax = new double[n], ay = new double[n];
+        computeForces(store, particleMass, ex, ey);
+        approx.computeForces(store, particleMass, ax, ay);
+        double sum = 0;
+        int counted = 0;
+        for (int i = 0; i < n; i++) {
+            double exact = Math.hypot(ex[i], ey[i]);
+            if (exact == 0)
+                continue;
+            double err = Math.hypot(ax[i] - ex[i], ay[i] - ey[i]) / exact;
+            sum += err * err;
+            counted++;
+        }
+        return counted == 0 ? 0 : Math.sqrt(sum / counted);
+    }
+}
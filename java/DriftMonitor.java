@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * Measures how far each particle's energy and angular momentum in an
+ * {@link AttractorField} have drifted since it was first seen.
+ *
+ * Both are conserved exactly by the true motion around a single fixed
+ * attractor, so their drift is the integrator's error. With several
+ * sources only the energy is conserved; angular momentum is taken about
+ * the first source and its drift is then physical. Per particle, with p
+ * the momentum and r the offset from the first source:
+ *
+ * <pre>
+ *   E = |p|^2 / 2m + U(r)        dE = |E - E0| / (|p0|^2 / 2m)
+ *   L = r x p                    dL = |L - L0| / (r0 |p0|)
+ * </pre>
+ *
+ * Errors are relative to the starting kinetic energy and to r0 |p0|
+ * rather than to E0 and L0, which can be zero (the 1/r potential has no
+ * natural zero; radial orbits have no angular momentum). The report is the
+ * mean and maximum over particles.
+ *
+ * Forces outside the field (self-gravity, collisions) change E and L for
+ * real and show up as drift too. Particles the model replaces are
+ * {@link #forget forgotten} and start over at the next measurement, as do
+ * all particles when any source moves.
+ */
+public final class DriftMonitor {
+
+    private final ParallelStepper stepper;
+    private double[] e0 = new double[0];
+    private double[] l0 = new double[0];
+    private double[] eNorm = new double[0];
+    private double[] lNorm = new double[0];
+    // Source positions the baselines were taken with
+    private double[] baseX = new double[0], baseY = new double[0];
+
+    // Last measurement
+    private double meanEnergy, maxEnergy, meanMomentum, maxMomentum;
+    private int measured;
+
+    public DriftMonitor(ParallelStepper stepper) {
+        this.stepper = stepper;
+    }
+
+    /** Drops particle {@code i}'s baseline, e.g. after it was respawned. */
+    public void forget(int i) {
+        if (i < e0.length)
+            e0[i] = Double.NaN;
+    }
+
+    /** Measures particles {@code [0, size)}; new and forgotten ones only get a baseline. */
+    public void measure(ParticleStore store, AttractorField field) {
+        int n = store.size();
+        if (e0.length < n) {
+            int old = e0.length;
+            int cap = Math.max(n, store.capacity());
+            e0 = Arrays.copyOf(e0, cap);
+            l0 = Arrays.copyOf(l0, cap);
+            eNorm = Arrays.copyOf(eNorm, cap);
+            lNorm = Arrays.copyOf(lNorm, cap);
+            Arrays.fill(e0, old, cap, Double.NaN);
+        }
+        if (!Arrays.equals(field.cx, baseX) || !Arrays.equals(field.cy, baseY)) {
+            Arrays.fill(e0, Double.NaN);
+            baseX = field.cx.clone();
+            baseY = field.cy.clone();
+        }
+
+        // Chunk sums merged under a lock: a handful of chunks per measurement
+        double[] totals = new double[4];
+        int[] count = { 0 };
+        byte[] flags = field.absorbing ? store.flags : null;
+        stepper.forEach(n, (from, to) -> {
+            double sumE = 0, maxE = 0, sumL = 0, maxL = 0;
+            int c = 0;
+            for (int i = from; i < to; i++) {
+                if (flags != null && flags[i] == AttractorField.ABSORBED)
+                    continue;
+                double rx = store.x[i] - field.cx[0], ry = store.y[i] - field.cy[0];
+                double px = store.momentumX[i], py = store.momentumY[i];
+                double distSq = rx * rx + ry * ry;
+                double p2 = px * px + py * py;
+                double e = p2 / (2 * field.mass) + field.potential(store.x[i], store.y[i]);
+                double l = rx * py - ry * px;
+                if (Double.isNaN(e0[i])) {
+                    e0[i] = e;
+                    l0[i] = l;
+                    eNorm[i] = Math.max(p2 / (2 * field.mass), Double.MIN_NORMAL);
+                    lNorm[i] = Math.max(Math.sqrt(distSq * p2), Double.MIN_NORMAL);
+                    continue;
+                }
+                double de = Math.abs(e - e0[i]) / eNorm[i];
+                double dl = Math.abs(l - l0[i]) / lNorm[i];
+                sumE += de;
+                maxE = Math.max(maxE, de);
+                sumL += dl;
+                maxL = Math.max(maxL, dl);
+                c++;
+            }
+            synchronized (totals) {
+                totals[0] += sumE;
+                totals[1] = Math.max(totals[1], maxE);
+                totals[2] += sumL;
+                totals[3] = Math.max(totals[3], maxL);
+                count[0] += c;
+            }
+        });
+        measured = count[0];
+        meanEnergy = measured == 0 ? 0 : totals[0] / measured;
+        maxEnergy = totals[1];
+        meanMomentum = measured == 0 ? 0 : totals[2] / measured;
+        maxMomentum = totals[3];
+    }
+
+    public double meanEnergyDrift() {
+        return meanEnergy;
+    }
+
+    public double maxEnergyDrift() {
+        return maxEnergy;
+    }
+
+    public double meanAngularMomentumDrift() {
+        return meanMomentum;
+    }
+
+    public double maxAngularMomentumDrift() {
+        return maxMomentum;
+    }
+
+    /** Particles that had a baseline at the last measurement. */
+    public int measured() {
+        return measured;
+    }
+
+    /** Last measurement in brief, e.g. {@code "dE 2.1e-05 (max 3.0e-03), dL 4.0e-07 (max 1.2e-05)"}. */
+    public String describe() {
+        if (measured == 0)
+            return "no baselines (first measurement, or the sources moved)";
+        return String.format("dE %.1e (max %.1e), dL %.1e (max %.1e)", meanEnergy, maxEnergy, meanMomentum,
+                maxMomentum);
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * In-place radix-2 complex FFT of one fixed power-of-two length, for
+ * {@link ParticleMesh}.
+ *
+ * Twiddle factors and the bit-reversal permutation are computed once in the
+ * constructor; {@link #transform} only reads them, so one instance can be
+ * shared by every worker. The inverse is not normalized: a forward then
+ * inverse transform multiplies the data by {@link #length()}.
+ */
+public final class Fft {
+
+    private final int length;
+    private final double[] cos;
+    private final double[] sin;
+    private final int[] reversed;
+
+    public Fft(int length) {
+        if (length < 2 || Integer.bitCount(length) != 1)
+            throw new IllegalArgumentException("FFT length must be a power of two: " + length);
+        this.length = length;
+        cos = new double[length / 2];
+        sin = new double[length / 2];
+        for (int k = 0; k < length / 2; k++) {
+            double a = 2 * Math.PI * k / length;
+            cos[k] = Math.cos(a);
+            sin[k] = Math.sin(a);
+        }
+        reversed = new int[length];
+        int bits = Integer.numberOfTrailingZeros(length);
+        for (int i = 0; i < length; i++)
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /** Transforms {@code re/im[offset, offset + length)}; {@code inverse} flips the sign of the exponent. */
+    public void transform(double[] re, double[] im, int offset, boolean inverse) {
+        for (int i = 0; i < length; i++) {
+            int j = reversed[i];
+            if (i < j) {
+                double t = re[offset + i];
+                re[offset + i] = re[offset + j];
+                re[offset + j] = t;
+                t = im[offset + i];
+                im[offset + i] = im[offset + j];
+                im[offset + j] = t;
+            }
+        }
+        double sign = inverse ? 1 : -1;
+        for (int len = 2; len <= length; len <<= 1) {
+            int half = len >> 1;
+            int stride = length / len;
+            for (int start = offset; start < offset + length; start += len) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * stride], wi = sign * sin[k * stride];
+                    int a = start + k, b = a + half;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Decouples physics from the render rate with a fixed-step accumulator.
+ *
+ * Each loop iteration hands the elapsed wall time to {@link #advance(long)},
+ * which returns how many fixed physics steps to run so that simulated time
+ * tracks real time no matter how fast frames are drawn. When a frame falls
+ * behind, rendering is dropped first ({@link #shouldRender()} returns false
+ * for up to {@code maxSkippedFrames} iterations in a row) so the physics can
+ * catch up; only lag beyond {@code maxSubSteps} steps per iteration, or a
+ * backlog larger than a quarter second, is discarded. {@link #alpha()} is
+ * the fraction of a step left over, for interpolating rendered positions.
+ *
+ * {@link #setSubStepLimit(int)} lowers the step cap at run time (the
+ * {@link QualityGovernor} does this under load). While lowered, lag the
+ * cap cannot absorb is dropped at once rather than worked off by skipping
+ * frames, so an overloaded simulation runs in slow motion instead of
+ * stuttering.
+ */
+public class FixedTimestep {
+
+    private static final long MAX_LAG_NS = 250_000_000L;
+
+    private final long stepNs;
+    private final int maxSubSteps;
+    private final int maxSkippedFrames;
+
+    private long last = 0;
+    private long accumulator = 0;
+    private int skipped = 0;
+    private boolean render = true;
+    private int lastSteps = 0;
+    private int subStepLimit;
+
+    public FixedTimestep(double stepsPerSecond, int maxSubSteps, int maxSkippedFrames) {
+        this.stepNs = (long) (1_000_000_000L / stepsPerSecond);
+        this.maxSubSteps = Math.max(1, maxSubSteps);
+        this.subStepLimit = this.maxSubSteps;
+        this.maxSkippedFrames = Math.max(0, maxSkippedFrames);
+    }
+
+    /**
+     * Scheduler configured by {@code -Dgravity.stepsPerSecond} (default
+     * {@code defaultRate}, i.e. one step per frame as before) and
+     * {@code -Dgravity.maxSubSteps} (default 8).
+     */
+    public static FixedTimestep fromProperties(double defaultRate) {
+        double rate = Double.parseDouble(System.getProperty("gravity.stepsPerSecond", String.valueOf(defaultRate)));
+        int maxSub = Integer.getInteger("gravity.maxSubSteps", 8);
+        return new FixedTimestep(rate, maxSub, 4);
+    }
+
+    /** Accounts for the wall time up to {@code nowNs}; returns the physics steps to run. */
+    public int advance(long nowNs) {
+        if (last == 0)
+            last = nowNs;
+        accumulator += nowNs - last;
+        last = nowNs;
+        if (accumulator > MAX_LAG_NS)
+            accumulator = MAX_LAG_NS;
+
+        int steps = (int) Math.min(accumulator / stepNs, subStepLimit);
+        accumulator -= steps * stepNs;
+        if (subStepLimit < maxSubSteps && accumulator >= stepNs)
+            accumulator %= stepNs; // governed: drop the backlog
+
+        boolean behind = accumulator >= stepNs;
+        if (behind && skipped < maxSkippedFrames) {
+            skipped++;
+            render = false;
+        } else {
+            skipped = 0;
+            render = true;
+        }
+        lastSteps = steps;
+        return steps;
+    }
+
+    /** False when this iteration should skip drawing to let physics catch up. */
+    public boolean shouldRender() {
+        return render;
+    }
+
+    /** Leftover fraction of a step, in [0, 1], for render interpolation. */
+    public double alpha() {
+        return Math.min(1.0, (double) accumulator / stepNs);
+    }
+
+    public int maxSubSteps() {
+        return maxSubSteps;
+    }
+
+    /** Caps steps per iteration at {@code limit}, between 1 and the configured maximum. */
+    public void setSubStepLimit(int limit) {
+        subStepLimit = Math.max(1, Math.min(limit, maxSubSteps));
+    }
+
+    public int subStepLimit() {
+        return subStepLimit;
+    }
+
+    /** Physics steps run by the last {@link #advance(long)}. */
+    public int lastSteps() {
+        return lastSteps;
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.SplittableRandom;
+
+/**
+ * Trig-free central force kernel shared by all simulations.
+ *
+ * The original move() methods rebuilt the unit vector towards the attractor
+ * with atan2 followed by cos and sin. That vector is simply (dx, dy) / r, so
+ * each force law collapses to a single scale factor {@code s} such that
+ *
+ * <pre>
+ *   forceX = s * (x2 - x)
+ *   forceY = s * (y2 - y)
+ * </pre>
+ *
+ * computed from the squared distance with multiplies and at most one sqrt.
+ * Cutoffs (hyp &lt; 1, EVENT_HORIZON_RADIUS) stay with the caller and are
+ * compared against the squared radius.
+ *
+ * Against the trig formulation both force components agree to within
+ * {@link #TOLERANCE} of the force magnitude. {@code java ForceKernel} checks
+ * this over random offsets and the edge cases r near 1, r &lt; 1 and huge r,
+ * and exits with status 1 if any offset misses.
+ */
+public final class ForceKernel {
+
+    /** Relative tolerance the kernel is held to against the atan2/cos/sin form. */
+    public static final double TOLERANCE = 1e-12;
+
+    private ForceKernel() {
+    }
+
+    /**
+     * Scale for a 1/r force of strength {@code k} (Gravity.py, GalaxySimulation):
+     * |F| = k / r, so s = k / r^2. No sqrt needed.
+     */
+    public static double inverseR(double k, double distSq) {
+        return k / distSq;
+    }
+
+    /**
+     * Scale for a 1/r^2 force of strength {@code k} (BlackholeSimulation):
+     * |F| = k / r^2, so s = k / r^3.
+     */
+    public static double inverseRSquared(double k, double distSq) {
+        double invR = 1.0 / Math.sqrt(distSq);
+        return k * invR * invR * invR;
+    }
+
+    // ---------- Self-check against the atan2/cos/sin form --------------------
+
+    public static void main(String[] args) {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        SplittableRandom rng = new SplittableRandom(args.length > 1 ? Long.parseLong(args[1]) : 1);
+        double[] worst = new double[2];
+        for (int i = 0; i < samples; i++) {
+            // Log-uniform radius over 1e-6 .. 1e6 at a uniform angle
+            double r = Math.pow(10, rng.nextDouble(-6, 6));
+            double a = rng.nextDouble(-Math.PI, Math.PI);
+            check(r * Math.cos(a), r * Math.sin(a), worst);
+        }
+        // Edge cases: on the axes and diagonals, r just around 1, r < 1 and huge r
+        double[] radii = { 1.0, Math.nextDown(1.0), Math.nextUp(1.0), 1 - 1e-9, 1 + 1e-9,
+                0.5, 1e-3, 1e-9, 1e6, 1e12, 1e50, 1e100 };
+        for (double r : radii) {
+            for (int k = 0; k < 8; k++) {
+                double a = k * Math.PI / 4;
+                check(r * Math.cos(a), r * Math.sin(a), worst);
+                check(k % 2 == 0 ? r : -r, k < 4 ? 0.0 : -0.0, worst);
+                check(k < 4 ? 0.0 : -0.0, k % 2 == 0 ? r : -r, worst);
+            }
+        }
+        System.out.printf("1/r   worst relative error : %.3g%n", worst[0]);
+        System.out.printf("1/r^2 worst relative error : %.3g%n", worst[1]);
+        // Negated so that a NaN error (Math.max keeps it) fails too
+        if (!(worst[0] <= TOLERANCE && worst[1] <= TOLERANCE)) {
+            System.err.println("FAIL: above tolerance " + TOLERANCE);
+            System.exit(1);
+        }
+        System.out.println("ok (tolerance " + TOLERANCE + ")");
+    }
+
+    // Compares both laws at offset (dx, dy) = (x2 - x, y2 - y), error relative to |F|
+    private static void check(double dx, double dy, double[] worst) {
+        double distSq = dx * dx + dy * dy;
+        double hyp = Math.sqrt(distSq);
+        double theta = Math.atan2(dy, dx);
+        double k = 1.0;
+
+        double force = k / hyp;
+        double s = inverseR(k, distSq);
+        worst[0] = Math.max(worst[0], error(s * dx, s * dy, force * Math.cos(theta), force * Math.sin(theta), force));
+
+        force = k / distSq;
+        s = inverseRSquared(k, distSq);
+        worst[1] = Math.max(worst[1], error(s * dx, s * dy, force * Math.cos(theta), force * Math.sin(theta), force));
+    }
+
+    private static double error(double fx, double fy, double refX, double refY, double magnitude) {
+        return Math.max(Math.abs(fx - refX), Math.abs(fy - refY)) / magnitude;
+    }
+}
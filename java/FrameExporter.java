@@ -0,0 +1,277 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes rendered frames on a pool of threads while the simulation thread
+ * carries on with the next step.
+ *
+ * {@link #submit(PixelRaster)} copies the frame into an image taken from a
+ * fixed pool, which costs one arraycopy, and queues it for encoding. The
+ * caller keeps its own raster, so trail effects that fade the previous
+ * frame work exactly as in the windowed front ends. When every pooled image
+ * is still being encoded, submit waits. An export never drops frames; it
+ * runs at the speed of the slower of simulation and encoding. Images,
+ * RGB buffers and PNG encoders are all reused, so a long export makes
+ * almost no garbage per frame.
+ *
+ * Two outputs:
+ * <ul>
+ * <li>{@link #pngSequence} writes {@code frame_000000.png}, ... into a
+ * directory. Frames are encoded fully in parallel.</li>
+ * <li>{@link #rawStream} writes packed 8-bit RGB frames back to back, for
+ * example for {@code ffmpeg -f rawvideo -pix_fmt rgb24 -s 1500x800 -i -}.
+ * The RGB conversion runs in parallel; the writes are put back in frame
+ * order.</li>
+ * </ul>
+ */
+public class FrameExporter implements AutoCloseable {
+
+    private final int width;
+    private final int height;
+    private final Path directory; // PNG sequence, or null
+    private final OutputStream raw; // raw RGB stream, or null
+    private final ExecutorService encoders;
+    private final ArrayBlockingQueue<PixelRaster> free;
+    private final ThreadLocal<PngEncoder> pngEncoder = ThreadLocal.withInitial(PngEncoder::new);
+    private final ThreadLocal<byte[]> rgbFrame;
+
+    private int submitted;
+    // Next frame to go to the raw stream; guarded by {@code this}
+    private int nextToWrite;
+    private final AtomicInteger written = new AtomicInteger();
+    private volatile IOException failure;
+
+    private FrameExporter(int width, int height, Path directory, OutputStream raw, int threads, int pooled) {
+        this.width = width;
+        this.height = height;
+        this.directory = directory;
+        this.raw = raw;
+        this.free = new ArrayBlockingQueue<>(pooled);
+        for (int i = 0; i < pooled; i++)
+            free.add(new PixelRaster(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)));
+        AtomicInteger ids = new AtomicInteger();
+        this.encoders = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "frame-encoder-" + ids.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.rgbFrame = ThreadLocal.withInitial(() -> new byte[width * height * 3]);
+    }
+
+    /**
+     * Exports PNG files into {@code directory} (created if missing) on
+     * {@code threads} encoders, with two pooled images per encoder.
+     */
+    public static FrameExporter pngSequence(Path directory, int width, int height, int threads) throws IOException {
+        Files.createDirectories(directory);
+        return new FrameExporter(width, height, directory, null, threads, 2 * threads);
+    }
+
+    /** Exports raw RGB24 frames to {@code out}, which is closed with the exporter. */
+    public static FrameExporter rawStream(OutputStream out, int width, int height, int threads) {
+        return new FrameExporter(width, height, null, new BufferedOutputStream(out, 1 << 20), threads, 2 * threads);
+    }
+
+    /** Frames fully written so far. */
+    public int writtenFrames() {
+        return written.get();
+    }
+
+    // =========================================================================
+    // Simulation thread
+    // =========================================================================
+
+    /** Queues a copy of {@code frame} for encoding, waiting for a free pooled image if needed. */
+    public void submit(PixelRaster frame) throws IOException {
+        if (frame.width() != width || frame.height() != height)
+            throw new IllegalArgumentException("frame is " + frame.width() + "x" + frame.height()
+                    + ", exporter expects " + width + "x" + height);
+        checkFailure();
+        PixelRaster copy;
+        try {
+            copy = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for an encoder", e);
+        }
+        System.arraycopy(frame.pixels(), 0, copy.pixels(), 0, copy.pixels().length);
+        int index = submitted++;
+        encoders.execute(() -> {
+            try {
+                if (directory != null)
+                    writePng(copy, index);
+                else
+                    writeRaw(copy, index);
+            } catch (IOException e) {
+                failure = e;
+            } catch (UncheckedIOException e) {
+                failure = e.getCause();
+            } finally {
+                free.add(copy);
+            }
+        });
+    }
+
+    /** Waits for every queued frame to be written, then releases the encoders and the stream. */
+    @Override
+    public void close() throws IOException {
+        encoders.shutdown();
+        try {
+            while (!encoders.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting; a long export can have many frames queued
+            }
+        } catch (InterruptedException e) {
+            encoders.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (raw != null)
+            raw.close();
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null)
+            throw e;
+    }
+
+    // =========================================================================
+    // Encoder threads
+    // =========================================================================
+
+    private void writePng(PixelRaster frame, int index) throws IOException {
+        if (failure != null)
+            return;
+        Path file = directory.resolve(String.format("frame_%06d.png", index));
+        try (OutputStream out = Files.newOutputStream(file)) {
+            pngEncoder.get().encode(frame, out);
+        }
+        written.incrementAndGet();
+    }
+
+    private void writeRaw(PixelRaster frame, int index) throws IOException {
+        // Convert in parallel with the other encoders, then write in frame order
+        byte[] rgb = rgbFrame.get();
+        if (failure == null) {
+            int[] px = frame.pixels();
+            for (int i = 0, j = 0; i < px.length; i++) {
+                int c = px[i];
+                rgb[j++] = (byte) (c >> 16);
+                rgb[j++] = (byte) (c >> 8);
+                rgb[j++] = (byte) c;
+            }
+        }
+        synchronized (this) {
+            while (nextToWrite != index) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while ordering frames", e);
+                }
+            }
+            try {
+                // After a failure later frames still take their turn, without writing
+                if (failure == null) {
+                    raw.write(rgb, 0, rgb.length);
+                    written.incrementAndGet();
+                }
+            } finally {
+                nextToWrite++;
+                notifyAll();
+            }
+        }
+    }
+
+    // =========================================================================
+    // PNG encoding
+    // =========================================================================
+
+    /**
+     * Minimal truecolor PNG writer, one per encoder thread. ImageIO's writer
+     * allocates row and chunk buffers on every call; this one keeps its
+     * Deflater, scanline and chunk buffers, so steady-state encoding makes
+     * no garbage. Scanlines use the Sub filter, which turns the flat
+     * background of a simulation frame into runs of zeros, and the stream
+     * is deflated at level 1.
+     */
+    private static final class PngEncoder {
+        private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+        private static final int IDAT_BYTES = 1 << 16;
+
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final CRC32 crc = new CRC32();
+        // length + type + data + CRC of the chunk being written
+        private final byte[] chunk = new byte[12 + IDAT_BYTES];
+        private byte[] scanline = new byte[0];
+
+        void encode(PixelRaster frame, OutputStream out) throws IOException {
+            int w = frame.width(), h = frame.height();
+            out.write(SIGNATURE);
+
+            ByteBuffer ihdr = ByteBuffer.wrap(chunk, 8, 13);
+            ihdr.putInt(w).putInt(h).put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+            writeChunk(out, "IHDR", 13);
+
+            int stride = 1 + 3 * w;
+            if (scanline.length < stride)
+                scanline = new byte[stride];
+            byte[] line = scanline;
+            int[] px = frame.pixels();
+            deflater.reset();
+            int pending = 0;
+            for (int y = 0; y < h; y++) {
+                // Sub filter: each byte minus the same channel of the pixel to its left
+                line[0] = 1;
+                int row = y * w;
+                int prev = 0;
+                for (int x = 0, j = 1; x < w; x++, j += 3) {
+                    int c = px[row + x];
+                    line[j] = (byte) ((c >> 16) - (prev >> 16));
+                    line[j + 1] = (byte) ((c >> 8) - (prev >> 8));
+                    line[j + 2] = (byte) (c - prev);
+                    prev = c;
+                }
+                deflater.setInput(line, 0, stride);
+                boolean last = y == h - 1;
+                if (last)
+                    deflater.finish();
+                while (last ? !deflater.finished() : !deflater.needsInput()) {
+                    pending += deflater.deflate(chunk, 8 + pending, IDAT_BYTES - pending);
+                    if (pending == IDAT_BYTES) {
+                        writeChunk(out, "IDAT", pending);
+                        pending = 0;
+                    }
+                }
+            }
+            if (pending > 0)
+                writeChunk(out, "IDAT", pending);
+            writeChunk(out, "IEND", 0);
+        }
+
+        /** Writes the chunk whose {@code length} data bytes are already at {@code chunk[8..]}. */
+        private void writeChunk(OutputStream out, String type, int length) throws IOException {
+            ByteBuffer head = ByteBuffer.wrap(chunk, 0, 8);
+            head.putInt(length);
+            for (int i = 0; i < 4; i++)
+                chunk[4 + i] = (byte) type.charAt(i);
+            crc.reset();
+            crc.update(chunk, 4, 4 + length);
+            ByteBuffer.wrap(chunk, 8 + length, 4).putInt((int) crc.getValue());
+            out.write(chunk, 0, 12 + length);
+        }
+    }
+}
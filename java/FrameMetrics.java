@@ -0,0 +1,486 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Per-phase timing of a front end's game loop.
+ *
+ * The loop calls {@link #beginFrame(long)} with its start time, then
+ * {@link #lap(Phase)} as it finishes each phase. A lap is charged the time
+ * since the previous one, so a frame costs one {@code nanoTime()} per phase
+ * and nothing is allocated. Frames end with {@link #endFrame(int)}, or with
+ * {@link #skipFrame()} when the loop skips drawing to catch up on physics.
+ *
+ * Durations go into log-linear histograms in the style of HdrHistogram:
+ * 64 linear sub-buckets per power of two, so any percentile is within
+ * about 1.5% of the true value. Once a second the interval histograms are
+ * folded into a {@link Report}, never modified once published, which drives
+ * <ul>
+ * <li>the overlay ({@link #drawOverlay}): a per-phase table and a stacked
+ * frame-time graph of the last {@value #GRAPH_FRAMES} frames against the
+ * budget,</li>
+ * <li>one JSON line per second with {@code -Dgravity.metricsOut=FILE}
+ * ({@code -} for stdout),</li>
+ * <li>the {@link FrameMetricsMBean} at
+ * {@code gravity:type=FrameMetrics,name=<simulation>}.</li>
+ * </ul>
+ * Only the loop thread records. Readers on other threads see the latest
+ * published report.
+ */
+public class FrameMetrics implements FrameMetricsMBean {
+
+    public enum Phase {
+        INPUT("input", new Color(120, 120, 255)),
+        PHYSICS("physics", new Color(90, 200, 90)),
+        LENSING("lensing", new Color(230, 200, 60)),
+        RASTER("raster", new Color(240, 130, 50)),
+        OVERLAY("overlay", new Color(200, 90, 200)),
+        SWAP("swap", new Color(90, 200, 220)),
+        SLEEP("sleep", new Color(70, 70, 70));
+
+        final String label;
+        final Color color;
+
+        Phase(String label, Color color) {
+            this.label = label;
+            this.color = color;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final long REPORT_NS = 1_000_000_000L;
+    static final int GRAPH_FRAMES = 240;
+
+    /** One report interval, summarized. Durations in milliseconds. */
+    public static final class Report {
+        static final Report EMPTY = new Report();
+
+        public int particles;
+        public int frames;
+        public double fps;
+        public double frameP50, frameP99, frameMax;
+        public double workP50, workP99;
+        public final double[] phaseMean = new double[PHASES.length];
+        public final double[] phaseP50 = new double[PHASES.length];
+        public final double[] phaseP99 = new double[PHASES.length];
+        public final double[] phaseMax = new double[PHASES.length];
+    }
+
+    private final String simulation;
+    private final long budgetNs;
+    private final PrintStream json; // null unless -Dgravity.metricsOut
+
+    // ---------- Loop thread --------------------------------------------------
+    private final Histogram frameTime = new Histogram();
+    private final Histogram workTime = new Histogram();
+    private final Histogram[] phaseTime = new Histogram[PHASES.length];
+    private final long[] phaseNs = new long[PHASES.length]; // this frame
+    private long frameStart;
+    private long lapStart;
+    private long intervalStart = System.nanoTime();
+    private int intervalFrames;
+    // Stacked phase durations of recent frames, in microseconds; a ring
+    private final int[] graph = new int[GRAPH_FRAMES * PHASES.length];
+    private int graphNext;
+    private long lastWorkNs;
+
+    // ---------- Published ----------------------------------------------------
+    private volatile Report report = Report.EMPTY;
+    private volatile long totalFrames;
+    private volatile long skippedFrames;
+    private volatile long overBudgetFrames;
+    private volatile boolean overlay;
+
+    public FrameMetrics(String simulation, int targetFps, PrintStream json) {
+        this.simulation = simulation;
+        this.budgetNs = 1_000_000_000L / targetFps;
+        this.json = json;
+        for (int p = 0; p < PHASES.length; p++)
+            phaseTime[p] = new Histogram();
+    }
+
+    /**
+     * Metrics for a front end, registered with the platform MBean server:
+     * {@code -Dgravity.metricsOut=FILE|-} adds JSON lines and
+     * {@code -Dgravity.overlay=true} starts with the overlay shown.
+     */
+    public static FrameMetrics fromProperties(String simulation, int targetFps) {
+        String out = System.getProperty("gravity.metricsOut");
+        PrintStream json = null;
+        if (out != null) {
+            try {
+                json = "-".equals(out) ? System.out : new PrintStream(new FileOutputStream(out), true, "UTF-8");
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot open " + out, e);
+            }
+        }
+        FrameMetrics metrics = new FrameMetrics(simulation, targetFps, json);
+        metrics.setOverlay(Boolean.getBoolean("gravity.overlay"));
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                    new ObjectName("gravity:type=FrameMetrics,name=" + simulation));
+        } catch (JMException e) {
+            System.err.println("Frame metrics not exported over JMX: " + e.getMessage());
+        }
+        return metrics;
+    }
+
+    public boolean overlay() {
+        return overlay;
+    }
+
+    public void setOverlay(boolean on) {
+        overlay = on;
+    }
+
+    public void toggleOverlay() {
+        overlay = !overlay;
+    }
+
+    /** Latest one-second summary. */
+    public Report report() {
+        return report;
+    }
+
+    /** Frames drawn per second over the last report interval. */
+    public double fps() {
+        return report.fps;
+    }
+
+    /** Budget per frame: one period of the target frame rate. */
+    public long budgetNs() {
+        return budgetNs;
+    }
+
+    /** Work time (frame minus sleep) of the last drawn frame; loop thread only. */
+    public long lastWorkNs() {
+        return lastWorkNs;
+    }
+
+    // =========================================================================
+    // Recording (loop thread)
+    // =========================================================================
+
+    public void beginFrame(long start) {
+        frameStart = start;
+        lapStart = start;
+    }
+
+    /** Charges the time since the last lap (or the frame start) to {@code phase}. */
+    public void lap(Phase phase) {
+        long now = System.nanoTime();
+        phaseNs[phase.ordinal()] += now - lapStart;
+        lapStart = now;
+    }
+
+    /** Ends a drawn frame. */
+    public void endFrame(int particles) {
+        long now = System.nanoTime();
+        long frame = now - frameStart;
+        long work = frame - phaseNs[Phase.SLEEP.ordinal()];
+        lastWorkNs = work;
+        frameTime.record(frame);
+        workTime.record(work);
+        if (work > budgetNs)
+            overBudgetFrames++;
+        int g = graphNext * PHASES.length;
+        for (int p = 0; p < PHASES.length; p++)
+            graph[g + p] = (int) Math.min(Integer.MAX_VALUE, phaseNs[p] / 1000);
+        graphNext = (graphNext + 1) % GRAPH_FRAMES;
+        intervalFrames++;
+        totalFrames++;
+        closePhases();
+        if (now - intervalStart >= REPORT_NS)
+            publish(now, particles);
+    }
+
+    /** Ends an iteration that skipped drawing; its phases still count. */
+    public void skipFrame() {
+        skippedFrames++;
+        closePhases();
+    }
+
+    private void closePhases() {
+        for (int p = 0; p < PHASES.length; p++) {
+            if (phaseNs[p] > 0)
+                phaseTime[p].record(phaseNs[p]);
+            phaseNs[p] = 0;
+        }
+    }
+
+    private void publish(long now, int particles) {
+        Report r = new Report();
+        r.particles = particles;
+        r.frames = intervalFrames;
+        r.fps = intervalFrames * 1e9 / (now - intervalStart);
+        r.frameP50 = ms(frameTime.percentile(50));
+        r.frameP99 = ms(frameTime.percentile(99));
+        r.frameMax = ms(frameTime.max());
+        r.workP50 = ms(workTime.percentile(50));
+        r.workP99 = ms(workTime.percentile(99));
+        for (int p = 0; p < PHASES.length; p++) {
+            Histogram h = phaseTime[p];
+            // Per drawn frame, so the means of all phases add up to the frame time
+            r.phaseMean[p] = ms(h.sum()) / Math.max(1, intervalFrames);
+            r.phaseP50[p] = ms(h.percentile(50));
+            r.phaseP99[p] = ms(h.percentile(99));
+            r.phaseMax[p] = ms(h.max());
+            h.reset();
+        }
+        frameTime.reset();
+        workTime.reset();
+        intervalFrames = 0;
+        intervalStart = now;
+        report = r;
+        if (json != null)
+            json.println(toJson(r));
+    }
+
+    private static double ms(long ns) {
+        return ns / 1e6;
+    }
+
+    private String toJson(Report r) {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append(String.format(Locale.ROOT,
+                "{\"time\":%d,\"simulation\":\"%s\",\"particles\":%d,\"fps\":%.2f,\"budgetMs\":%.3f,"
+                        + "\"frameMs\":{\"p50\":%.3f,\"p99\":%.3f,\"max\":%.3f},\"workMs\":{\"p50\":%.3f,\"p99\":%.3f},"
+                        + "\"overBudgetFrames\":%d,\"skippedFrames\":%d,\"phasesMs\":{",
+                System.currentTimeMillis(), simulation, r.particles, r.fps, ms(budgetNs),
+                r.frameP50, r.frameP99, r.frameMax, r.workP50, r.workP99, overBudgetFrames, skippedFrames));
+        for (int p = 0; p < PHASES.length; p++) {
+            sb.append(p == 0 ? "" : ",").append(String.format(Locale.ROOT,
+                    "\"%s\":{\"mean\":%.3f,\"p50\":%.3f,\"p99\":%.3f,\"max\":%.3f}",
+                    PHASES[p].label, r.phaseMean[p], r.phaseP50[p], r.phaseP99[p], r.phaseMax[p]));
+        }
+        return sb.append("}}").toString();
+    }
+
+    // =========================================================================
+    // Overlay (loop thread, after the frame's drawing)
+    // =========================================================================
+
+    private static final Font OVERLAY_FONT = new Font("Monospaced", Font.PLAIN, 12);
+    private static final Color PANEL = new Color(0, 0, 0, 170);
+    private static final int GRAPH_HEIGHT = 80;
+
+    /** Draws the phase table and frame-time graph with the top-right corner at {@code (right, top)}. */
+    public void drawOverlay(Graphics2D g, int right, int top) {
+        Report r = report;
+        int width = GRAPH_FRAMES + 20;
+        int rows = PHASES.length + 3;
+        int height = 16 * rows + GRAPH_HEIGHT + 24;
+        int x = right - width;
+        g.setColor(PANEL);
+        g.fillRect(x, top, width, height);
+
+        g.setFont(OVERLAY_FONT);
+        int y = top + 16;
+        g.setColor(Color.WHITE);
+        g.drawString(String.format(Locale.ROOT, "%.1f fps  frame p50 %.2f p99 %.2f", r.fps, r.frameP50, r.frameP99),
+                x + 8, y);
+        y += 16;
+        g.drawString(String.format(Locale.ROOT, "work p99 %.2f / %.1f ms  over %d", r.workP99, ms(budgetNs),
+                overBudgetFrames), x + 8, y);
+        y += 16;
+        g.setColor(Color.LIGHT_GRAY);
+        g.drawString("phase      mean    p99    max", x + 8, y);
+        for (int p = 0; p < PHASES.length; p++) {
+            y += 16;
+            g.setColor(PHASES[p].color);
+            g.fillRect(x + 8, y - 9, 8, 8);
+            g.setColor(Color.WHITE);
+            g.drawString(String.format(Locale.ROOT, " %-8s%6.2f %6.2f %6.2f", PHASES[p].label, r.phaseMean[p],
+                    r.phaseP99[p], r.phaseMax[p]), x + 16, y);
+        }
+
+        // Stacked bars, oldest on the left; full height is twice the budget
+        int base = y + 12 + GRAPH_HEIGHT;
+        double pxPerUs = GRAPH_HEIGHT / (2 * budgetNs / 1000.0);
+        for (int f = 0; f < GRAPH_FRAMES; f++) {
+            int g0 = ((graphNext + f) % GRAPH_FRAMES) * PHASES.length;
+            int h = 0;
+            for (int p = 0; p < PHASES.length; p++) {
+                int seg = (int) Math.round(graph[g0 + p] * pxPerUs);
+                seg = Math.min(seg, GRAPH_HEIGHT - h);
+                if (seg <= 0)
+                    continue;
+                g.setColor(PHASES[p].color);
+                g.fillRect(x + 10 + f, base - h - seg, 1, seg);
+                h += seg;
+            }
+        }
+        g.setColor(Color.RED);
+        g.drawLine(x + 10, base - GRAPH_HEIGHT / 2, x + 10 + GRAPH_FRAMES, base - GRAPH_HEIGHT / 2);
+    }
+
+    // =========================================================================
+    // FrameMetricsMBean
+    // =========================================================================
+
+    @Override
+    public String getSimulation() {
+        return simulation;
+    }
+
+    @Override
+    public int getParticles() {
+        return report.particles;
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        return report.fps;
+    }
+
+    @Override
+    public double getBudgetMillis() {
+        return ms(budgetNs);
+    }
+
+    @Override
+    public double getFrameP50Millis() {
+        return report.frameP50;
+    }
+
+    @Override
+    public double getFrameP99Millis() {
+        return report.frameP99;
+    }
+
+    @Override
+    public double getFrameMaxMillis() {
+        return report.frameMax;
+    }
+
+    @Override
+    public double getWorkP99Millis() {
+        return report.workP99;
+    }
+
+    @Override
+    public String[] getPhaseNames() {
+        String[] names = new String[PHASES.length];
+        for (int p = 0; p < PHASES.length; p++)
+            names[p] = PHASES[p].label;
+        return names;
+    }
+
+    @Override
+    public double[] getPhaseMeanMillis() {
+        return report.phaseMean.clone();
+    }
+
+    @Override
+    public double[] getPhaseP99Millis() {
+        return report.phaseP99.clone();
+    }
+
+    @Override
+    public long getOverBudgetFrames() {
+        return overBudgetFrames;
+    }
+
+    @Override
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    @Override
+    public long getTotalFrames() {
+        return totalFrames;
+    }
+
+    // =========================================================================
+    // Histogram
+    // =========================================================================
+
+    /**
+     * Log-linear histogram of nanosecond durations. Values below 128 have
+     * one bucket each; above that, each power of two is split into 64
+     * buckets, so a bucket is at most 1/64 of its value wide. Durations up
+     * to about 36 minutes are tracked; longer ones land in the last bucket.
+     * Percentiles report a bucket's highest value, as HdrHistogram does.
+     */
+    static final class Histogram {
+        private static final int LINEAR = 128;
+        private static final int SUB = 64;
+        private static final int MAX_BITS = 41;
+        private static final int BUCKETS = LINEAR + (MAX_BITS - 7) * SUB;
+
+        private final long[] counts = new long[BUCKETS];
+        private long total;
+        private long sum;
+        private long max;
+
+        void record(long ns) {
+            if (ns < 0)
+                ns = 0;
+            counts[index(ns)]++;
+            total++;
+            sum += ns;
+            if (ns > max)
+                max = ns;
+        }
+
+        static int index(long v) {
+            if (v < LINEAR)
+                return (int) v;
+            int msb = 63 - Long.numberOfLeadingZeros(v);
+            if (msb >= MAX_BITS)
+                return BUCKETS - 1;
+            int shift = msb - 6;
+            return LINEAR + (shift - 1) * SUB + (int) ((v >>> shift) - SUB);
+        }
+
+        /** Highest value that maps to bucket {@code i}. */
+        static long highestValue(int i) {
+            if (i < LINEAR)
+                return i;
+            int shift = (i - LINEAR) / SUB + 1;
+            long sub = (i - LINEAR) % SUB + SUB;
+            return ((sub + 1) << shift) - 1;
+        }
+
+        long percentile(double pct) {
+            if (total == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(pct / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(highestValue(i), max);
+            }
+            return max;
+        }
+
+        long count() {
+            return total;
+        }
+
+        long sum() {
+            return sum;
+        }
+
+        long max() {
+            return max;
+        }
+
+        void reset() {
+            Arrays.fill(counts, 0);
+            total = 0;
+            sum = 0;
+            max = 0;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * JMX view of {@link FrameMetrics}, registered as
+ * {@code gravity:type=FrameMetrics,name=<simulation>}. Timings are in
+ * milliseconds over the last one-second report interval; phase arrays
+ * line up with {@link #getPhaseNames()}.
+ */
+public interface FrameMetricsMBean {
+
+    String getSimulation();
+
+    int getParticles();
+
+    double getFramesPerSecond();
+
+    double getBudgetMillis();
+
+    double getFrameP50Millis();
+
+    double getFrameP99Millis();
+
+    double getFrameMaxMillis();
+
+    /** Frame time minus sleep: what the budget is spent on. */
+    double getWorkP99Millis();
+
+    String[] getPhaseNames();
+
+    double[] getPhaseMeanMillis();
+
+    double[] getPhaseP99Millis();
+
+    /** Frames since start whose work exceeded the budget. */
+    long getOverBudgetFrames();
+
+    /** Loop iterations since start that skipped drawing to let physics catch up. */
+    long getSkippedFrames();
+
+    long getTotalFrames();
+}
@@ -0,0 +1,142 @@
+/**
+ * Merger scenario for {@link GalaxyModel}: two or more spiral galaxies,
+ * each around its own massive core, falling towards each other.
+ *
+ * Each core is a free {@link Attractor}. Under the 1/r law of Gravity.py
+ * it acts like an isothermal dark halo: its stars get the same orbital
+ * speed at every radius. The stars are self-gravitating. They carry
+ * {@value #STAR_SHARE} of each galaxy's mass, sampled by however many stars
+ * the run has, and are launched on circular orbits that account for their
+ * own pull. {@value #HALO_FRACTION} of the stars form a round stellar halo,
+ * and the rest form the arms. Galaxies start on an ellipse around the
+ * window centre. Each is aimed at a point {@code impact / 2} to the side of
+ * the centre, so the cores swing past each other instead of colliding head
+ * on. The galaxies spin in alternating directions.
+ *
+ * The stars pull each other through the configured {@link SelfGravity}, a
+ * Barnes-Hut tree unless {@code -Dgravity.nbody} says otherwise. They pull
+ * the cores too: once per step each core walks the tree the stars were
+ * just pushed through (or reads the particle-mesh field), so it moves
+ * under the other cores and every star.
+ *
+ * That back-reaction is what brings the galaxies together. A core passing
+ * through the other galaxy drags a wake of its stars behind it, and the
+ * wake's pull slows it down (dynamical friction). Each pass takes orbital
+ * energy from the cores and heats the stars, so the cores swing back on
+ * shrinking orbits and settle together in the middle of one remnant. There
+ * they keep circling about a core softening length apart, where the
+ * softened cores no longer raise much of a wake. The friction grows with
+ * the stars' share of the mass; with too small a share the cores stay on
+ * wide orbits through each other.
+ *
+ * At {@link #DEFAULT_STARS} stars a step is one tree build plus one
+ * tree walk and one attractor sweep per star, and one more walk per core.
+ * The report compares the measured stars x steps per second against
+ * {@link #TARGET_STAR_STEPS_PER_WORKER} times the worker count. That makes
+ * scaling with cores visible, as does the {@code collisionStep} benchmark
+ * in {@link Benchmarks}.
+ */
+public final class GalaxyCollision {
+
+    /** Stars in a headless run unless {@code --particles} says otherwise. */
+    public static final int DEFAULT_STARS = 500_000;
+    /** Stars in the window, where several steps must fit into every frame. */
+    public static final int WINDOW_STARS = 50_000;
+    /**
+     * Throughput target in stars x steps per second for each worker, at the
+     * default theta of 0.5. With linear scaling every run would reach 100%,
+     * so the shortfall as workers are added shows what the serial tree build
+     * costs.
+     */
+    public static final double TARGET_STAR_STEPS_PER_WORKER = 2.0e5;
+
+    // Core mass per galaxy, half of Gravity.py's central mass so two fill the same window
+    private static final double CORE_MASS = GalaxyModel.M / 2;
+    // Share of each galaxy's mass carried by its stars; enough for their drag to merge the cores
+    static final double STAR_SHARE = 0.6;
+    // Share of the stars in the round halo rather than the arms
+    static final double HALO_FRACTION = 0.3;
+    // Disk radius of each galaxy
+    private static final double RADIUS = 150;
+    // Softening between cores, which stand for extended halos rather than points
+    private static final double CORE_SOFTENING = RADIUS / 3;
+    // Semi-axes of the ellipse the galaxies start on
+    private static final double RING_X = 320;
+    private static final double RING_Y = 200;
+
+    private final int galaxies;
+    private final double impact;
+    private final double approach;
+
+    /**
+     * @param galaxies number of galaxies, at least 2
+     * @param impact   distance by which each pair of opposite galaxies misses head-on
+     * @param approach starting speed towards the centre, as a fraction of a core's orbital speed
+     */
+    public GalaxyCollision(int galaxies, double impact, double approach) {
+        if (galaxies < 2)
+            throw new IllegalArgumentException("a collision needs at least 2 galaxies: " + galaxies);
+        this.galaxies = galaxies;
+        this.impact = impact;
+        this.approach = approach;
+    }
+
+    /**
+     * Scenario from {@code -Dgravity.galaxies} (default 2),
+     * {@code -Dgravity.impact} (default 200) and {@code -Dgravity.approach}
+     * (default 0.3).
+     */
+    public static GalaxyCollision fromProperties() {
+        return new GalaxyCollision(Integer.getInteger("gravity.galaxies", 2),
+                Double.parseDouble(System.getProperty("gravity.impact", "200")),
+                Double.parseDouble(System.getProperty("gravity.approach", "0.3")));
+    }
+
+    /** Whether {@code -Dgravity.galaxies} asks the window for a collision. */
+    public static boolean requested() {
+        return Integer.getInteger("gravity.galaxies", 1) > 1;
+    }
+
+    public int galaxies() {
+        return galaxies;
+    }
+
+    /** Stars x steps per second to aim for with {@code workers} workers. */
+    public static double target(int workers) {
+        return TARGET_STAR_STEPS_PER_WORKER * workers;
+    }
+
+    /** Builds the galaxies with {@code numStars} stars between them, self-gravity included. */
+    public GalaxyModel create(int numStars, ParallelStepper stepper) {
+        GalaxyModel model = new GalaxyModel("collision", stepper, numStars);
+        int perGalaxy = numStars / galaxies;
+
+        // Coupling that makes perGalaxy stars weigh STAR_SHARE of a galaxy:
+        // g * m * perGalaxy = G * M_stars, with M_stars = CORE_MASS * share / (1 - share)
+        double starG = GalaxyModel.G * CORE_MASS * STAR_SHARE / (1 - STAR_SHARE)
+                / (GalaxyModel.MASS * Math.max(1, perGalaxy));
+        SelfGravity selfGravity = SelfGravity.fromProperties(stepper, "bh", starG);
+        model.setSelfGravity(selfGravity);
+
+        model.core().setAttractorSoftening(CORE_SOFTENING);
+        double cx = GalaxyModel.WIDTH / 2.0, cy = GalaxyModel.HEIGHT / 2.0;
+        double speed = approach * Math.sqrt(GalaxyModel.G * CORE_MASS);
+        for (int j = 0; j < galaxies; j++) {
+            double a = Math.PI + 2 * Math.PI * j / galaxies;
+            double x = cx + RING_X * Math.cos(a), y = cy + RING_Y * Math.sin(a);
+
+            // Aim beside the centre, perpendicular to the line from it, so the cores swing past
+            double dx = cx - x, dy = cy - y;
+            double d = Math.sqrt(dx * dx + dy * dy);
+            double tx = dx - dy / d * impact / 2, ty = dy + dx / d * impact / 2;
+            double t = Math.sqrt(tx * tx + ty * ty);
+            Attractor core = model.core().addAttractor(
+                    Attractor.free(x, y, CORE_MASS, speed * tx / t, speed * ty / t));
+
+            int n = j == 0 ? numStars - perGalaxy * (galaxies - 1) : perGalaxy;
+            model.addGalaxy(core, n, RADIUS, j % 2 == 0 ? 1 : -1, HALO_FRACTION,
+                    selfGravity == null ? 0 : starG);
+        }
+        return model;
+    }
+}
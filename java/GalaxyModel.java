@@ -0,0 +1,376 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Physics of {@link GalaxySimulation}: a three-armed spiral of stars placed on
+ * circular orbits around a fixed central mass. Orbits are integrated by a
+ * {@link SimulationCore}, which also takes extra attractors; further
+ * galaxies can be added around them ({@link GalaxyCollision}).
+ */
+public class GalaxyModel implements SimulationModel {
+
+    public static final int WIDTH = 1500;
+    public static final int HEIGHT = 800;
+    public static final int DEFAULT_STARS = 8000;
+
+    // Physics parameters from Gravity.py
+    static final double G = 0.1;
+    static final double M = 10e7;
+    static final double DT = 0.001;
+    // Star mass (every star weighs the same as a Gravity.py particle)
+    static final double MASS = 2.0;
+
+    private static final int SPACE_RGB = PixelRaster.rgb(5, 5, 10); // Deep dark space color
+    private static final int TRAIL_ALPHA = 102; // 40% fade per frame
+    // Density shading: grid cell in pixels, and the dimmest a star gets
+    static final double DENSITY_CELL = 8;
+    private static final double DENSITY_FLOOR = 0.3;
+
+    // ---------- State --------------------------------------------------------
+    // "galaxy", or "collision" for a GalaxyCollision merger
+    private final String name;
+    // Stars in structure-of-arrays form, with a packed RGB color per star
+    private final ParticleStore stars;
+    // Spawn positions and jitter; seeded by -Dgravity.seed
+    private final SplittableRandom rng = RandomStreams.shared().stream("galaxy");
+    private final ParallelStepper stepper;
+    // Attractors and integration; starts with the central mass
+    private final SimulationCore core;
+
+    // Optional star-star gravity (N-body mode); null = test masses only
+    private SelfGravity selfGravity;
+    private double[] selfForceX = new double[0];
+    private double[] selfForceY = new double[0];
+
+    // Optional short-range collisions or pressure; null = none
+    private LocalInteractions interactions;
+
+    // Optional density shading: stars in sparse regions are drawn dimmer
+    private SpatialGrid densityGrid;
+    private double[] starDensity = new double[0]; // per grid slot
+    private double[] starShade = new double[0]; // per star
+    // Draw every k-th star (set by the quality governor)
+    private int renderStride = 1;
+
+    public GalaxyModel() {
+        this(DEFAULT_STARS, ParallelStepper.shared());
+    }
+
+    public GalaxyModel(int numStars, ParallelStepper stepper) {
+        this.name = "galaxy";
+        this.stepper = stepper;
+        this.stars = new ParticleStore(numStars).enableColor();
+        this.core = createCore(stars, stepper);
+        Attractor center = core.addAttractor(Attractor.pinned(WIDTH / 2, HEIGHT / 2, M));
+        addGalaxy(center, numStars, Math.min(WIDTH, HEIGHT) / 2.0 - 50, 1, 0, 0);
+    }
+
+    /**
+     * Empty model called {@code name} with room for {@code capacity} stars
+     * and no attractor yet; see {@link #addGalaxy}.
+     */
+    GalaxyModel(String name, ParallelStepper stepper, int capacity) {
+        this.name = name;
+        this.stepper = stepper;
+        this.stars = new ParticleStore(capacity).enableColor();
+        this.core = createCore(stars, stepper);
+    }
+
+    /**
+     * Resumes from a galaxy or collision {@link Snapshot}, taking ownership
+     * of its stars. Every saved attractor comes back with its velocity, and a
+     * collision gets its self-gravity back at the saved coupling.
+     */
+    public GalaxyModel(Snapshot snapshot, ParallelStepper stepper) {
+        if (!snapshot.model().equals("collision"))
+            snapshot.requireModel("galaxy");
+        this.name = snapshot.model();
+        this.stepper = stepper;
+        this.stars = snapshot.particles().enableColor();
+        this.core = createCore(stars, stepper);
+        core.addAttractor(Attractor.pinned(snapshot.centerX(), snapshot.centerY(), M));
+        snapshot.restoreAttractors(core);
+        if (snapshot.coupling() > 0)
+            setSelfGravity(SelfGravity.fromProperties(stepper, "bh", snapshot.coupling()));
+    }
+
+    private static SimulationCore createCore(ParticleStore stars, ParallelStepper stepper) {
+        return new SimulationCore(stars, stepper, AttractorField.Law.INVERSE_R, G, MASS, DT, 1, false);
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public int particleCount() {
+        return stars.size();
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        return new Snapshot(name, stars, MASS, core.attractor(0).x(), core.attractor(0).y(), 0, core.attractors(),
+                core.attractorSoftening(), selfGravity == null ? 0 : selfGravity.coupling());
+    }
+
+    @Override
+    public SimulationCore core() {
+        return core;
+    }
+
+    public ParticleStore stars() {
+        return stars;
+    }
+
+    /** Enables star-star gravity with the given solver, or disables it with null. */
+    public void setSelfGravity(SelfGravity solver) {
+        this.selfGravity = solver;
+        // Free cores feel the stars through the same solver
+        core.setParticleGravity(solver);
+    }
+
+    public SelfGravity selfGravity() {
+        return selfGravity;
+    }
+
+    /** Enables short-range interactions, or disables them with null. */
+    public void setInteractions(LocalInteractions interactions) {
+        this.interactions = interactions;
+    }
+
+    public LocalInteractions interactions() {
+        return interactions;
+    }
+
+    /**
+     * Shades each star by its local density: the star count of its 3x3
+     * block of {@link #DENSITY_CELL} cells on a {@link SpatialGrid},
+     * rebuilt every frame.
+     */
+    public void setDensityShading(boolean on) {
+        densityGrid = on ? new SpatialGrid(0, 0, WIDTH, HEIGHT, DENSITY_CELL, stepper) : null;
+    }
+
+    public boolean densityShading() {
+        return densityGrid != null;
+    }
+
+    /** Draws only every {@code k}-th star; 1 draws all. */
+    public void setRenderStride(int k) {
+        renderStride = Math.max(1, k);
+    }
+
+    /** Position of the first attractor, the galaxy's centre. */
+    public int attractorX() {
+        return (int) core.attractor(0).x();
+    }
+
+    public int attractorY() {
+        return (int) core.attractor(0).y();
+    }
+
+    /**
+     * Adds {@code numStars} stars in a three-armed spiral of radius
+     * {@code maxRadius} around {@code center}, on circular orbits that carry
+     * the center's velocity; {@code spin} (+1 or -1) is the sense of
+     * rotation. A share {@code haloFraction} of the stars forms a round halo
+     * out to 1.5 radii instead, each star orbiting either way at random.
+     * With star-star coupling {@code starG} (0 for test masses) the orbital
+     * speed also counts the stars inside each orbit, which in 2D pull like a
+     * point mass at the center when spread evenly around it.
+     */
+    public void addGalaxy(Attractor center, int numStars, double maxRadius, int spin, double haloFraction,
+            double starG) {
+        int arms = 3; // Number of spiral arms
+        double armSpread = 0.8; // How spread out the arms are
+        double cx = center.x();
+        double cy = center.y();
+        double[] radius = new double[numStars];
+
+        // Positions, directions and colors in one bulk spawn, in parallel blocks
+        int base = stars.size();
+        BulkSpawn.append(stars, numStars, rng, stepper, (from, to, random) -> {
+            double[] xs = stars.x, ys = stars.y, mxs = stars.momentumX, mys = stars.momentumY;
+            int[] colors = stars.color;
+            for (int s = from - base; s < to - base; s++) {
+                boolean halo = haloFraction > 0 && random.nextDouble() < haloFraction;
+                double r, angle;
+                int sense = spin;
+                if (halo) {
+                    // Even surface density out to 1.5 radii, no arms, no net rotation
+                    r = 10 + Math.sqrt(random.nextDouble()) * 1.5 * maxRadius;
+                    angle = random.nextDouble() * 2 * Math.PI;
+                    sense = random.nextBoolean() ? 1 : -1;
+                } else {
+                    // Distance from center (squared distribution clusters more in the center)
+                    double rString = random.nextDouble();
+                    r = 10 + rString * rString * maxRadius;
+
+                    // Base angle depending which arm we're on
+                    double armAngle = (random.nextInt(arms) * (2 * Math.PI) / arms);
+
+                    // The further out, the more it spirals around (logarithmic spiral)
+                    double spiralOffset = Math.log(r) * 1.5 * spin;
+
+                    // Add some jitter so they aren't perfectly on lines
+                    double jitter = (random.nextDouble() - 0.5) * armSpread;
+
+                    angle = armAngle + spiralOffset + jitter;
+                }
+                radius[s] = r;
+
+                // Position
+                xs[base + s] = cx + Math.cos(angle) * r;
+                ys[base + s] = cy + Math.sin(angle) * r;
+
+                // Direction of the perpendicular orbital velocity (tangent vector), scaled
+                // by the speed below. Adding PI/2 rotates the radius 90 degrees.
+                double velAngle = angle + sense * (Math.PI / 2);
+
+                // Give a tiny dash of chaos to the starting momentum so it's not perfectly
+                // uniform
+                mxs[base + s] = Math.cos(velAngle) * (0.95 + random.nextDouble() * 0.1);
+                mys[base + s] = Math.sin(velAngle) * (0.95 + random.nextDouble() * 0.1);
+
+                // Color gradient based on distance
+                // Core is bright blue-white, mid is yellow-orange, outer is red-purple
+                int cr, cg, cb;
+                double distRatio = r / maxRadius;
+                if (distRatio < 0.2) {
+                    cr = 200; cg = 220; cb = 255; // Blue-white
+                } else if (distRatio < 0.5) {
+                    cr = 255; cg = 200; cb = 100; // Yellowish
+                } else if (distRatio < 0.8) {
+                    cr = 255; cg = 100; cb = 50; // Red-orange
+                } else {
+                    cr = 150; cg = 50; cb = 150; // Purple
+                }
+
+                // Diminish brightness slightly based on random noise
+                int brightnessDrop = random.nextInt(50);
+                colors[base + s] = PixelRaster.rgb(
+                        Math.max(0, cr - brightnessDrop),
+                        Math.max(0, cg - brightnessDrop),
+                        Math.max(0, cb - brightnessDrop));
+            }
+        });
+
+        // In 2D gravity where Force = GMm/r,
+        // Centripetal force = mv^2/r
+        // GMm/r = mv^2/r => v^2 = GM => v = sqrt(GM)
+        // This means exact orbital velocity is CONSTANT regardless of radius!
+        // Stars inside the orbit add g * m * (their count) to v^2 the same way.
+        double[] sorted = starG > 0 ? radius.clone() : null;
+        if (sorted != null)
+            Arrays.sort(sorted);
+        double vx = center.velocityX(), vy = center.velocityY();
+        double[] mxs = stars.momentumX, mys = stars.momentumY;
+        stepper.forEach(numStars, (from, to) -> {
+            for (int s = from; s < to; s++) {
+                double v2 = G * center.mass();
+                if (sorted != null) {
+                    int inside = Arrays.binarySearch(sorted, radius[s]);
+                    v2 += starG * MASS * (inside < 0 ? -inside - 1 : inside);
+                }
+                double momentumMag = Math.sqrt(v2) * MASS; // p = mv
+                mxs[base + s] = mxs[base + s] * momentumMag + vx * MASS;
+                mys[base + s] = mys[base + s] * momentumMag + vy * MASS;
+            }
+        });
+    }
+
+    // =========================================================================
+    // Step & render
+    // =========================================================================
+
+    @Override
+    public void step() {
+        int n = stars.size();
+        if (interactions != null)
+            interactions.apply(stars, core.stepLength());
+        if (selfGravity == null) {
+            core.step(null, null);
+            return;
+        }
+        if (selfForceX.length < n) {
+            selfForceX = new double[stars.capacity()];
+            selfForceY = new double[stars.capacity()];
+        }
+        selfGravity.computeForces(stars, MASS, selfForceX, selfForceY);
+        core.step(selfForceX, selfForceY);
+    }
+
+    @Override
+    public void savePositions() {
+        stars.savePrevious();
+    }
+
+    @Override
+    public void render(PixelRaster raster) {
+        render(raster, 1.0);
+    }
+
+    @Override
+    public void render(PixelRaster raster, double alpha) {
+        // Very slight motion blur trail effect using an alpha overlay
+        raster.fade(SPACE_RGB, TRAIL_ALPHA);
+
+        int n = stars.size();
+        boolean lerp = alpha < 1.0 && stars.previousSize() == n;
+        double[] xs = stars.x, ys = stars.y, pxs = stars.prevX, pys = stars.prevY;
+        int[] colors = stars.color;
+        int cores = core.attractorCount();
+        int[] coreX = new int[cores], coreY = new int[cores];
+        for (int j = 0; j < cores; j++) {
+            coreX[j] = (int) core.attractor(j).x();
+            coreY[j] = (int) core.attractor(j).y();
+        }
+        double[] shade = densityGrid != null ? shadeByDensity(n) : null;
+        for (int i = 0; i < n; i += renderStride) {
+            int px = (int) (lerp ? pxs[i] + (xs[i] - pxs[i]) * alpha : xs[i]);
+            int py = (int) (lerp ? pys[i] + (ys[i] - pys[i]) * alpha : ys[i]);
+            int rgb = shade == null ? colors[i] : scale(colors[i], shade[i]);
+
+            // Core stars draw bigger
+            boolean nearCore = false;
+            for (int j = 0; j < cores; j++)
+                nearCore |= Math.abs(px - coreX[j]) < 50 && Math.abs(py - coreY[j]) < 50;
+            if (nearCore)
+                raster.plot2x2(px, py, rgb);
+            else
+                raster.plot(px, py, rgb);
+        }
+    }
+
+    /**
+     * Brightness factor per star from its local density, relative to three
+     * times the mean so the shading adapts to the star count: the densest
+     * stars keep their color, isolated ones drop to {@link #DENSITY_FLOOR}.
+     */
+    private double[] shadeByDensity(int n) {
+        if (starDensity.length < n) {
+            starDensity = new double[stars.capacity()];
+            starShade = new double[stars.capacity()];
+        }
+        double[] rho = starDensity, shade = starShade;
+        densityGrid.build(stars.x, stars.y, n);
+        densityGrid.blockCounts(rho);
+        double mean = 0;
+        for (int k = 0; k < n; k++)
+            mean += rho[k] - 1; // 1 is the star itself
+        mean /= Math.max(1, n);
+        double scale = mean > 0 ? (1 - DENSITY_FLOOR) / (3 * mean) : 0;
+        int[] order = densityGrid.order;
+        for (int k = 0; k < n; k++)
+            shade[order[k]] = Math.min(1, DENSITY_FLOOR + (rho[k] - 1) * scale);
+        return shade;
+    }
+
+    private static int scale(int rgb, double f) {
+        int r = (int) (((rgb >> 16) & 0xFF) * f);
+        int g = (int) (((rgb >> 8) & 0xFF) * f);
+        int b = (int) ((rgb & 0xFF) * f);
+        return PixelRaster.rgb(r, g, b);
+    }
+}
@@ -2,10 +2,8 @@
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.*;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
 
 /**
  * An auto-populating spiral galaxy simulation based on the existing Gravity
@@ -18,72 +16,36 @@ import java.util.Random;
 public class GalaxySimulation extends JPanel implements Runnable {
 
     // ---------- Window / simulation constants --------------------------------
-    private static final int WIDTH = 1500;
-    private static final int HEIGHT = 800;
+    private static final int WIDTH = GalaxyModel.WIDTH;
+    private static final int HEIGHT = GalaxyModel.HEIGHT;
     private static final int TARGET_FPS = 100;
-
-    // Physics parameters from Gravity.py
-    private static final double G = 0.1;
-    private static final double M = 10e7;
-    private static final double DT = 0.001;
-
-    // Central attractors
-    private final Point attractor = new Point(WIDTH / 2, HEIGHT / 2);
+    // Each physics step covers this many DT (-Dgravity.stepScale), so fewer run per second
+    private static final int STEP_SCALE = Integrator.stepScaleFromProperties();
 
     // ---------- State --------------------------------------------------------
-    private final List<GalaxyStar> stars = new ArrayList<>();
-    private final Random rng = new Random();
-
-    // Performance tracking
-    private long lastFrameTime = System.nanoTime();
-    private int fps = 0;
+    // Stars and physics (no Swing dependency); -Dgravity.snapshot=FILE resumes a saved run,
+    // -Dgravity.galaxies=N runs a collision
+    private final GalaxyModel model = createModel();
+    // Fixed physics rate, independent of how fast frames are drawn
+    private final FixedTimestep timestep = FixedTimestep.fromProperties((double) TARGET_FPS / STEP_SCALE);
+    // Optional position stream (-Dgravity.record=FILE), written off the loop thread
+    private final TrajectoryRecorder recorder = TrajectoryRecorder.fromProperties(model.name());
+    private long stepCount = 0;
+    // Integrator line of the HUD, with drift re-measured about once a second
+    private String integratorStatus = "";
+    private long framesDrawn = 0;
+
+    // Per-phase frame timing, overlay (M) and JSON / JMX export
+    private final FrameMetrics metrics = FrameMetrics.fromProperties(model.name(), TARGET_FPS);
+    // Lowers quality step by step when frames run over budget (-Dgravity.governor=false to disable)
+    private final QualityGovernor governor = QualityGovernor.fromProperties(metrics, timestep, false, false);
 
     // Off-screen buffers for smooth rendering (double buffering)
     private BufferedImage bufferDraw;
     private BufferedImage bufferDisplay;
-
-    // =========================================================================
-    // Inner Class: GalaxyStar
-    // =========================================================================
-    /**
-     * Specialized star class incorporating Color to give a realistic galaxy effect.
-     */
-    private class GalaxyStar {
-        double x, y;
-        double mass = 2.0;
-        double momentumX, momentumY;
-        Color color;
-
-        public GalaxyStar(double x, double y, double mx, double my, Color color) {
-            this.x = x;
-            this.y = y;
-            this.momentumX = mx;
-            this.momentumY = my;
-            this.color = color;
-        }
-
-        public void move(double x2, double y2) {
-            double dx = x - x2;
-            double dy = y - y2;
-            double hyp = Math.sqrt(dx * dx + dy * dy);
-
-            if (hyp < 1)
-                return;
-
-            // Using the Gravity.py python logic exactly (force is 1/r)
-            double theta = Math.atan2(y2 - y, x2 - x);
-            double force = (G * mass * M) / hyp;
-
-            double forceX = force * Math.cos(theta);
-            double forceY = force * Math.sin(theta);
-
-            momentumX += forceX * DT;
-            momentumY += forceY * DT;
-
-            x += (momentumX / mass) * DT;
-            y += (momentumY / mass) * DT;
-        }
-    }
+    // Direct pixel access to the same two buffers, swapped alongside them
+    private PixelRaster rasterDraw;
+    private PixelRaster rasterDisplay;
 
     // =========================================================================
     // Construction & wiring
@@ -94,78 +56,40 @@ public class GalaxySimulation extends JPanel implements Runnable {
         setBackground(Color.BLACK);
         bufferDraw = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
         bufferDisplay = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
-
-        generateGalaxy();
-    }
-
-    private void generateGalaxy() {
-        int numStars = 8000;
-        int arms = 3; // Number of spiral arms
-        double armSpread = 0.8; // How spread out the arms are
-        double maxRadius = Math.min(WIDTH, HEIGHT) / 2.0 - 50;
-
-        // In 2D gravity where Force = GMm/r,
-        // Centripetal force = mv^2/r
-        // GMm/r = mv^2/r => v^2 = GM => v = sqrt(GM)
-        // This means exact orbital velocity is CONSTANT regardless of radius!
-        double velocityMag = Math.sqrt(G * M);
-        double momentumMag = velocityMag * 2.0; // p = mv, with m=2
-
-        for (int i = 0; i < numStars; i++) {
-            // Distance from center (squared distribution clusters more in the center)
-            double rString = rng.nextDouble();
-            double r = 10 + rString * rString * maxRadius;
-
-            // Base angle depending which arm we're on
-            double armAngle = (rng.nextInt(arms) * (2 * Math.PI) / arms);
-
-            // The further out, the more it spirals around (logarithmic spiral)
-            double spiralOffset = Math.log(r) * 1.5;
-
-            // Add some jitter so they aren't perfectly on lines
-            double jitter = (rng.nextDouble() - 0.5) * armSpread;
-
-            double angle = armAngle + spiralOffset + jitter;
-
-            // Position
-            double px = attractor.x + Math.cos(angle) * r;
-            double py = attractor.y + Math.sin(angle) * r;
-
-            // Calculate perpendicular orbital velocity (tangent vector)
-            // Adding PI/2 to rotate velocity vector 90 degrees for circular orbit
-            double velAngle = angle + (Math.PI / 2);
-
-            double mx = Math.cos(velAngle) * momentumMag;
-            double my = Math.sin(velAngle) * momentumMag;
-
-            // Give a tiny dash of chaos to the starting momentum so it's not perfectly
-            // uniform
-            mx *= (0.95 + rng.nextDouble() * 0.1);
-            my *= (0.95 + rng.nextDouble() * 0.1);
-
-            // Color gradient based on distance
-            // Core is bright blue-white, mid is yellow-orange, outer is red-purple
-            Color c;
-            double distRatio = r / maxRadius;
-            if (distRatio < 0.2) {
-                c = new Color(200, 220, 255); // Blue-white
-            } else if (distRatio < 0.5) {
-                c = new Color(255, 200, 100); // Yellowish
-            } else if (distRatio < 0.8) {
-                c = new Color(255, 100, 50); // Red-orange
-            } else {
-                c = new Color(150, 50, 150); // Purple
+        rasterDraw = new PixelRaster(bufferDraw);
+        rasterDisplay = new PixelRaster(bufferDisplay);
+
+        // Optional star-star gravity (-Dgravity.nbody=bh|direct); a collision brings its own
+        if (model.selfGravity() == null)
+            model.setSelfGravity(SelfGravity.fromProperties(ParallelStepper.shared()));
+        // Optional collisions / pressure (-Dgravity.interactions) and density shading (-Dgravity.density)
+        model.setInteractions(LocalInteractions.fromProperties(ParallelStepper.shared()));
+        model.setDensityShading(Boolean.getBoolean("gravity.density"));
+        // Optional extra attractors (-Dgravity.attractors=binary, unless a snapshot brought its own),
+        // integrator (-Dgravity.integrator) and longer steps (-Dgravity.stepScale)
+        if (!Snapshot.requested())
+            model.core().attractorsFromProperties();
+        model.core().setIntegrator(Integrator.fromProperties(), STEP_SCALE);
+
+        // M toggles the frame metrics overlay
+        setFocusable(true);
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_M)
+                    metrics.toggleOverlay();
             }
+        });
+    }
 
-            // Diminish brightness slightly based on random noise
-            int brightnessDrop = rng.nextInt(50);
-            c = new Color(
-                    Math.max(0, c.getRed() - brightnessDrop),
-                    Math.max(0, c.getGreen() - brightnessDrop),
-                    Math.max(0, c.getBlue() - brightnessDrop));
-
-            stars.add(new GalaxyStar(px, py, mx, my, c));
-        }
+    private static GalaxyModel createModel() {
+        Snapshot snapshot = Snapshot.fromProperties();
+        if (snapshot != null)
+            return new GalaxyModel(snapshot, ParallelStepper.shared());
+        // -Dgravity.galaxies=N (N >= 2) starts a merger instead of the single spiral
+        if (GalaxyCollision.requested())
+            return GalaxyCollision.fromProperties().create(GalaxyCollision.WINDOW_STARS, ParallelStepper.shared());
+        return new GalaxyModel();
     }
 
     // =========================================================================
@@ -178,73 +102,97 @@ public class GalaxySimulation extends JPanel implements Runnable {
 
         while (true) {
             long start = System.nanoTime();
+            metrics.beginFrame(start);
+
+            // --- Physics: as many fixed steps as the elapsed time demands ----
+            // (physics runs across all workers; drawing stays on this thread)
+            int steps = timestep.advance(start);
+            for (int k = 0; k < steps; k++) {
+                if (k == steps - 1)
+                    model.savePositions();
+                model.step();
+                if (recorder != null)
+                    recorder.record(stepCount, model);
+                stepCount++;
+            }
+            metrics.lap(FrameMetrics.Phase.PHYSICS);
+            // Behind schedule: skip drawing this frame so physics can catch up
+            if (!timestep.shouldRender()) {
+                metrics.skipFrame();
+                continue;
+            }
 
-            // --- Update & render to off-screen buffer -----------------------
-            Graphics2D g2 = bufferDraw.createGraphics();
-            // Use antialiasing selectively if desired, but pixel plotting is fine without
-            // it
-
-            // Try to add a very slight motion blur trail effect using an alpha black
-            // overlay
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.4f));
-            g2.setColor(new Color(5, 5, 10)); // Deep dark space color
-            g2.fillRect(0, 0, WIDTH, HEIGHT);
+            // --- Render to off-screen buffer --------------------------------
+            model.render(rasterDraw, timestep.alpha());
+            metrics.lap(FrameMetrics.Phase.RASTER);
 
-            // Switch back to solid drawing for stars
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
+            // Shapes and text still go through Java2D on the same image
+            Graphics2D g2 = bufferDraw.createGraphics();
 
-            for (GalaxyStar p : stars) {
-                p.move(attractor.x, attractor.y);
-                int px = (int) p.x;
-                int py = (int) p.y;
+            // Black holes (Attractors), the first in the center
+            for (Attractor a : model.core().attractors()) {
+                int ax = (int) a.x();
+                int ay = (int) a.y();
+                g2.setColor(Color.BLACK);
+                g2.fillOval(ax - 5, ay - 5, 10, 10);
 
-                if (px >= 0 && px < WIDTH && py >= 0 && py < HEIGHT) {
-                    g2.setColor(p.color);
-                    // Core stars draw bigger
-                    int size = (Math.abs(px - attractor.x) < 50 && Math.abs(py - attractor.y) < 50) ? 2 : 1;
-                    g2.fillRect(px, py, size, size);
-                }
+                // Event horizon glow
+                g2.setColor(new Color(255, 255, 255, 50));
+                g2.fillOval(ax - 12, ay - 12, 24, 24);
             }
 
-            // Black hole (Attractor) in the center
-            g2.setColor(Color.BLACK);
-            g2.fillOval(attractor.x - 5, attractor.y - 5, 10, 10);
-
-            // Event horizon glow
-            g2.setColor(new Color(255, 255, 255, 50));
-            g2.fillOval(attractor.x - 12, attractor.y - 12, 24, 24);
-
             // HUD text
             g2.setColor(Color.WHITE);
             g2.setFont(new Font("SansSerif", Font.PLAIN, 16));
-            g2.drawString("Galaxy Stars : " + stars.size(), 20, 30);
-            g2.drawString("FPS          : " + fps, 20, 50);
+            g2.drawString("Galaxy Stars : " + model.particleCount(), 20, 30);
+            g2.drawString(String.format("FPS          : %.0f", metrics.fps()), 20, 50);
+            g2.drawString("Steps/frame  : " + timestep.lastSteps(), 20, 70);
+            g2.drawString("Quality      : " + governor.status(), 20, 90);
+            g2.drawString("Governor     : " + governor.lastDecision(), 20, 110);
+            if (model.selfGravity() != null)
+                g2.drawString("N-body       : " + model.selfGravity().name(), 20, 130);
+            if (model.interactions() != null)
+                g2.drawString("Contacts     : " + model.interactions().name(), 20, 150);
+            SimulationCore core = model.core();
+            if (core.integrator() != null) {
+                if (framesDrawn++ % TARGET_FPS == 0)
+                    integratorStatus = String.format("%s, %d x DT, %s", core.integrator().name(),
+                            core.stepScale(), core.measureDrift().describe());
+                g2.drawString("Integrator   : " + integratorStatus, 20, 170);
+            }
 
+            if (metrics.overlay())
+                metrics.drawOverlay(g2, WIDTH - 10, 10);
             g2.dispose();
+            metrics.lap(FrameMetrics.Phase.OVERLAY);
 
             // --- Swap buffers and push to screen --------------------------------------
             synchronized (this) {
                 BufferedImage temp = bufferDisplay;
                 bufferDisplay = bufferDraw;
                 bufferDraw = temp;
+                PixelRaster tempRaster = rasterDisplay;
+                rasterDisplay = rasterDraw;
+                rasterDraw = tempRaster;
             }
             repaint();
-
-            // --- FPS calculation -------------------------------------------
-            long now = System.nanoTime();
-            long elapsed = now - lastFrameTime;
-            if (elapsed > 0)
-                fps = (int) (1_000_000_000L / elapsed);
-            lastFrameTime = now;
+            metrics.lap(FrameMetrics.Phase.SWAP);
 
             // --- Cap to target FPS ------------------------------------------
-            long sleepNs = targetNs - (now - start);
+            long sleepNs = targetNs - (System.nanoTime() - start);
             if (sleepNs > 0) {
                 try {
                     Thread.sleep(sleepNs / 1_000_000, (int) (sleepNs % 1_000_000));
                 } catch (InterruptedException ignored) {
                 }
             }
+            metrics.lap(FrameMetrics.Phase.SLEEP);
+            metrics.endFrame(model.particleCount());
+
+            // --- Quality governor: react to this frame's cost ---------------
+            governor.update(metrics.lastWorkNs(), model.particleCount(), System.nanoTime());
+            timestep.setSubStepLimit(governor.subSteps());
+            model.setRenderStride(governor.renderStride());
         }
     }
 
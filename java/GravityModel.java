@@ -0,0 +1,277 @@
+import java.util.SplittableRandom;
+
+/**
+ * Physics of {@link GravitySimulation}: a growing particle flood around a
+ * fixed attractor, mirroring Gravity.py. The flood moves on a
+ * {@link SimulationCore}, which runs the model's {@link ParticleKernel}
+ * while the attractor is the lone one of Gravity.py.
+ *
+ * With a {@link SelfGravity} solver the particles also pull each other; a
+ * {@link ParticleMesh} keeps that affordable for millions of them. Giving
+ * the attractor zero mass ({@code -Dgravity.attractors=750,400,0}) leaves
+ * the flood to its own gravity.
+ */
+public class GravityModel implements SimulationModel {
+
+    public static final int WIDTH = 1500;
+    public static final int HEIGHT = 800;
+
+    /** Particles per circle, line or column, as in Gravity.py. */
+    public static final int PATTERN_SIZE = 100;
+
+    private static final int BACKGROUND_RGB = PixelRaster.rgb(20, 20, 20);
+    private static final int PARTICLE_RGB = 0xFFFFFF;
+
+    // ---------- State --------------------------------------------------------
+    private final ParticleStore particles;
+    private final ParallelStepper stepper;
+    // Spawn positions and jitter; seeded by -Dgravity.seed
+    private final SplittableRandom rng = RandomStreams.shared().stream("gravity");
+    private final ParticleKernel kernel;
+    // Central attractor (mirrors obj1 in Python) and any extra ones
+    private final SimulationCore core;
+
+    // Optional particle-particle gravity; null = test masses only
+    private SelfGravity selfGravity;
+    private double[] selfForceX = new double[0];
+    private double[] selfForceY = new double[0];
+
+    // Optional short-range collisions or pressure; null = none
+    private LocalInteractions interactions;
+    // Draw every k-th particle (set by the quality governor)
+    private int renderStride = 1;
+    // Optional world edge, lifetime and population cap; null = unbounded
+    private WorldPolicy world;
+    private long steps = 0;
+
+    public GravityModel() {
+        this(ParallelStepper.shared(), ParticleKernel.load());
+    }
+
+    public GravityModel(ParallelStepper stepper, ParticleKernel kernel) {
+        this.kernel = kernel;
+        this.stepper = stepper;
+        this.particles = new ParticleStore();
+        this.core = createCore(particles, stepper, kernel);
+    }
+
+    /**
+     * Resumes from a gravity {@link Snapshot}, taking ownership of its
+     * particles. Saved attractors come back with their velocities, and
+     * saved self-gravity at its coupling.
+     */
+    public GravityModel(Snapshot snapshot, ParallelStepper stepper, ParticleKernel kernel) {
+        snapshot.requireModel("gravity");
+        this.kernel = kernel;
+        this.stepper = stepper;
+        this.particles = snapshot.particles();
+        this.core = createCore(particles, stepper, kernel);
+        snapshot.restoreAttractors(core);
+        if (snapshot.coupling() > 0)
+            setSelfGravity(SelfGravity.fromProperties(stepper, "bh", snapshot.coupling()));
+    }
+
+    private static SimulationCore createCore(ParticleStore particles, ParallelStepper stepper, ParticleKernel kernel) {
+        SimulationCore core = new SimulationCore(particles, stepper, AttractorField.Law.INVERSE_R, Particle.G,
+                Particle.MASS, Particle.DT, 1, false);
+        core.addAttractor(Attractor.pinned(WIDTH / 2, HEIGHT / 2, Particle.M));
+        core.setKernel(kernel, Particle.M);
+        return core;
+    }
+
+    @Override
+    public String name() {
+        return "gravity";
+    }
+
+    @Override
+    public int particleCount() {
+        return particles.size();
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        return new Snapshot(name(), particles, Particle.MASS, attractorX(), attractorY(), 0, core.attractors(),
+                core.attractorSoftening(), selfGravity == null ? 0 : selfGravity.coupling());
+    }
+
+    public ParticleStore particles() {
+        return particles;
+    }
+
+    public ParticleKernel kernel() {
+        return kernel;
+    }
+
+    @Override
+    public SimulationCore core() {
+        return core;
+    }
+
+    /** Enables particle-particle gravity with the given solver, or disables it with null. */
+    public void setSelfGravity(SelfGravity solver) {
+        this.selfGravity = solver;
+        // Free attractors feel the particles through the same solver
+        core.setParticleGravity(solver);
+    }
+
+    public SelfGravity selfGravity() {
+        return selfGravity;
+    }
+
+    /** Enables short-range interactions, or disables them with null. */
+    public void setInteractions(LocalInteractions interactions) {
+        this.interactions = interactions;
+    }
+
+    public LocalInteractions interactions() {
+        return interactions;
+    }
+
+    /** Bounds the world and the population, or lifts all bounds with null. */
+    public void setWorldPolicy(WorldPolicy world) {
+        this.world = world;
+    }
+
+    public WorldPolicy worldPolicy() {
+        return world;
+    }
+
+    /** Draws only every {@code k}-th particle; 1 draws all. */
+    public void setRenderStride(int k) {
+        renderStride = Math.max(1, k);
+    }
+
+    /** Position of the first attractor. */
+    public int attractorX() {
+        return (int) core.attractor(0).x();
+    }
+
+    public int attractorY() {
+        return (int) core.attractor(0).y();
+    }
+
+    // =========================================================================
+    // Particle generators (mirrors Python functions)
+    // =========================================================================
+
+    /** The spawn patterns of the Swing controls. */
+    public enum Pattern {
+        /** Particles at the point itself (CTRL). */
+        POINT,
+        /** Spread across the width at the point's y (1). */
+        LINE,
+        /** Uniformly inside a circle of radius 50 around the point (2). */
+        CIRCLE,
+        /** Spread across the height at the point's x (3). */
+        COLUMN
+    }
+
+    /**
+     * Appends {@code count} particles in {@code pattern} around
+     * ({@code x}, {@code y}) as one {@link BulkSpawn}: one reservation, then
+     * a parallel fill. Returns the index of the first one.
+     */
+    public int spawn(Pattern pattern, int x, int y, int count) {
+        return BulkSpawn.append(particles, count, rng, stepper, (from, to, r) -> {
+            double[] xs = particles.x, ys = particles.y;
+            for (int i = from; i < to; i++) {
+                switch (pattern) {
+                    case POINT -> {
+                        xs[i] = x;
+                        ys[i] = y;
+                    }
+                    case LINE -> {
+                        xs[i] = r.nextInt(WIDTH);
+                        ys[i] = y;
+                    }
+                    case CIRCLE -> {
+                        double ang = r.nextDouble() * 2 * Math.PI;
+                        double hyp = Math.sqrt(r.nextDouble()) * 50;
+                        xs[i] = x + Math.cos(ang) * hyp;
+                        ys[i] = y + Math.sin(ang) * hyp;
+                    }
+                    case COLUMN -> {
+                        xs[i] = x;
+                        ys[i] = r.nextInt(HEIGHT);
+                    }
+                }
+            }
+        });
+    }
+
+    /** Spawns a single particle (CTRL in the Swing front end). */
+    public void spawn(double x, double y) {
+        particles.add(x, y);
+    }
+
+    /**
+     * Mirrors generate_circle() - 100 particles uniformly inside a circle of r=50
+     */
+    public void generateCircle(int cx, int cy) {
+        spawn(Pattern.CIRCLE, cx, cy, PATTERN_SIZE);
+    }
+
+    /** Mirrors generate_line() - 100 particles spread across width at given Y */
+    public void generateLine(int y) {
+        spawn(Pattern.LINE, 0, y, PATTERN_SIZE);
+    }
+
+    /** Mirrors generate_line2() - 100 particles spread across height at given X */
+    public void generateLine2(int x) {
+        spawn(Pattern.COLUMN, x, 0, PATTERN_SIZE);
+    }
+
+    // =========================================================================
+    // Step & render
+    // =========================================================================
+
+    @Override
+    public void step() {
+        if (interactions != null)
+            interactions.apply(particles, core.stepLength());
+        if (selfGravity == null) {
+            core.step(null, null);
+        } else {
+            if (selfForceX.length < particles.size()) {
+                selfForceX = new double[particles.capacity()];
+                selfForceY = new double[particles.capacity()];
+            }
+            selfGravity.computeForces(particles, Particle.MASS, selfForceX, selfForceY);
+            core.step(selfForceX, selfForceY);
+        }
+        if (world != null)
+            world.apply(particles, steps);
+        steps++;
+    }
+
+    @Override
+    public void savePositions() {
+        particles.savePrevious();
+    }
+
+    @Override
+    public void render(PixelRaster raster) {
+        render(raster, 1.0);
+    }
+
+    @Override
+    public void render(PixelRaster raster, double alpha) {
+        // Background (20,20,20) - matches Python screen.fill((20,20,20))
+        raster.fill(BACKGROUND_RGB);
+
+        int n = particles.size();
+        int interpolated = alpha < 1.0 ? particles.previousSize() : 0;
+        double[] xs = particles.x, ys = particles.y, pxs = particles.prevX, pys = particles.prevY;
+        int k = renderStride;
+        for (int i = 0; i < interpolated; i += k) {
+            double x = pxs[i] + (xs[i] - pxs[i]) * alpha;
+            double y = pys[i] + (ys[i] - pys[i]) * alpha;
+            raster.plot((int) x, (int) y, PARTICLE_RGB);
+        }
+        for (int i = interpolated + (k - interpolated % k) % k; i < n; i += k) {
+            // Only draw if on screen (plot clips); 1-pixel dot, same as r=1 circle
+            raster.plot((int) xs[i], (int) ys[i], PARTICLE_RGB);
+        }
+    }
+}
@@ -3,19 +3,23 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * Java recreation of Gravity.py
  *
  * Controls (same as Python version):
- * CTRL (hold) – spawn a single particle at mouse position
- * 1 (hold) – spawn a horizontal line of particles at mouse Y
- * 2 (hold) – spawn a circle cluster of particles at mouse position
- * 3 (hold) – spawn a vertical line of particles at mouse X
- * ESC – quit
+ * CTRL (hold) - spawn a single particle at mouse position
+ * 1 (hold) - spawn a horizontal line of particles at mouse Y
+ * 2 (hold) - spawn a circle cluster of particles at mouse position
+ * 3 (hold) - spawn a vertical line of particles at mouse X
+ * S - save a snapshot (resume with -Dgravity.snapshot=FILE)
+ * (with -Dgravity.input=FILE an {@link InputTimeline} script holds the
+ * spawn keys and moves the mouse instead)
+ * M - show / hide the frame metrics overlay
+ * ESC - quit
  *
  * Rendering is done with a BufferedImage (double-buffered) for smooth
  * animation.
@@ -23,34 +27,46 @@ import java.util.Random;
 public class GravitySimulation extends JPanel implements Runnable {
 
     // ---------- Window / simulation constants --------------------------------
-    private static final int WIDTH = 1500;
-    private static final int HEIGHT = 800;
+    private static final int WIDTH = GravityModel.WIDTH;
+    private static final int HEIGHT = GravityModel.HEIGHT;
     private static final int TARGET_FPS = 100;
 
-    // Central attractors (mirrors obj1 in Python)
-    private final Point attractor = new Point(WIDTH / 2, HEIGHT / 2);
-
     // ---------- State --------------------------------------------------------
-    private final List<Particle> particles = new ArrayList<>();
-    private final Random rng = new Random();
+    // Particles, generators and physics (no Swing dependency); -Dgravity.snapshot=FILE resumes a saved run
+    private final GravityModel model = createModel();
+    // Fixed physics rate, independent of how fast frames are drawn
+    private final FixedTimestep timestep = FixedTimestep.fromProperties(TARGET_FPS);
+    // Optional position stream (-Dgravity.record=FILE), written off the loop thread
+    private final TrajectoryRecorder recorder = TrajectoryRecorder.fromProperties(model.name());
+    private long stepCount = 0;
 
     // Keyboard state
     private boolean keyCtrl = false;
     private boolean key1 = false;
     private boolean key2 = false;
     private boolean key3 = false;
+    // Scripted keys and mouse replacing the live ones (-Dgravity.input=FILE); null = live input
+    private final InputTimeline timeline = InputTimeline.fromProperties();
+    // Spawns requested by the held keys, applied before the next step
+    private final SpawnQueue spawns = new SpawnQueue();
+    // S: write a snapshot at the next step boundary
+    private volatile boolean saveRequested = false;
 
     // Mouse position
     private int mouseX = WIDTH / 2;
     private int mouseY = HEIGHT / 2;
 
-    // Performance tracking
-    private long lastFrameTime = System.nanoTime();
-    private int fps = 0;
+    // Per-phase frame timing, overlay (M) and JSON / JMX export
+    private final FrameMetrics metrics = FrameMetrics.fromProperties(model.name(), TARGET_FPS);
+    // Lowers quality step by step when frames run over budget (-Dgravity.governor=false to disable)
+    private final QualityGovernor governor = QualityGovernor.fromProperties(metrics, timestep, false, true);
 
     // Off-screen buffers for smooth rendering (double buffering)
     private BufferedImage bufferDraw;
     private BufferedImage bufferDisplay;
+    // Direct pixel access to the same two buffers, swapped alongside them
+    private PixelRaster rasterDraw;
+    private PixelRaster rasterDisplay;
 
     // =========================================================================
     // Construction & wiring
@@ -61,6 +77,20 @@ public class GravitySimulation extends JPanel implements Runnable {
         setBackground(Color.BLACK);
         bufferDraw = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
         bufferDisplay = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        rasterDraw = new PixelRaster(bufferDraw);
+        rasterDisplay = new PixelRaster(bufferDisplay);
+
+        // Optional particle-particle gravity (-Dgravity.nbody=pm|bh|direct); a snapshot may bring its own
+        if (model.selfGravity() == null)
+            model.setSelfGravity(SelfGravity.fromProperties(ParallelStepper.shared()));
+        // Optional collisions / pressure (-Dgravity.interactions=collide|pressure)
+        model.setInteractions(LocalInteractions.fromProperties(ParallelStepper.shared()));
+        // Optional world edge, lifetime and population cap (-Dgravity.world, gravity.lifetime, gravity.maxParticles)
+        model.setWorldPolicy(WorldPolicy.fromProperties(ParallelStepper.shared()));
+        // Optional extra attractors (-Dgravity.attractors=binary or x,y,M[,vx,vy];...), unless a
+        // snapshot brought its own
+        if (!Snapshot.requested())
+            model.core().attractorsFromProperties();
 
         // --- Key listeners ---------------------------------------------------
         setFocusable(true);
@@ -72,6 +102,8 @@ public class GravitySimulation extends JPanel implements Runnable {
                     case KeyEvent.VK_1 -> key1 = true;
                     case KeyEvent.VK_2 -> key2 = true;
                     case KeyEvent.VK_3 -> key3 = true;
+                    case KeyEvent.VK_S -> saveRequested = true;
+                    case KeyEvent.VK_M -> metrics.toggleOverlay();
                     case KeyEvent.VK_ESCAPE -> System.exit(0);
                 }
             }
@@ -106,36 +138,22 @@ public class GravitySimulation extends JPanel implements Runnable {
         mouseY = e.getY();
     }
 
-    // =========================================================================
-    // Particle generators (mirrors Python functions)
-    // =========================================================================
-
-    /**
-     * Mirrors generate_circle() — 100 particles uniformly inside a circle of r=50
-     */
-    private void generateCircle(int cx, int cy) {
-        for (int i = 0; i < 100; i++) {
-            double ang = rng.nextDouble() * 2 * Math.PI;
-            double hyp = Math.sqrt(rng.nextDouble()) * 50;
-            double x = cx + Math.cos(ang) * hyp;
-            double y = cy + Math.sin(ang) * hyp;
-            particles.add(new Particle(x, y));
-        }
+    private static GravityModel createModel() {
+        Snapshot snapshot = Snapshot.fromProperties();
+        return snapshot == null ? new GravityModel()
+                : new GravityModel(snapshot, ParallelStepper.shared(), ParticleKernel.load());
     }
 
-    /** Mirrors generate_line() — 100 particles spread across width at given Y */
-    private void generateLine(int y) {
-        for (int i = 0; i < 100; i++) {
-            int x = rng.nextInt(WIDTH);
-            particles.add(new Particle(x, y));
-        }
-    }
-
-    /** Mirrors generate_line2() — 100 particles spread across height at given X */
-    private void generateLine2(int x) {
-        for (int i = 0; i < 100; i++) {
-            int y = rng.nextInt(HEIGHT);
-            particles.add(new Particle(x, y));
+    /** Writes the current state to -Dgravity.snapshotOut (default gravity.snap). */
+    private void saveSnapshot() {
+        Path path = Paths.get(System.getProperty("gravity.snapshotOut", "gravity.snap"));
+        try {
+            long t0 = System.nanoTime();
+            model.snapshot().write(path);
+            System.out.printf("Saved %,d particles to %s in %.1f ms%n", model.particleCount(), path,
+                    (System.nanoTime() - t0) / 1e6);
+        } catch (IOException e) {
+            System.err.println("Snapshot failed: " + e.getMessage());
         }
     }
 
@@ -149,75 +167,118 @@ public class GravitySimulation extends JPanel implements Runnable {
 
         while (true) {
             long start = System.nanoTime();
+            metrics.beginFrame(start);
+
+            // --- Handle input (spawns stop once the governor caps them) ------
+            // Held keys only queue their patterns; a script spawns per step instead and ignores the cap
+            int size = GravityModel.PATTERN_SIZE;
+            boolean spawn = timeline == null
+                    && governor.spawnAllowed(model.particleCount() + spawns.pendingParticles());
+            if (keyCtrl && spawn)
+                spawns.add(GravityModel.Pattern.POINT, mouseX, mouseY, 1);
+            if (key1 && spawn)
+                spawns.add(GravityModel.Pattern.LINE, mouseX, mouseY, size);
+            if (key2 && spawn)
+                spawns.add(GravityModel.Pattern.CIRCLE, mouseX, mouseY, size);
+            if (key3 && spawn)
+                spawns.add(GravityModel.Pattern.COLUMN, mouseX, mouseY, size);
+            if (saveRequested) {
+                saveRequested = false;
+                saveSnapshot();
+            }
+            metrics.lap(FrameMetrics.Phase.INPUT);
+
+            // --- Physics: as many fixed steps as the elapsed time demands ----
+            int steps = timestep.advance(start);
+            for (int k = 0; k < steps; k++) {
+                if (k == steps - 1)
+                    model.savePositions();
+                // Step boundary: queued and scripted spawns join here, never mid-step
+                spawns.drainInto(model);
+                if (timeline != null)
+                    timeline.apply(stepCount, model);
+                model.step();
+                if (recorder != null)
+                    recorder.record(stepCount, model);
+                stepCount++;
+            }
+            metrics.lap(FrameMetrics.Phase.PHYSICS);
+            // Behind schedule: skip drawing this frame so physics can catch up
+            if (!timestep.shouldRender()) {
+                metrics.skipFrame();
+                continue;
+            }
 
-            // --- Handle input ------------------------------------------------
-            if (keyCtrl)
-                particles.add(new Particle(mouseX, mouseY));
-            if (key1)
-                generateLine(mouseY);
-            if (key2)
-                generateCircle(mouseX, mouseY);
-            if (key3)
-                generateLine2(mouseX);
-
-            // --- Update & render to off-screen buffer -----------------------
+            // --- Render to off-screen buffer --------------------------------
+            // Background and particles, interpolated between the last two steps
+            model.render(rasterDraw, timestep.alpha());
+            metrics.lap(FrameMetrics.Phase.RASTER);
+
+            // Shapes and text still go through Java2D on the same image
             Graphics2D g2 = bufferDraw.createGraphics();
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                     RenderingHints.VALUE_ANTIALIAS_ON);
 
-            // Background (20,20,20) – matches Python screen.fill((20,20,20))
-            g2.setColor(new Color(20, 20, 20));
-            g2.fillRect(0, 0, WIDTH, HEIGHT);
-
-            // Move and draw particles
-            g2.setColor(Color.WHITE);
-            for (Particle p : particles) {
-                p.move(attractor.x, attractor.y);
-                int px = (int) p.x;
-                int py = (int) p.y;
-                // Only draw if on screen
-                if (px >= 0 && px < WIDTH && py >= 0 && py < HEIGHT) {
-                    g2.fillRect(px, py, 1, 1); // 1-pixel dot, same as r=1 circle
-                }
-            }
-
-            // Central attractor — yellow circle, r=15 (matches Python)
+            // Attractors - yellow circles, r=15 (matches Python)
             g2.setColor(Color.YELLOW);
             int ar = 15;
-            g2.fillOval(attractor.x - ar, attractor.y - ar, ar * 2, ar * 2);
+            for (Attractor a : model.core().attractors())
+                g2.fillOval((int) a.x() - ar, (int) a.y() - ar, ar * 2, ar * 2);
 
             // HUD text
             g2.setColor(Color.WHITE);
             g2.setFont(new Font("SansSerif", Font.PLAIN, 18));
-            g2.drawString("Particles : " + particles.size(), 20, 40);
-            g2.drawString("FPS       : " + fps, 20, 65);
-            g2.drawString("Controls: Ctrl=particle  1=h-line  2=circle  3=v-line", 20, HEIGHT - 20);
+            g2.drawString("Particles : " + model.particleCount(), 20, 40);
+            g2.drawString(String.format("FPS       : %.0f", metrics.fps()), 20, 65);
+            g2.drawString("Steps/frm : " + timestep.lastSteps(), 20, 90);
+            g2.drawString("Quality   : " + governor.status(), 20, 115);
+            g2.drawString("Governor  : " + governor.lastDecision(), 20, 140);
+            int hudY = 165;
+            if (model.selfGravity() != null) {
+                g2.drawString("N-body    : " + model.selfGravity().name(), 20, hudY);
+                hudY += 25;
+            }
+            if (model.interactions() != null) {
+                g2.drawString("Contacts  : " + model.interactions().name(), 20, hudY);
+                hudY += 25;
+            }
+            if (model.worldPolicy() != null)
+                g2.drawString(String.format("World     : %s, %,d removed", model.worldPolicy().describe(),
+                        model.worldPolicy().removed()), 20, hudY);
+            g2.drawString("Controls: Ctrl=particle  1=h-line  2=circle  3=v-line  S=save  M=metrics", 20, HEIGHT - 20);
 
+            if (metrics.overlay())
+                metrics.drawOverlay(g2, WIDTH - 10, 10);
             g2.dispose();
+            metrics.lap(FrameMetrics.Phase.OVERLAY);
 
             // --- Swap buffers and push to screen --------------------------------------
             synchronized (this) {
                 BufferedImage temp = bufferDisplay;
                 bufferDisplay = bufferDraw;
                 bufferDraw = temp;
+                PixelRaster tempRaster = rasterDisplay;
+                rasterDisplay = rasterDraw;
+                rasterDraw = tempRaster;
             }
             repaint();
-
-            // --- FPS calculation -------------------------------------------
-            long now = System.nanoTime();
-            long elapsed = now - lastFrameTime;
-            if (elapsed > 0)
-                fps = (int) (1_000_000_000L / elapsed);
-            lastFrameTime = now;
+            metrics.lap(FrameMetrics.Phase.SWAP);
 
             // --- Cap to target FPS ------------------------------------------
-            long sleepNs = targetNs - (now - start);
+            long sleepNs = targetNs - (System.nanoTime() - start);
             if (sleepNs > 0) {
                 try {
                     Thread.sleep(sleepNs / 1_000_000, (int) (sleepNs % 1_000_000));
                 } catch (InterruptedException ignored) {
                 }
             }
+            metrics.lap(FrameMetrics.Phase.SLEEP);
+            metrics.endFrame(model.particleCount());
+
+            // --- Quality governor: react to this frame's cost ---------------
+            governor.update(metrics.lastWorkNs(), model.particleCount(), System.nanoTime());
+            timestep.setSubStepLimit(governor.subSteps());
+            model.setRenderStride(governor.renderStride());
         }
     }
 
@@ -0,0 +1,317 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.awt.image.BufferedImage;
+
+/**
+ * Runs a simulation's physics without a window, as fast as possible.
+ *
+ * No JFrame, no repaint and no frame-rate cap: the model is stepped N times
+ * back to back and the runner reports steps/sec and particle-updates/sec.
+ * Frames are only rendered when {@code --frames} or {@code --raw} is given,
+ * into an off-screen image with {@code java.awt.headless=true}, so it works
+ * on servers without a display. Encoding happens on a {@link FrameExporter}
+ * pool ({@code --encoders N}) while the next steps run.
+ *
+ * <pre>
+ *   java HeadlessRunner gravity   --steps 2000 --particles 1000000
+ *   java HeadlessRunner galaxy    --steps 5000 --frames out/ --frame-every 10
+ *   java HeadlessRunner galaxy    --steps 10000 --frame-every 1 --raw - \
+ *       | ffmpeg -f rawvideo -pix_fmt rgb24 -s 1500x800 -r 60 -i - galaxy.mp4
+ *   java -Dgravity.workers=8 HeadlessRunner blackhole --particles 200000
+ *   java -Dgravity.nbody=bh -Dgravity.theta=0.7 HeadlessRunner galaxy --particles 100000 --check-forces
+ *   java HeadlessRunner galaxy --particles 2000000 --save galaxy.snap --checkpoint-every 500
+ *   java HeadlessRunner galaxy --load galaxy.snap --steps 5000
+ *   java HeadlessRunner gravity --particles 100000 --record run.grvt --record-every 1
+ *   java -Dgravity.interactions=collide -Dgravity.restitution=0.5 HeadlessRunner gravity --particles 1000000
+ *   java -Dgravity.density=true HeadlessRunner galaxy --frames out/
+ *   java -Dgravity.world=cull -Dgravity.maxParticles=200000 HeadlessRunner gravity --particles 500000
+ *   java -Dgravity.integrator=yoshida4 -Dgravity.stepScale=8 HeadlessRunner blackhole --particles 100000
+ *   java -Dgravity.attractors=binary:300 HeadlessRunner galaxy --particles 200000
+ *   java -Dgravity.galaxies=2 -Dgravity.theta=0.7 HeadlessRunner collision --steps 200 --frames out/
+ *   java -Dgravity.nbody=pm -Dgravity.pmGrid=256 HeadlessRunner gravity --particles 2000000
+ *   java -Dgravity.seed=42 HeadlessRunner gravity --particles 0 --steps 2000 --input spawns.txt
+ * </pre>
+ *
+ * {@code collision} is the {@link GalaxyCollision} merger, 500k stars by
+ * default, reported against its stars x steps per second target.
+ *
+ * {@code --check-forces} compares the configured N-body solver against
+ * direct summation on the initial state before running. {@code --load}
+ * resumes from a {@link Snapshot} instead of generating the initial state;
+ * {@code --save} writes one at the end, and also every K steps with
+ * {@code --checkpoint-every K}. {@code --record} streams positions every K
+ * steps to a {@link TrajectoryRecorder}; frames the writer cannot keep up
+ * with are dropped and reported rather than slowing the run.
+ *
+ * Every run reports its {@link RandomStreams} seed and a checksum of the
+ * final state. {@code --input} replays an {@link InputTimeline} script step
+ * by step, so the flood a user would spawn by hand can be benchmarked.
+ * Rerunning with {@code -Dgravity.seed} and the same script repeats the
+ * workload exactly, down to the checksum.
+ */
+public class HeadlessRunner {
+
+    private static void usage() {
+        System.err.println("usage: HeadlessRunner <gravity|galaxy|blackhole|collision> [--steps N] [--particles N]"
+                + " [--frames DIR | --raw FILE|-] [--frame-every K] [--encoders N] [--check-forces]"
+                + " [--load FILE] [--save FILE] [--checkpoint-every K] [--record FILE] [--record-every K]"
+                + " [--input FILE]");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 1)
+            usage();
+
+        String sim = args[0];
+        int steps = 1000;
+        int particles = -1;
+        Path framesDir = null;
+        String rawOut = null;
+        int frameEvery = 10;
+        int encoders = Runtime.getRuntime().availableProcessors();
+        boolean checkForces = false;
+        Path load = null;
+        Path save = null;
+        int checkpointEvery = 0;
+        Path record = null;
+        int recordEvery = 1;
+        Path input = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--check-forces")) {
+                checkForces = true;
+                continue;
+            }
+            if (i + 1 >= args.length)
+                usage();
+            switch (args[i]) {
+                case "--steps" -> steps = Integer.parseInt(args[++i]);
+                case "--particles" -> particles = Integer.parseInt(args[++i]);
+                case "--frames" -> framesDir = Paths.get(args[++i]);
+                case "--raw" -> rawOut = args[++i];
+                case "--encoders" -> encoders = Integer.parseInt(args[++i]);
+                case "--frame-every" -> frameEvery = Integer.parseInt(args[++i]);
+                case "--load" -> load = Paths.get(args[++i]);
+                case "--save" -> save = Paths.get(args[++i]);
+                case "--checkpoint-every" -> checkpointEvery = Integer.parseInt(args[++i]);
+                case "--record" -> record = Paths.get(args[++i]);
+                case "--record-every" -> recordEvery = Integer.parseInt(args[++i]);
+                case "--input" -> input = Paths.get(args[++i]);
+                default -> usage();
+            }
+        }
+
+        // Raw frames on stdout go to a pipe, so the report moves to stderr
+        PrintStream out = "-".equals(rawOut) ? System.err : System.out;
+
+        SimulationModel model;
+        if (load != null) {
+            long l0 = System.nanoTime();
+            Snapshot snapshot = Snapshot.read(load);
+            snapshot.requireModel(sim);
+            model = snapshot.restore(ParallelStepper.shared());
+            // A collision brings its own self-gravity; a plain galaxy takes it from the properties
+            if (model instanceof GalaxyModel && ((GalaxyModel) model).selfGravity() == null)
+                ((GalaxyModel) model).setSelfGravity(SelfGravity.fromProperties(ParallelStepper.shared()));
+            applyOptions(model, true);
+            out.printf("loaded %s in %.1f ms%n", load, (System.nanoTime() - l0) / 1e6);
+        } else {
+            model = create(sim, particles);
+        }
+        PixelRaster raster = null;
+        FrameExporter exporter = null;
+        if (framesDir != null || rawOut != null) {
+            int w = GravityModel.WIDTH, h = GravityModel.HEIGHT;
+            raster = new PixelRaster(new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB));
+            if (framesDir != null) {
+                exporter = FrameExporter.pngSequence(framesDir, w, h, encoders);
+            } else {
+                OutputStream stream = "-".equals(rawOut) ? System.out : new FileOutputStream(rawOut);
+                exporter = FrameExporter.rawStream(stream, w, h, encoders);
+            }
+        }
+
+        out.printf("%s: %,d particles, %d steps, %d workers%n",
+                model.name(), model.particleCount(), steps, ParallelStepper.shared().workers());
+        out.println("seed                 : " + RandomStreams.shared().describe());
+        InputTimeline timeline = input == null ? null : InputTimeline.read(input);
+        if (timeline != null)
+            out.printf("input                : %,d events from %s%n", timeline.eventCount(), input);
+        LocalInteractions contacts = model instanceof GravityModel ? ((GravityModel) model).interactions()
+                : model instanceof GalaxyModel ? ((GalaxyModel) model).interactions() : null;
+        if (contacts != null)
+            out.println("interactions         : " + contacts.name());
+        WorldPolicy world = model instanceof GravityModel ? ((GravityModel) model).worldPolicy() : null;
+        SelfGravity nbody = model instanceof GravityModel ? ((GravityModel) model).selfGravity()
+                : model instanceof GalaxyModel ? ((GalaxyModel) model).selfGravity() : null;
+        if (nbody != null) {
+            out.println("n-body               : " + nbody.name());
+            if (checkForces) {
+                DirectSummation reference = new DirectSummation(nbody.coupling(),
+                        Double.parseDouble(System.getProperty("gravity.softening", "2")),
+                        ParallelStepper.shared());
+                double mass = model instanceof GravityModel ? Particle.MASS : GalaxyModel.MASS;
+                double err = reference.relativeError(nbody, model.core().particles(), mass);
+                out.printf("force error vs direct: %.3e (RMS relative)%n", err);
+            }
+        }
+
+        // Galaxy and black hole: integrator cost and drift, baselines taken now.
+        // Gravity particles start at rest and get culled, so drift means nothing there
+        SimulationCore core = model.core();
+        boolean drift = !(model instanceof GravityModel);
+        if (core.attractorCount() > 1)
+            out.println("attractors           : " + describeAttractors(core));
+        if (drift) {
+            out.println("integrator           : "
+                    + (core.integrator() == null ? "built-in euler" : core.integrator().name()) + ", "
+                    + core.stepScale() + " x DT");
+            core.measureDrift();
+        }
+
+        long updates = 0;
+        long renderNs = 0;
+        long saveNs = 0;
+        TrajectoryRecorder recorder = record == null ? null : new TrajectoryRecorder(record, model.name());
+        long t0 = System.nanoTime();
+        for (int s = 0; s < steps; s++) {
+            if (timeline != null)
+                timeline.apply(s, model);
+            updates += model.particleCount();
+            model.step();
+            if (recorder != null && s % recordEvery == 0)
+                recorder.record(s, model);
+
+            if (raster != null && s % frameEvery == 0) {
+                long r0 = System.nanoTime();
+                model.render(raster);
+                exporter.submit(raster); // waits only when every pooled image is still encoding
+                renderNs += System.nanoTime() - r0;
+            }
+            if (save != null && checkpointEvery > 0 && (s + 1) % checkpointEvery == 0 && s + 1 < steps) {
+                long c0 = System.nanoTime();
+                model.snapshot().write(save);
+                saveNs += System.nanoTime() - c0;
+            }
+        }
+        double secs = (System.nanoTime() - t0 - renderNs - saveNs) / 1e9;
+
+        out.printf("steps/sec            : %,.1f%n", steps / secs);
+        if (world != null)
+            out.printf("world                : %s, %,d removed, %,d left%n", world.describe(), world.removed(),
+                    model.particleCount());
+        out.printf("particle-updates/sec : %,.0f%n", updates / secs);
+        if (sim.equals("collision")) {
+            int workers = ParallelStepper.shared().workers();
+            out.printf("stars x steps/sec    : %,.0f, %.0f%% of the %,.0f target for %d workers%n", updates / secs,
+                    100 * updates / secs / GalaxyCollision.target(workers), GalaxyCollision.target(workers), workers);
+            out.println("attractors at end    : " + describeAttractors(core));
+        }
+        if (drift) {
+            out.printf("force evaluations    : %,.0f per particle per simulated second%n",
+                    core.forceEvaluations() / Math.max(1.0, updates / (double) steps) / core.simulatedTime());
+            out.println("drift                : " + core.measureDrift().describe());
+        }
+        out.printf("state checksum       : %016x%n", model.core().particles().checksum());
+        if (exporter != null) {
+            long e0 = System.nanoTime();
+            exporter.close();
+            renderNs += System.nanoTime() - e0;
+            double wall = (System.nanoTime() - t0) / 1e9;
+            out.printf("frame output         : %,d frames, %.2f s rendering/waiting (excluded above), %.1f frames/s overall%n",
+                    exporter.writtenFrames(), renderNs / 1e9, exporter.writtenFrames() / wall);
+        }
+        if (recorder != null) {
+            recorder.close();
+            out.printf("trajectory           : %,d frames, %,d dropped, %.1f MB to %s%n",
+                    recorder.recordedFrames(), recorder.droppedFrames(), recorder.writtenBytes() / 1e6, record);
+        }
+        if (save != null) {
+            long c0 = System.nanoTime();
+            model.snapshot().write(save);
+            saveNs += System.nanoTime() - c0;
+            out.printf("snapshots            : %.2f s to %s (excluded above)%n", saveNs / 1e9, save);
+        }
+    }
+
+    /** Builds a model; {@code particles < 0} keeps the simulation's default population. */
+    static SimulationModel create(String sim, int particles) {
+        ParallelStepper stepper = ParallelStepper.shared();
+        switch (sim) {
+            case "gravity": {
+                GravityModel m = new GravityModel(stepper, ParticleKernel.load());
+                // The window starts empty and fills from key presses; flood horizontal lines instead,
+                // the last one short if the count is not a whole number of patterns
+                int total = particles < 0 ? 100_000 : particles;
+                int lines = (total + GravityModel.PATTERN_SIZE - 1) / GravityModel.PATTERN_SIZE;
+                m.particles().ensureCapacity(total);
+                for (int i = 0; i < lines; i++)
+                    m.spawn(GravityModel.Pattern.LINE, 0, (int) ((i + 0.5) * GravityModel.HEIGHT / lines),
+                            Math.min(GravityModel.PATTERN_SIZE, total - i * GravityModel.PATTERN_SIZE));
+                applyOptions(m, false);
+                return m;
+            }
+            case "galaxy": {
+                GalaxyModel m = new GalaxyModel(particles < 0 ? GalaxyModel.DEFAULT_STARS : particles, stepper);
+                m.setSelfGravity(SelfGravity.fromProperties(stepper));
+                applyOptions(m, false);
+                return m;
+            }
+            case "collision": {
+                GalaxyModel m = GalaxyCollision.fromProperties()
+                        .create(particles < 0 ? GalaxyCollision.DEFAULT_STARS : particles, stepper);
+                applyOptions(m, false);
+                return m;
+            }
+            case "blackhole": {
+                BlackholeModel m = new BlackholeModel(particles < 0 ? BlackholeModel.DEFAULT_PARTICLES : particles,
+                        stepper);
+                applyOptions(m, false);
+                return m;
+            }
+            default:
+                throw new IllegalArgumentException("unknown simulation: " + sim);
+        }
+    }
+
+    /**
+     * Applies the optional behaviors the windowed front ends read from
+     * system properties: attractors, gravity's self-gravity, interactions,
+     * world bounds, density shading and the integrator.
+     */
+    private static void applyOptions(SimulationModel model, boolean resumed) {
+        ParallelStepper stepper = ParallelStepper.shared();
+        // A resumed model keeps the attractors and self-gravity it was saved with
+        if (!resumed)
+            model.core().attractorsFromProperties();
+        if (model instanceof GravityModel) {
+            GravityModel m = (GravityModel) model;
+            if (m.selfGravity() == null)
+                m.setSelfGravity(SelfGravity.fromProperties(stepper));
+            m.setInteractions(LocalInteractions.fromProperties(stepper));
+            m.setWorldPolicy(WorldPolicy.fromProperties(stepper));
+        } else if (model instanceof GalaxyModel) {
+            GalaxyModel m = (GalaxyModel) model;
+            m.setInteractions(LocalInteractions.fromProperties(stepper));
+            m.setDensityShading(Boolean.getBoolean("gravity.density"));
+            m.core().setIntegrator(Integrator.fromProperties(), Integrator.stepScaleFromProperties());
+        } else if (model instanceof BlackholeModel) {
+            model.core().setIntegrator(Integrator.fromProperties(), Integrator.stepScaleFromProperties());
+        }
+    }
+
+    private static String describeAttractors(SimulationCore core) {
+        StringBuilder sb = new StringBuilder();
+        for (Attractor a : core.attractors()) {
+            if (sb.length() > 0)
+                sb.append("; ");
+            sb.append(String.format("(%.0f, %.0f) M %.3g %s", a.x(), a.y(), a.mass(), a.isPinned() ? "pinned" : "free"));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scripted keyboard and mouse input, replayed by physics step in place of
+ * the live key and mouse state.
+ *
+ * The script is a text file with one event per line, in any order;
+ * {@code #} starts a comment:
+ *
+ * <pre>
+ *   # step  event
+ *   0       mouse 750 200
+ *   0       press 2
+ *   40      release 2
+ *   100     press ctrl
+ *   160     release ctrl
+ * </pre>
+ *
+ * The keys are {@code ctrl}, {@code 1}, {@code 2} and {@code 3}, the spawn
+ * controls of {@link GravitySimulation}. {@code mouse} moves the pointer,
+ * which is the hole in the black hole simulation. Events at step s take
+ * effect just before step s runs, in file order, and a held key spawns once
+ * per step.
+ *
+ * Input is tied to steps rather than frames or wall time. It also bypasses
+ * the {@link QualityGovernor}'s spawn cap, which depends on load. The same
+ * script and {@code -Dgravity.seed} therefore give the same workload in the
+ * window and in {@link HeadlessRunner}, on any machine.
+ */
+public final class InputTimeline {
+
+    /** The scripted keys, by the name they have in the script. */
+    public enum Key {
+        CTRL("ctrl"), LINE("1"), CIRCLE("2"), COLUMN("3");
+
+        final String token;
+
+        Key(String token) {
+            this.token = token;
+        }
+
+        static Key parse(String token) {
+            for (Key k : values())
+                if (k.token.equals(token))
+                    return k;
+            throw new IllegalArgumentException("unknown key '" + token + "', expected ctrl, 1, 2 or 3");
+        }
+    }
+
+    private static final int PRESS = 0;
+    private static final int RELEASE = 1;
+    private static final int MOUSE = 2;
+
+    // Events sorted by step (stable, so file order holds within a step)
+    private final long[] steps;
+    private final int[] kinds;
+    private final int[] argA;
+    private final int[] argB;
+    private int next = 0;
+
+    // Replayed state
+    private final boolean[] held = new boolean[Key.values().length];
+    private int mouseX = GravityModel.WIDTH / 2;
+    private int mouseY = GravityModel.HEIGHT / 2;
+    private boolean mouseMoved = false;
+
+    private InputTimeline(List<long[]> events) {
+        events.sort((a, b) -> Long.compare(a[0], b[0]));
+        int n = events.size();
+        steps = new long[n];
+        kinds = new int[n];
+        argA = new int[n];
+        argB = new int[n];
+        for (int i = 0; i < n; i++) {
+            long[] e = events.get(i);
+            steps[i] = e[0];
+            kinds[i] = (int) e[1];
+            argA[i] = (int) e[2];
+            argB[i] = (int) e[3];
+        }
+    }
+
+    /** Reads a script in the format above. */
+    public static InputTimeline read(Path path) throws IOException {
+        List<long[]> events = new ArrayList<>();
+        int lineNo = 0;
+        for (String line : Files.readAllLines(path)) {
+            lineNo++;
+            int hash = line.indexOf('#');
+            String[] t = (hash >= 0 ? line.substring(0, hash) : line).trim().split("\\s+");
+            if (t.length == 1 && t[0].isEmpty())
+                continue;
+            try {
+                long step = Long.parseLong(t[0]);
+                switch (t.length > 1 ? t[1] : "") {
+                    case "press" -> events.add(new long[] { step, PRESS, Key.parse(arg(t, 2)).ordinal(), 0 });
+                    case "release" -> events.add(new long[] { step, RELEASE, Key.parse(arg(t, 2)).ordinal(), 0 });
+                    case "mouse" -> events.add(new long[] { step, MOUSE, Integer.parseInt(arg(t, 2)),
+                            Integer.parseInt(arg(t, 3)) });
+                    default -> throw new IllegalArgumentException("expected press, release or mouse");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + ":" + lineNo + ": " + e.getMessage() + ": " + line.trim(), e);
+            }
+        }
+        return new InputTimeline(events);
+    }
+
+    private static String arg(String[] t, int i) {
+        if (i >= t.length)
+            throw new IllegalArgumentException("missing argument");
+        return t[i];
+    }
+
+    /** Script from {@code -Dgravity.input=FILE}, or null when unset. */
+    public static InputTimeline fromProperties() {
+        String file = System.getProperty("gravity.input");
+        if (file == null || file.isBlank())
+            return null;
+        try {
+            return read(Paths.get(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read input script " + file, e);
+        }
+    }
+
+    public int eventCount() {
+        return steps.length;
+    }
+
+    /** Delivers every event up to and including {@code step}. */
+    public void advanceTo(long step) {
+        mouseMoved = false;
+        while (next < steps.length && steps[next] <= step) {
+            switch (kinds[next]) {
+                case PRESS -> held[argA[next]] = true;
+                case RELEASE -> held[argA[next]] = false;
+                case MOUSE -> {
+                    mouseX = argA[next];
+                    mouseY = argB[next];
+                    mouseMoved = true;
+                }
+            }
+            next++;
+        }
+    }
+
+    public boolean held(Key key) {
+        return held[key.ordinal()];
+    }
+
+    public int mouseX() {
+        return mouseX;
+    }
+
+    public int mouseY() {
+        return mouseY;
+    }
+
+    /** Whether the last {@link #advanceTo} moved the pointer. */
+    public boolean mouseMoved() {
+        return mouseMoved;
+    }
+
+    /**
+     * Replays the input up to {@code step} into {@code model}: held keys
+     * spawn into a {@link GravityModel} and the pointer moves a
+     * {@link BlackholeModel}'s hole. Galaxies take no input.
+     */
+    public void apply(long step, SimulationModel model) {
+        advanceTo(step);
+        if (model instanceof GravityModel) {
+            GravityModel m = (GravityModel) model;
+            if (held(Key.CTRL))
+                m.spawn(mouseX, mouseY);
+            if (held(Key.LINE))
+                m.generateLine(mouseY);
+            if (held(Key.CIRCLE))
+                m.generateCircle(mouseX, mouseY);
+            if (held(Key.COLUMN))
+                m.generateLine2(mouseX);
+        } else if (model instanceof BlackholeModel && mouseMoved) {
+            ((BlackholeModel) model).setBlackholePosition(mouseX, mouseY);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Advances particles through an {@link AttractorField} by one time step.
+ *
+ * Without an integrator the models step with semi-implicit Euler (kick,
+ * then drift) at a tiny fixed DT, so accuracy can only be bought with more
+ * steps. Integrators make the scheme pluggable: {@link SymplecticIntegrator}
+ * provides Euler, leapfrog and 4th-order Yoshida, and
+ * {@link AdaptiveIntegrator} sub-cycles each particle on a power-of-two
+ * block of its own step size. Higher order pays off with a larger step:
+ * the front ends run {@code -Dgravity.stepScale=N} times fewer steps per
+ * second, each N times longer.
+ *
+ * Particles are independent in a fixed field, so {@link #advance} works on
+ * any range and runs under {@link ParallelStepper#forEach}. Forces from other sources ({@code fx}/{@code fy},
+ * e.g. self-gravity) are held constant over the step and applied as one
+ * kick of the full step: splitting them off this way keeps them first
+ * order, while the dominant attractor force gets the integrator's order.
+ *
+ * Suggested settings, which spend fewer force evaluations than the built-in
+ * step for lower {@link DriftMonitor} energy drift:
+ * <ul>
+ * <li>black hole: {@code yoshida4} with step scale 8;</li>
+ * <li>galaxy: {@code adaptive} with step scale 32. Stars near the centre
+ * get fine steps; orbital phase is less accurate than with Euler.</li>
+ * </ul>
+ * In a window each step is drawn by interpolating towards the next one, so
+ * large scales suit {@link HeadlessRunner}; on screen keep them small.
+ */
+public interface Integrator {
+
+    /**
+     * Advances particles {@code [from, to)} of {@code store} by {@code dt}.
+     *
+     * @param fx extra force per particle for the whole step, or null
+     * @return force evaluations spent on the range
+     */
+    long advance(ParticleStore store, int from, int to, AttractorField field, double dt, double[] fx, double[] fy);
+
+    String name();
+
+    /**
+     * Integrator selected by system properties, or null for the models'
+     * built-in Euler step: {@code -Dgravity.integrator=euler|leapfrog|yoshida4|adaptive}
+     * and, for adaptive, {@code -Dgravity.eta} (step as a fraction of the
+     * local dynamical time, default 0.5) and {@code -Dgravity.maxLevel}
+     * (deepest halving of the step, default 8).
+     */
+    static Integrator fromProperties() {
+        String name = System.getProperty("gravity.integrator", "default");
+        switch (name) {
+            case "default":
+                return null;
+            case "euler":
+                return SymplecticIntegrator.EULER;
+            case "leapfrog":
+                return SymplecticIntegrator.LEAPFROG;
+            case "yoshida4":
+                return SymplecticIntegrator.YOSHIDA4;
+            case "adaptive":
+                double eta = Double.parseDouble(System.getProperty("gravity.eta", "0.5"));
+                int maxLevel = Integer.getInteger("gravity.maxLevel", 8);
+                return new AdaptiveIntegrator(SymplecticIntegrator.LEAPFROG, eta, maxLevel);
+            default:
+                throw new IllegalArgumentException(
+                        "gravity.integrator must be euler, leapfrog, yoshida4 or adaptive: " + name);
+        }
+    }
+
+    /** Step length multiplier from {@code -Dgravity.stepScale} (default 1). */
+    static int stepScaleFromProperties() {
+        return Math.max(1, Integer.getInteger("gravity.stepScale", 1));
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Cached point-lens mapping for BlackholeSimulation's projected disk.
+ *
+ * A source at projected distance beta from the hole has a primary image at
+ * r+ = (beta + sqrt(beta^2 + 4 RE^2)) / 2 on the same side and a secondary
+ * image at r- = (sqrt(beta^2 + 4 RE^2) - beta) / 2 on the opposite side.
+ * Both depend only on beta and the Einstein radius RE, so they are sampled
+ * once into radial tables and linearly interpolated; the direction of the
+ * image is just (u, v) / beta, which replaces the atan2/cos/sin round trip.
+ * Interpolation error is far below a pixel (r'' &lt;= 1/(4 RE)). Sources
+ * beyond the table fall back to the exact formula.
+ *
+ * The tables are rebuilt by {@link #update} only when RE or the tilt
+ * actually changes; the secondary image is hidden by the shadow exactly
+ * when beta exceeds (RE^2 - R_SHADOW^2) / R_SHADOW, so that test needs no
+ * table at all.
+ */
+public class LensingTable {
+
+    // Smallest beta used by the projection (avoids the singularity at the centre)
+    static final double BETA_MIN = 0.1;
+    private static final double STEP = 0.25;
+    private static final double BETA_MAX = 4096;
+    private static final int SIZE = (int) (BETA_MAX / STEP) + 2;
+
+    private final double[] primary = new double[SIZE];
+    private final double[] secondary = new double[SIZE];
+
+    private double einsteinRadius = Double.NaN;
+    private double tilt = Double.NaN;
+    private double shadowRadius = Double.NaN;
+    private double sinTilt;
+    private double cosTilt;
+    private double secondaryLimit;
+
+    /** Rebuilds the tables if any parameter changed; returns whether it did. */
+    public boolean update(double re, double tilt, double shadow) {
+        if (re == einsteinRadius && tilt == this.tilt && shadow == shadowRadius)
+            return false;
+        this.tilt = tilt;
+        this.sinTilt = Math.sin(tilt);
+        this.cosTilt = Math.cos(tilt);
+        this.shadowRadius = shadow;
+        this.secondaryLimit = (re * re - shadow * shadow) / shadow;
+        if (re != einsteinRadius) {
+            einsteinRadius = re;
+            for (int i = 0; i < SIZE; i++) {
+                double beta = i * STEP;
+                primary[i] = exactPrimary(beta, re);
+                secondary[i] = exactSecondary(beta, re);
+            }
+        }
+        return true;
+    }
+
+    public double sinTilt() {
+        return sinTilt;
+    }
+
+    public double cosTilt() {
+        return cosTilt;
+    }
+
+    /** Primary image radius for a source at distance {@code beta}. */
+    public double primaryRadius(double beta) {
+        return lookup(primary, beta, true);
+    }
+
+    /** Secondary image radius for a source at distance {@code beta}. */
+    public double secondaryRadius(double beta) {
+        return lookup(secondary, beta, false);
+    }
+
+    /** Whether the secondary image lands outside the shadow. */
+    public boolean secondaryVisible(double beta) {
+        return Math.max(beta, BETA_MIN) < secondaryLimit;
+    }
+
+    private double lookup(double[] table, double beta, boolean isPrimary) {
+        if (beta < BETA_MIN)
+            beta = BETA_MIN;
+        double f = beta * (1.0 / STEP);
+        int i = (int) f;
+        if (i >= SIZE - 1)
+            return isPrimary ? exactPrimary(beta, einsteinRadius) : exactSecondary(beta, einsteinRadius);
+        double t = f - i;
+        return table[i] + (table[i + 1] - table[i]) * t;
+    }
+
+    static double exactPrimary(double beta, double re) {
+        beta = Math.max(beta, BETA_MIN);
+        return 0.5 * (beta + Math.sqrt(beta * beta + 4 * re * re));
+    }
+
+    static double exactSecondary(double beta, double re) {
+        beta = Math.max(beta, BETA_MIN);
+        return 0.5 * (Math.sqrt(beta * beta + 4 * re * re) - beta);
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Short-range particle-particle forces found through a {@link SpatialGrid}:
+ * contact collisions or SPH-style pressure, on top of a model's long-range
+ * physics.
+ *
+ * Each step rebuilds the grid and then sweeps the particles in parallel. A
+ * particle reads its neighbors' state as it was at the start of the sweep
+ * and writes only its own momentum change. Updates are applied afterwards,
+ * so the result does not depend on the worker count. Pairwise terms are
+ * antisymmetric, so total momentum is conserved.
+ *
+ * All particles share one mass, as in every model here. That is why
+ * collisions conserve momentum but do not merge particles into heavier ones:
+ * with {@code restitution = 0} colliding particles lose their approach speed
+ * and travel on together, which is as close to merging as a uniform-mass
+ * store allows.
+ */
+public class LocalInteractions {
+
+    public enum Mode {
+        /** Contact impulses between particles closer than the radius. */
+        COLLIDE,
+        /** Repulsion from each particle's kernel density above the rest density. */
+        PRESSURE
+    }
+
+    private final Mode mode;
+    private final double radius;
+    private final double restitution;
+    private final double stiffness;
+    private final double restDensity;
+    private final ParallelStepper stepper;
+    private final SpatialGrid grid;
+
+    // Per sorted slot of the grid: density, momentum at the start of the sweep, and its change
+    private double[] density = new double[0];
+    private double[] sortedMx = new double[0];
+    private double[] sortedMy = new double[0];
+    private double[] impulseX = new double[0];
+    private double[] impulseY = new double[0];
+
+    /**
+     * @param radius      contact distance (collide) or kernel radius (pressure), in pixels
+     * @param restitution 1 = elastic, 0 = colliding particles stick along the contact normal
+     * @param stiffness   pressure per unit of density above {@code restDensity}
+     * @param restDensity density below which pressure is zero; 1 is an isolated particle
+     */
+    public LocalInteractions(Mode mode, double radius, double restitution, double stiffness, double restDensity,
+            ParallelStepper stepper) {
+        this.mode = mode;
+        this.radius = radius;
+        this.restitution = restitution;
+        this.stiffness = stiffness;
+        this.restDensity = restDensity;
+        this.stepper = stepper;
+        this.grid = new SpatialGrid(0, 0, GravityModel.WIDTH, GravityModel.HEIGHT, radius, stepper);
+    }
+
+    /**
+     * Interactions selected by system properties, or null when they are off:
+     * {@code -Dgravity.interactions=off|collide|pressure},
+     * {@code -Dgravity.interactionRadius} (default 3),
+     * {@code -Dgravity.restitution} (default 1),
+     * {@code -Dgravity.pressure} (stiffness, default 20000) and
+     * {@code -Dgravity.restDensity} (default 1).
+     */
+    public static LocalInteractions fromProperties(ParallelStepper stepper) {
+        String mode = System.getProperty("gravity.interactions", "off");
+        double radius = Double.parseDouble(System.getProperty("gravity.interactionRadius", "3"));
+        double restitution = Double.parseDouble(System.getProperty("gravity.restitution", "1"));
+        double stiffness = Double.parseDouble(System.getProperty("gravity.pressure", "20000"));
+        double restDensity = Double.parseDouble(System.getProperty("gravity.restDensity", "1"));
+        switch (mode) {
+            case "off":
+                return null;
+            case "collide":
+                return new LocalInteractions(Mode.COLLIDE, radius, restitution, stiffness, restDensity, stepper);
+            case "pressure":
+                return new LocalInteractions(Mode.PRESSURE, radius, restitution, stiffness, restDensity, stepper);
+            default:
+                throw new IllegalArgumentException("gravity.interactions must be off, collide or pressure: " + mode);
+        }
+    }
+
+    public String name() {
+        return mode == Mode.COLLIDE
+                ? String.format("collide (r=%.1f, e=%.2f)", radius, restitution)
+                : String.format("pressure (h=%.1f, k=%.0f)", radius, stiffness);
+    }
+
+    public SpatialGrid grid() {
+        return grid;
+    }
+
+    /** Adds this step's short-range momentum changes to every live particle of {@code store}. */
+    public void apply(ParticleStore store, double dt) {
+        int n = store.size();
+        if (impulseX.length < n) {
+            int cap = store.capacity();
+            density = new double[cap];
+            sortedMx = new double[cap];
+            sortedMy = new double[cap];
+            impulseX = new double[cap];
+            impulseY = new double[cap];
+        }
+        grid.build(store.x, store.y, n);
+        int[] order = grid.order;
+        double[] mxs = store.momentumX, mys = store.momentumY;
+        double[] ix = impulseX, iy = impulseY;
+        if (mode == Mode.COLLIDE) {
+            double[] smx = sortedMx, smy = sortedMy;
+            stepper.forEach(n, (from, to) -> {
+                for (int k = from; k < to; k++) {
+                    smx[k] = mxs[order[k]];
+                    smy[k] = mys[order[k]];
+                }
+            });
+            stepper.forEach(grid.cellCount(), (c0, c1) -> collide(c0, c1, ix, iy));
+        } else {
+            grid.density(radius, density);
+            stepper.forEach(grid.cellCount(), (c0, c1) -> pressure(c0, c1, dt, ix, iy));
+        }
+        // Outside particles have no neighbors; every other slot was written above
+        int outside = grid.cellStart[grid.outsideCell()];
+        stepper.forEach(outside, (from, to) -> {
+            for (int k = from; k < to; k++) {
+                mxs[order[k]] += ix[k];
+                mys[order[k]] += iy[k];
+            }
+        });
+    }
+
+    // =========================================================================
+    // Sweeps (over cells [c0, c1), reading and writing sorted slots)
+    // =========================================================================
+
+    /**
+     * Equal-mass contact: for every approaching neighbor within the radius,
+     * removes {@code (1 + e) / 2} of the relative momentum along the line
+     * of centers.
+     */
+    private void collide(int c0, int c1, double[] ix, double[] iy) {
+        double[] xs = grid.sortedX, ys = grid.sortedY, mxs = sortedMx, mys = sortedMy;
+        int[] cellStart = grid.cellStart;
+        int[] runs = new int[6];
+        double rSq = radius * radius;
+        double share = (1 + restitution) * 0.5;
+        for (int c = c0; c < c1; c++) {
+            int first = cellStart[c], last = cellStart[c + 1];
+            if (first == last)
+                continue;
+            int pairs = grid.neighborRuns(c, runs);
+            for (int k = first; k < last; k++) {
+                double x = xs[k], y = ys[k], px = mxs[k], py = mys[k];
+                double sx = 0, sy = 0;
+                for (int p = 0; p < pairs; p++) {
+                    for (int j = runs[2 * p], end = runs[2 * p + 1]; j < end; j++) {
+                        double dx = xs[j] - x, dy = ys[j] - y;
+                        double dSq = dx * dx + dy * dy;
+                        if (dSq >= rSq || dSq == 0)
+                            continue; // also skips k itself
+                        double inv = 1 / Math.sqrt(dSq);
+                        double nx = dx * inv, ny = dy * inv;
+                        double approach = (px - mxs[j]) * nx + (py - mys[j]) * ny;
+                        if (approach > 0) {
+                            sx -= share * approach * nx;
+                            sy -= share * approach * ny;
+                        }
+                    }
+                }
+                ix[k] = sx;
+                iy[k] = sy;
+            }
+        }
+    }
+
+    /**
+     * Symmetric SPH pressure: each neighbor within the kernel radius pushes
+     * along the line of centers with the mean of the two pressures, weighted
+     * by {@code 1 - r / h}.
+     */
+    private void pressure(int c0, int c1, double dt, double[] ix, double[] iy) {
+        double[] xs = grid.sortedX, ys = grid.sortedY, rho = density;
+        int[] cellStart = grid.cellStart;
+        int[] runs = new int[6];
+        double hSq = radius * radius;
+        double invH = 1 / radius;
+        double scale = 0.5 * stiffness * dt;
+        for (int c = c0; c < c1; c++) {
+            int first = cellStart[c], last = cellStart[c + 1];
+            if (first == last)
+                continue;
+            int pairs = grid.neighborRuns(c, runs);
+            for (int k = first; k < last; k++) {
+                double x = xs[k], y = ys[k];
+                double pk = Math.max(0, rho[k] - restDensity);
+                double sx = 0, sy = 0;
+                for (int p = 0; p < pairs; p++) {
+                    for (int j = runs[2 * p], end = runs[2 * p + 1]; j < end; j++) {
+                        double dx = x - xs[j], dy = y - ys[j];
+                        double dSq = dx * dx + dy * dy;
+                        if (dSq >= hSq || dSq == 0)
+                            continue;
+                        double r = Math.sqrt(dSq);
+                        double pj = Math.max(0, rho[j] - restDensity);
+                        double push = scale * (pk + pj) * (1 - r * invH) / r;
+                        sx += push * dx;
+                        sy += push * dy;
+                    }
+                }
+                ix[k] = sx;
+                iy[k] = sy;
+            }
+        }
+    }
+}
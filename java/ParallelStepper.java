@@ -0,0 +1,103 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a particle range into chunks and updates them on a ForkJoinPool.
+ *
+ * {@link #forEach(int, RangeAction)} returns only once every chunk is done,
+ * which is the single per-frame barrier: the simulation thread steps the
+ * physics in parallel, then renders serially as before. Each particle is
+ * updated by exactly one worker with the same arithmetic as the serial loop,
+ * so results are bit-for-bit identical regardless of worker count.
+ *
+ * The worker count comes from the {@code gravity.workers} system property
+ * (default: all available processors); {@code -Dgravity.workers=1} runs
+ * everything inline on the calling thread.
+ */
+public class ParallelStepper {
+
+    /** Updates particles {@code [from, to)}. */
+    @FunctionalInterface
+    public interface RangeAction {
+        void apply(int from, int to);
+    }
+
+    // Below this many particles per chunk the fork/join overhead dominates
+    private static final int MIN_CHUNK = 2048;
+    // Chunks per worker, so uneven chunks (e.g. many particles at cutoff) balance out
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private static ParallelStepper shared;
+
+    private final int workers;
+    private final ForkJoinPool pool;
+
+    public ParallelStepper(int workers) {
+        this.workers = Math.max(1, workers);
+        this.pool = this.workers > 1 ? new ForkJoinPool(this.workers) : null;
+    }
+
+    /** Process-wide stepper sized from {@code -Dgravity.workers}. */
+    public static synchronized ParallelStepper shared() {
+        if (shared == null) {
+            int n = Integer.getInteger("gravity.workers", Runtime.getRuntime().availableProcessors());
+            shared = new ParallelStepper(n);
+        }
+        return shared;
+    }
+
+    public int workers() {
+        return workers;
+    }
+
+    /** Applies {@code action} to {@code [0, n)} and waits for all chunks to finish. */
+    public void forEach(int n, RangeAction action) {
+        forEach(n, MIN_CHUNK, action);
+    }
+
+    /**
+     * As {@link #forEach(int, RangeAction)} with chunks of at least
+     * {@code minChunk} items, for items much heavier than a particle update
+     * (e.g. whole grid rows).
+     */
+    public void forEach(int n, int minChunk, RangeAction action) {
+        if (n <= 0)
+            return;
+        int chunk = Math.max(Math.max(1, minChunk),
+                (n + workers * CHUNKS_PER_WORKER - 1) / (workers * CHUNKS_PER_WORKER));
+        if (pool == null || n <= chunk) {
+            action.apply(0, n);
+            return;
+        }
+        pool.invoke(new Chunk(action, 0, n, chunk));
+    }
+
+    public void shutdown() {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    private static final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeAction action;
+        private final int from, to, grain;
+
+        Chunk(RangeAction action, int from, int to, int grain) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                action.apply(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Chunk(action, from, mid, grain), new Chunk(action, mid, to, grain));
+        }
+    }
+}
@@ -7,13 +7,15 @@
 public class Particle {
 
     // Gravitational constant (matches Python G = 0.1)
-    private static final double G = 0.1;
+    static final double G = 0.1;
     // Central mass (matches Python M = 10e7)
-    private static final double M = 10e7;
+    static final double M = 10e7;
     // Time step (matches Python dt = 0.001)
-    private static final double DT = 0.001;
+    static final double DT = 0.001;
     // Particle mass (matches Python self.mass = 2)
-    private static final double MASS = 2.0;
+    static final double MASS = 2.0;
+    // Force strength G * m * M for the 1/r law (shared with ParticleKernel backends)
+    static final double K = G * MASS * M;
 
     public double x;
     public double y;
@@ -32,19 +34,19 @@ public class Particle {
      * Mirrors the move_numba function exactly.
      */
     public void move(double x2, double y2) {
-        double dx = x - x2;
-        double dy = y - y2;
-        double hyp = Math.sqrt(dx * dx + dy * dy);
+        double dx = x2 - x;
+        double dy = y2 - y;
+        double distSq = dx * dx + dy * dy;
+        double hyp = Math.sqrt(distSq);
 
         if (hyp < 1) {
             distance = hyp;
             return;
         }
 
-        double theta = Math.atan2(y2 - y, x2 - x);
-        double force = (G * MASS * M) / hyp;
-        double forceX = force * Math.cos(theta);
-        double forceY = force * Math.sin(theta);
+        double s = ForceKernel.inverseR(K, distSq);
+        double forceX = s * dx;
+        double forceY = s * dy;
 
         momentumX += forceX * DT;
         momentumY += forceY * DT;
@@ -52,4 +54,38 @@ public class Particle {
         y += momentumY / MASS * DT;
         distance = hyp;
     }
+
+    /**
+     * Same update as {@link #move(double, double)}, applied to particles
+     * {@code [from, to)} of a {@link ParticleStore}.
+     */
+    public static void move(ParticleStore store, int from, int to, double x2, double y2) {
+        double[] xs = store.x, ys = store.y, mxs = store.momentumX, mys = store.momentumY,
+                dist = store.distance;
+        for (int i = from; i < to; i++) {
+            double x = xs[i];
+            double y = ys[i];
+            double dx = x2 - x;
+            double dy = y2 - y;
+            double distSq = dx * dx + dy * dy;
+            double hyp = Math.sqrt(distSq);
+
+            if (hyp < 1) {
+                dist[i] = hyp;
+                continue;
+            }
+
+            double s = ForceKernel.inverseR(K, distSq);
+            double forceX = s * dx;
+            double forceY = s * dy;
+
+            double mx = mxs[i] + forceX * DT;
+            double my = mys[i] + forceY * DT;
+            mxs[i] = mx;
+            mys[i] = my;
+            xs[i] = x + mx / MASS * DT;
+            ys[i] = y + my / MASS * DT;
+            dist[i] = hyp;
+        }
+    }
 }
@@ -0,0 +1,39 @@
+/**
+ * Backend that applies {@link Particle#move(ParticleStore, int, int, double, double)}
+ * to a range of a {@link ParticleStore}.
+ *
+ * The scalar backend is always available. {@link #load()} additionally tries
+ * the SIMD backend in {@code vector/VectorParticleKernel.java}, which needs
+ * the incubating Vector API and is therefore compiled and run separately:
+ *
+ * <pre>
+ *   javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorParticleKernel.java
+ *   java  --add-modules jdk.incubator.vector GravitySimulation
+ * </pre>
+ *
+ * When the class or the module is missing the scalar backend is used.
+ * {@code -Dgravity.kernel=scalar} forces the scalar path.
+ */
+@FunctionalInterface
+public interface ParticleKernel {
+
+    ParticleKernel SCALAR = Particle::move;
+
+    void move(ParticleStore store, int from, int to, double x2, double y2);
+
+    default String name() {
+        return "scalar";
+    }
+
+    /** Returns the fastest backend available in this JVM. */
+    static ParticleKernel load() {
+        if ("scalar".equals(System.getProperty("gravity.kernel")))
+            return SCALAR;
+        try {
+            return (ParticleKernel) Class.forName("VectorParticleKernel")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Particle-mesh (PM) solver for {@link SelfGravity}: the particles' mass is
+ * spread over a grid, the potential is solved on the grid with FFTs, and
+ * the forces are read back at each particle.
+ *
+ * Every step runs five phases, each in parallel on the
+ * {@link ParallelStepper}:
+ *
+ * <ol>
+ *   <li><b>Bounds</b>: the grid of {@code mesh x mesh} cells is fitted to the
+ *       square around all finite particles.</li>
+ *   <li><b>Deposit</b>: each particle's mass goes to its four nearest grid
+ *       points with cloud-in-cell (bilinear) weights. Particles are
+ *       counting-sorted by grid row first, so every row is filled by one
+ *       worker from the particles in it and in the row above. No two workers
+ *       write the same point, and the sums come out in the same order for
+ *       any worker count.</li>
+ *   <li><b>Solve</b>: the density is convolved with the 2D Green's function
+ *       {@code ln r}, softened by one cell, by multiplying their 2D FFTs. The
+ *       grid is padded to twice its size with zeros, so the convolution is
+ *       isolated rather than periodic (Hockney and Eastwood). Rows are
+ *       transformed first. Each column is then transformed, multiplied and
+ *       transformed back in one go. Only the rows of the padding that the
+ *       next phase reads are transformed back.</li>
+ *   <li><b>Gradient</b>: central differences of the potential at every grid
+ *       point.</li>
+ *   <li><b>Interpolate</b>: each particle reads the gradient at its four grid
+ *       points with the same weights it deposited with.</li>
+ * </ol>
+ *
+ * This gives the same {@code |F| = g * m_i * m_j / r} law as the other
+ * solvers, smoothed over about a cell. The FFT work is
+ * O(mesh^2 log mesh) per step however many particles there are. Deposit
+ * and interpolation add a few operations per particle, so a mesh of 256
+ * handles millions of particles at a cost set mostly by the mesh. Structure
+ * finer than a cell or two is lost: the grid spans the whole population,
+ * so one far-flung particle coarsens the cells for everyone else. Use
+ * {@link BarnesHutTree} where close encounters matter.
+ */
+public class ParticleMesh implements SelfGravity {
+
+    // Rows (or columns) per task in the grid phases; each one is already thousands of operations
+    private static final int ROWS_PER_CHUNK = 4;
+    // Particles per block of the parallel counting sort; fixed, so the sort is the same for any worker count
+    private static final int SORT_BLOCK = 1 << 16;
+    // Columns solved together, a cache line of doubles
+    private static final int COLUMN_BLOCK = 8;
+    // Softening of the Green's function, in cells
+    private static final double SOFTENING_CELLS = 1.0;
+
+    private final double g;
+    private final int mesh;
+    private final int padded;
+    private final ParallelStepper stepper;
+    private final Fft fft;
+
+    // ---------- Grids ---------------------------------------------------------
+    // Padded complex grid, row-major: density in, potential out
+    private final double[] re;
+    private final double[] im;
+    // Transform of the Green's function, real by symmetry, pre-divided by padded^2; column-major
+    private final double[] greenHat;
+    // Potential gradient at the mesh x mesh grid points, in cells
+    private final double[] gradX;
+    private final double[] gradY;
+
+    // ---------- Particles by grid row -------------------------------------------
+    // Grid row of each particle (-1 if not finite), and the grid coordinates sorted by row
+    private int[] rowOf = new int[0];
+    private double[] sortedU = new double[0];
+    private double[] sortedV = new double[0];
+    private final int[] rowStart;
+    // Per block of SORT_BLOCK particles: its count, then its next slot, in each row
+    private int[] blockSlots = new int[0];
+
+    // Grid placement of the last step, and the mass of each particle in it
+    private double left, top, cell;
+    private double particleMass;
+
+    /**
+     * @param mesh grid points along each side, a power of two of at least 4
+     */
+    public ParticleMesh(double g, int mesh, ParallelStepper stepper) {
+        if (mesh < 4 || Integer.bitCount(mesh) != 1)
+            throw new IllegalArgumentException("mesh must be a power of two of at least 4: " + mesh);
+        this.g = g;
+        this.mesh = mesh;
+        this.padded = 2 * mesh;
+        this.stepper = stepper;
+        this.fft = new Fft(padded);
+        re = new double[padded * padded];
+        im = new double[padded * padded];
+        greenHat = new double[padded * padded];
+        gradX = new double[mesh * mesh];
+        gradY = new double[mesh * mesh];
+        rowStart = new int[mesh + 1];
+        transformGreen();
+    }
+
+    @Override
+    public double coupling() {
+        return g;
+    }
+
+    @Override
+    public String name() {
+        return "particle-mesh(" + mesh + "x" + mesh + ")";
+    }
+
+    public int mesh() {
+        return mesh;
+    }
+
+    /** Width of a grid cell in the last step. */
+    public double cellSize() {
+        return cell;
+    }
+
+    @Override
+    public void computeForces(ParticleStore store, double particleMass, double[] fx, double[] fy) {
+        int n = store.size();
+        // Nothing deposited until the sort says otherwise
+        rowStart[mesh] = 0;
+        if (n == 0)
+            return;
+        this.particleMass = particleMass;
+        fitGrid(store.x, store.y, n);
+        sortByRow(store.x, store.y, n);
+        depositAndTransformRows();
+        solveColumns();
+        transformRowsBack();
+        gradient();
+        interpolate(store.x, store.y, n, g * particleMass * particleMass / cell, fx, fy);
+    }
+
+    /**
+     * Reads the gradient of the last step at ({@code x}, {@code y}) like a
+     * particle would. Off the grid, which only spans the particles, all of
+     * them are taken as one mass at their centre.
+     */
+    @Override
+    public void accelerationAt(double x, double y, double[] out) {
+        out[0] = out[1] = 0;
+        int deposited = rowStart[mesh];
+        if (deposited == 0)
+            return;
+        double u = (x - left) / cell, v = (y - top) / cell;
+        if (u >= 0 && v >= 0 && u < mesh - 1 && v < mesh - 1) {
+            int c = (int) u, r = (int) v;
+            double wx = u - c, wy = v - r;
+            int a = r * mesh + c, b = a + mesh;
+            double w00 = (1 - wx) * (1 - wy), w01 = wx * (1 - wy);
+            double w10 = (1 - wx) * wy, w11 = wx * wy;
+            double k = g * particleMass / cell;
+            out[0] = -k * (w00 * gradX[a] + w01 * gradX[a + 1] + w10 * gradX[b] + w11 * gradX[b + 1]);
+            out[1] = -k * (w00 * gradY[a] + w01 * gradY[a + 1] + w10 * gradY[b] + w11 * gradY[b + 1]);
+            return;
+        }
+        double sumU = 0, sumV = 0;
+        for (int i = 0; i < deposited; i++) {
+            sumU += sortedU[i];
+            sumV += sortedV[i];
+        }
+        double dx = left + sumU / deposited * cell - x, dy = top + sumV / deposited * cell - y;
+        double s = ForceKernel.inverseR(g * particleMass * deposited, dx * dx + dy * dy);
+        out[0] = s * dx;
+        out[1] = s * dy;
+    }
+
+    // =========================================================================
+    // Green's function
+    // =========================================================================
+
+    /** Fills {@link #greenHat} with the transform of {@code ln r} on the padded, wrapped grid. */
+    private void transformGreen() {
+        double epsSq = SOFTENING_CELLS * SOFTENING_CELLS;
+        double scale = 1.0 / ((double) padded * padded);
+        stepper.forEach(padded, ROWS_PER_CHUNK, (from, to) -> {
+            for (int r = from; r < to; r++) {
+                int dy = Math.min(r, padded - r);
+                int row = r * padded;
+                for (int c = 0; c < padded; c++) {
+                    int dx = Math.min(c, padded - c);
+                    re[row + c] = 0.5 * Math.log(dx * dx + dy * dy + epsSq);
+                    im[row + c] = 0;
+                }
+                fft.transform(re, im, row, false);
+            }
+        });
+        stepper.forEach(padded, ROWS_PER_CHUNK, (from, to) -> {
+            double[] colRe = new double[padded], colIm = new double[padded];
+            for (int c = from; c < to; c++) {
+                for (int r = 0; r < padded; r++) {
+                    colRe[r] = re[r * padded + c];
+                    colIm[r] = im[r * padded + c];
+                }
+                fft.transform(colRe, colIm, 0, false);
+                // The kernel is even in both axes, so its transform is real
+                for (int r = 0; r < padded; r++)
+                    greenHat[c * padded + r] = colRe[r] * scale;
+            }
+        });
+    }
+
+    // =========================================================================
+    // Phases
+    // =========================================================================
+
+    /** Places the grid over the square around all finite particles, one cell spare on the far sides. */
+    private void fitGrid(double[] xs, double[] ys, int n) {
+        double[] bounds = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        stepper.forEach(n, (from, to) -> {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double x = xs[i], y = ys[i];
+                if (!Double.isFinite(x) || !Double.isFinite(y))
+                    continue;
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+            }
+            synchronized (bounds) {
+                bounds[0] = Math.min(bounds[0], minX);
+                bounds[1] = Math.min(bounds[1], minY);
+                bounds[2] = Math.max(bounds[2], maxX);
+                bounds[3] = Math.max(bounds[3], maxY);
+            }
+        });
+        left = bounds[0];
+        top = bounds[1];
+        double size = Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]);
+        // Positions map to [0, mesh - 2], so the +1 neighbour of every particle is on the grid
+        cell = size > 0 ? size * (1 + 1e-12) / (mesh - 2) : 1;
+    }
+
+    /**
+     * Counting sort of the particles by the grid row they deposit into first;
+     * non-finite ones are left out. Fixed blocks of particles are counted and
+     * scattered in parallel, each into its own slots of every row, so the
+     * order within a row is the particle order whatever the worker count.
+     */
+    private void sortByRow(double[] xs, double[] ys, int n) {
+        if (rowOf.length < n) {
+            rowOf = new int[Math.max(n, rowOf.length * 2)];
+            sortedU = new double[rowOf.length];
+            sortedV = new double[rowOf.length];
+        }
+        int blocks = (n + SORT_BLOCK - 1) / SORT_BLOCK;
+        if (blockSlots.length < blocks * mesh)
+            blockSlots = new int[blocks * mesh];
+        int[] slots = blockSlots;
+        double inv = 1 / cell;
+        stepper.forEach(blocks, 1, (from, to) -> {
+            for (int b = from; b < to; b++) {
+                Arrays.fill(slots, b * mesh, (b + 1) * mesh, 0);
+                for (int i = b * SORT_BLOCK, end = Math.min(n, i + SORT_BLOCK); i < end; i++) {
+                    double x = xs[i], y = ys[i];
+                    int r = Double.isFinite(x) && Double.isFinite(y) ? (int) ((y - top) * inv) : -1;
+                    rowOf[i] = r;
+                    if (r >= 0)
+                        slots[b * mesh + r]++;
+                }
+            }
+        });
+
+        // Counts become each block's first slot in each row
+        int next = 0;
+        for (int r = 0; r < mesh; r++) {
+            rowStart[r] = next;
+            for (int b = 0; b < blocks; b++) {
+                int count = slots[b * mesh + r];
+                slots[b * mesh + r] = next;
+                next += count;
+            }
+        }
+        rowStart[mesh] = next;
+
+        // Copying the coordinates rather than indices lets the deposit read them in order
+        stepper.forEach(blocks, 1, (from, to) -> {
+            for (int b = from; b < to; b++) {
+                for (int i = b * SORT_BLOCK, end = Math.min(n, i + SORT_BLOCK); i < end; i++) {
+                    int r = rowOf[i];
+                    if (r >= 0) {
+                        int k = slots[b * mesh + r]++;
+                        sortedU[k] = (xs[i] - left) * inv;
+                        sortedV[k] = (ys[i] - top) * inv;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Clears the padded grid, deposits the particles into rows {@code [0, mesh)}
+     * and transforms those rows; the padding rows stay zero.
+     */
+    private void depositAndTransformRows() {
+        stepper.forEach(padded, ROWS_PER_CHUNK, (from, to) -> {
+            for (int r = from; r < to; r++) {
+                int row = r * padded;
+                Arrays.fill(re, row, row + padded, 0);
+                Arrays.fill(im, row, row + padded, 0);
+                if (r >= mesh)
+                    continue;
+                // Particles in row r give it their upper weights, those in row r - 1 their lower ones
+                for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+                    double u = sortedU[k];
+                    int c = (int) u;
+                    double wx = u - c, wy = 1 - (sortedV[k] - r);
+                    re[row + c] += (1 - wx) * wy;
+                    re[row + c + 1] += wx * wy;
+                }
+                if (r > 0) {
+                    for (int k = rowStart[r - 1]; k < rowStart[r]; k++) {
+                        double u = sortedU[k];
+                        int c = (int) u;
+                        double wx = u - c, wy = sortedV[k] - (r - 1);
+                        re[row + c] += (1 - wx) * wy;
+                        re[row + c + 1] += wx * wy;
+                    }
+                }
+                fft.transform(re, im, row, false);
+            }
+        });
+    }
+
+    /**
+     * Transforms each column, multiplies it by the Green's function and
+     * transforms it back. Columns are copied out {@value #COLUMN_BLOCK} at a
+     * time, so every row is read a whole cache line at once.
+     */
+    private void solveColumns() {
+        stepper.forEach(padded / COLUMN_BLOCK, 1, (from, to) -> {
+            double[] colRe = new double[COLUMN_BLOCK * padded], colIm = new double[COLUMN_BLOCK * padded];
+            for (int block = from; block < to; block++) {
+                int c0 = block * COLUMN_BLOCK;
+                for (int r = 0; r < padded; r++) {
+                    int at = r * padded + c0;
+                    for (int j = 0; j < COLUMN_BLOCK; j++) {
+                        colRe[j * padded + r] = re[at + j];
+                        colIm[j * padded + r] = im[at + j];
+                    }
+                }
+                for (int j = 0; j < COLUMN_BLOCK; j++) {
+                    int col = j * padded, green = (c0 + j) * padded;
+                    fft.transform(colRe, colIm, col, false);
+                    for (int r = 0; r < padded; r++) {
+                        colRe[col + r] *= greenHat[green + r];
+                        colIm[col + r] *= greenHat[green + r];
+                    }
+                    fft.transform(colRe, colIm, col, true);
+                }
+                for (int r = 0; r < padded; r++) {
+                    int at = r * padded + c0;
+                    for (int j = 0; j < COLUMN_BLOCK; j++) {
+                        re[at + j] = colRe[j * padded + r];
+                        im[at + j] = colIm[j * padded + r];
+                    }
+                }
+            }
+        });
+    }
+
+    /** Inverse-transforms rows {@code [0, mesh]} and the last row, which stands for row -1. */
+    private void transformRowsBack() {
+        stepper.forEach(mesh + 2, ROWS_PER_CHUNK, (from, to) -> {
+            for (int k = from; k < to; k++) {
+                int r = k <= mesh ? k : padded - 1;
+                fft.transform(re, im, r * padded, true);
+            }
+        });
+    }
+
+    /** Central differences of the potential over the mesh, wrapping into the padding at the edges. */
+    private void gradient() {
+        stepper.forEach(mesh, ROWS_PER_CHUNK, (from, to) -> {
+            for (int r = from; r < to; r++) {
+                int row = r * padded;
+                int up = (r == 0 ? padded - 1 : r - 1) * padded, down = (r + 1) * padded;
+                for (int c = 0; c < mesh; c++) {
+                    int west = c == 0 ? padded - 1 : c - 1;
+                    gradX[r * mesh + c] = 0.5 * (re[row + c + 1] - re[row + west]);
+                    gradY[r * mesh + c] = 0.5 * (re[down + c] - re[up + c]);
+                }
+            }
+        });
+    }
+
+    /** Writes {@code -k * gradient} at each particle; non-finite particles get no force. */
+    private void interpolate(double[] xs, double[] ys, int n, double k, double[] fx, double[] fy) {
+        double inv = 1 / cell;
+        stepper.forEach(n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int r = rowOf[i];
+                if (r < 0) {
+                    fx[i] = 0;
+                    fy[i] = 0;
+                    continue;
+                }
+                double u = (xs[i] - left) * inv, v = (ys[i] - top) * inv;
+                int c = (int) u;
+                double wx = u - c, wy = v - r;
+                int a = r * mesh + c, b = a + mesh;
+                double w00 = (1 - wx) * (1 - wy), w01 = wx * (1 - wy);
+                double w10 = (1 - wx) * wy, w11 = wx * wy;
+                fx[i] = -k * (w00 * gradX[a] + w01 * gradX[a + 1] + w10 * gradX[b] + w11 * gradX[b + 1]);
+                fy[i] = -k * (w00 * gradY[a] + w01 * gradY[a + 1] + w10 * gradY[b] + w11 * gradY[b + 1]);
+            }
+        });
+    }
+
+    // =========================================================================
+    // Self-check
+    // =========================================================================
+
+    // RMS force error allowed against direct summation on the check's disk
+    private static final double CHECK_TOLERANCE = 0.05;
+
+    /**
+     * Checks the solver on a uniform disk of particles: the RMS force error
+     * against {@link DirectSummation} must stay under 5%, and the forces must
+     * be bit-identical with 1 and 4 workers. Exits with status 1 otherwise.
+     *
+     * <pre>
+     *   java ParticleMesh [particles (4000)] [mesh (256)]
+     * </pre>
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int mesh = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        double g = 0.1, mass = Particle.MASS;
+
+        ParticleStore store = new ParticleStore(n);
+        store.append(n);
+        SplittableRandom rng = new SplittableRandom(1);
+        for (int i = 0; i < n; i++) {
+            double a = rng.nextDouble(2 * Math.PI), r = 300 * Math.sqrt(rng.nextDouble());
+            store.x[i] = 750 + r * Math.cos(a);
+            store.y[i] = 400 + r * Math.sin(a);
+        }
+
+        ParallelStepper one = new ParallelStepper(1), four = new ParallelStepper(4);
+        try {
+            ParticleMesh pm = new ParticleMesh(g, mesh, one);
+            double[] fx1 = new double[n], fy1 = new double[n], fx4 = new double[n], fy4 = new double[n];
+            pm.computeForces(store, mass, fx1, fy1);
+            // The mesh smooths over about a cell, so the reference is softened by one
+            double error = new DirectSummation(g, pm.cellSize(), one).relativeError(pm, store, mass);
+
+            new ParticleMesh(g, mesh, four).computeForces(store, mass, fx4, fy4);
+            boolean identical = Arrays.equals(fx1, fx4) && Arrays.equals(fy1, fy4);
+
+            System.out.printf("%s, %,d particles on a disk%n", pm.name(), n);
+            System.out.printf("force error vs direct : %.3e (RMS relative, limit %.2f)%n", error, CHECK_TOLERANCE);
+            System.out.println("1 vs 4 workers        : " + (identical ? "identical" : "DIFFERENT"));
+            if (!(error <= CHECK_TOLERANCE) || !identical) {
+                System.err.println("FAIL");
+                System.exit(1);
+            }
+            System.out.println("ok");
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+}
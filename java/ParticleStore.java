@@ -0,0 +1,234 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Structure-of-arrays particle storage.
+ *
+ * Holds particle state in parallel primitive arrays instead of one heap object
+ * per particle, so the update loop walks contiguous memory and spawning does
+ * not allocate once capacity has been reserved. Index {@code i} in every array
+ * describes the same particle; only the first {@link #size()} slots are live.
+ */
+public class ParticleStore {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // Default starting momentum (matches Python momentum_x/y = 500)
+    public static final double DEFAULT_MOMENTUM = 500;
+
+    public double[] x;
+    public double[] y;
+    public double[] momentumX;
+    public double[] momentumY;
+    public double[] distance;
+    // Optional packed RGB per particle; null until enableColor()
+    public int[] color;
+    // Optional per-particle state bits (e.g. consumed); null until enableFlags()
+    public byte[] flags;
+    // Optional positions before the last step, for render interpolation;
+    // null until enablePrevious(). Only the first previousSize() are valid.
+    public double[] prevX;
+    public double[] prevY;
+    // Optional step at which each particle was spawned; null until enableBirth()
+    public long[] birth;
+
+    private int size = 0;
+    private int prevSize = 0;
+
+    public ParticleStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ParticleStore(int initialCapacity) {
+        int cap = Math.max(1, initialCapacity);
+        x = new double[cap];
+        y = new double[cap];
+        momentumX = new double[cap];
+        momentumY = new double[cap];
+        distance = new double[cap];
+    }
+
+    /** Allocates the optional color column (GalaxySimulation star colors). */
+    public ParticleStore enableColor() {
+        if (color == null)
+            color = new int[x.length];
+        return this;
+    }
+
+    /** Allocates the optional flags column, cleared to 0 for every new particle. */
+    public ParticleStore enableFlags() {
+        if (flags == null)
+            flags = new byte[x.length];
+        return this;
+    }
+
+    /** Allocates the previous-position columns used by {@link #savePrevious()}. */
+    public ParticleStore enablePrevious() {
+        if (prevX == null) {
+            prevX = new double[x.length];
+            prevY = new double[x.length];
+        }
+        return this;
+    }
+
+    /** Allocates the birth-step column used for lifetimes (see {@link WorldPolicy}). */
+    public ParticleStore enableBirth() {
+        if (birth == null)
+            birth = new long[x.length];
+        return this;
+    }
+
+    /** Remembers the current positions of all live particles. */
+    public void savePrevious() {
+        enablePrevious();
+        System.arraycopy(x, 0, prevX, 0, size);
+        System.arraycopy(y, 0, prevY, 0, size);
+        prevSize = size;
+    }
+
+    /**
+     * Number of particles with a saved previous position; particles appended
+     * since the last {@link #savePrevious()} have none and render as-is.
+     */
+    public int previousSize() {
+        return prevX == null ? 0 : prevSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return x.length;
+    }
+
+    /** Grows the backing arrays (by at least 1.5x) so that {@code minCapacity} slots fit. */
+    public void ensureCapacity(int minCapacity) {
+        int cap = x.length;
+        if (minCapacity <= cap)
+            return;
+        int newCap = Math.max(minCapacity, cap + (cap >> 1));
+        x = Arrays.copyOf(x, newCap);
+        y = Arrays.copyOf(y, newCap);
+        momentumX = Arrays.copyOf(momentumX, newCap);
+        momentumY = Arrays.copyOf(momentumY, newCap);
+        distance = Arrays.copyOf(distance, newCap);
+        if (color != null)
+            color = Arrays.copyOf(color, newCap);
+        if (flags != null)
+            flags = Arrays.copyOf(flags, newCap);
+        if (prevX != null) {
+            prevX = Arrays.copyOf(prevX, newCap);
+            prevY = Arrays.copyOf(prevY, newCap);
+        }
+        if (birth != null)
+            birth = Arrays.copyOf(birth, newCap);
+    }
+
+    /** Appends a particle at rest-state momentum and returns its index. */
+    public int add(double px, double py) {
+        return add(px, py, DEFAULT_MOMENTUM, DEFAULT_MOMENTUM);
+    }
+
+    /** Appends a particle with an explicit momentum and returns its index. */
+    public int add(double px, double py, double mx, double my) {
+        ensureCapacity(size + 1);
+        int i = size++;
+        x[i] = px;
+        y[i] = py;
+        momentumX[i] = mx;
+        momentumY[i] = my;
+        distance[i] = 0;
+        if (flags != null)
+            flags[i] = 0;
+        return i;
+    }
+
+    /**
+     * Reserves {@code count} new slots at the end of the store, initialised
+     * with the default momentum, and returns the index of the first one.
+     * Callers fill {@code x}/{@code y} (and optionally momentum) directly.
+     */
+    public int append(int count) {
+        ensureCapacity(size + count);
+        int start = size;
+        int end = start + count;
+        Arrays.fill(momentumX, start, end, DEFAULT_MOMENTUM);
+        Arrays.fill(momentumY, start, end, DEFAULT_MOMENTUM);
+        Arrays.fill(distance, start, end, 0);
+        if (flags != null)
+            Arrays.fill(flags, start, end, (byte) 0);
+        size = end;
+        return start;
+    }
+
+    /** Bulk-appends {@code count} positions from the given arrays. */
+    public void addAll(double[] xs, double[] ys, int count) {
+        int start = append(count);
+        System.arraycopy(xs, 0, x, start, count);
+        System.arraycopy(ys, 0, y, start, count);
+    }
+
+    /**
+     * Removes every particle for which {@code remove} tests true and returns
+     * how many went. Survivors keep their relative order, so particles
+     * appended earlier stay in front. Every enabled column moves, and saved
+     * previous positions stay valid for the survivors that had them.
+     * {@code remove} is called once per particle, in index order.
+     */
+    public int compact(IntPredicate remove) {
+        int n = size;
+        int w = 0;
+        int keptPrev = 0;
+        for (int r = 0; r < n; r++) {
+            if (remove.test(r))
+                continue;
+            if (w != r)
+                moveSlot(r, w);
+            if (r < prevSize)
+                keptPrev++;
+            w++;
+        }
+        size = w;
+        prevSize = keptPrev;
+        return n - w;
+    }
+
+    private void moveSlot(int from, int to) {
+        x[to] = x[from];
+        y[to] = y[from];
+        momentumX[to] = momentumX[from];
+        momentumY[to] = momentumY[from];
+        distance[to] = distance[from];
+        if (color != null)
+            color[to] = color[from];
+        if (flags != null)
+            flags[to] = flags[from];
+        if (prevX != null) {
+            prevX[to] = prevX[from];
+            prevY[to] = prevY[from];
+        }
+        if (birth != null)
+            birth[to] = birth[from];
+    }
+
+    public void clear() {
+        size = 0;
+        prevSize = 0;
+    }
+
+    /**
+     * Hash of the live particles' positions and momenta, bit for bit: two
+     * runs that agree on it ended in the same state.
+     */
+    public long checksum() {
+        long h = size;
+        for (int i = 0; i < size; i++) {
+            h = h * 31 + Double.doubleToLongBits(x[i]);
+            h = h * 31 + Double.doubleToLongBits(y[i]);
+            h = h * 31 + Double.doubleToLongBits(momentumX[i]);
+            h = h * 31 + Double.doubleToLongBits(momentumY[i]);
+        }
+        return h;
+    }
+}
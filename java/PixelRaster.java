@@ -0,0 +1,164 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Plots particles straight into the int[] pixel array behind a
+ * {@code TYPE_INT_RGB} BufferedImage.
+ *
+ * A Graphics2D fillRect per particle goes through the whole Java2D pipeline
+ * (clip, composite, loop lookup) for one or four pixels. Writing packed RGB
+ * ints directly costs a bounds check and a store, so particle rendering is
+ * limited by memory bandwidth instead. Graphics2D is still the right tool
+ * for shapes and text and can be mixed freely with this class on the same
+ * image, since both draw into the same array.
+ *
+ * Colors are packed 0xRRGGBB ints (see {@link #rgb(int, int, int)}); alpha
+ * is passed separately as 0-255.
+ */
+public class PixelRaster {
+
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+
+    public PixelRaster(BufferedImage image) {
+        // Pixels are stored as 0x00RRGGBB, which an image with alpha would show as transparent
+        if (image.getType() != BufferedImage.TYPE_INT_RGB)
+            throw new IllegalArgumentException("PixelRaster needs a TYPE_INT_RGB image");
+        this.image = image;
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+    }
+
+    public static int rgb(int r, int g, int b) {
+        return (r << 16) | (g << 8) | b;
+    }
+
+    public BufferedImage image() {
+        return image;
+    }
+
+    public int[] pixels() {
+        return pixels;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    // =========================================================================
+    // Whole-frame operations
+    // =========================================================================
+
+    public void fill(int rgb) {
+        Arrays.fill(pixels, rgb);
+    }
+
+    /**
+     * Blends {@code rgb} over the whole frame at {@code alpha} (0-255); the
+     * same as a SRC_OVER fillRect with a translucent color, used for trails.
+     */
+    public void fade(int rgb, int alpha) {
+        int a = alpha + (alpha >> 7); // 0-255 -> 0-256
+        int tr = (rgb >> 16) & 0xFF, tg = (rgb >> 8) & 0xFF, tb = rgb & 0xFF;
+        int[] px = pixels;
+        for (int i = 0; i < px.length; i++) {
+            int c = px[i];
+            int r = (c >> 16) & 0xFF, g = (c >> 8) & 0xFF, b = c & 0xFF;
+            r += ((tr - r) * a) >> 8;
+            g += ((tg - g) * a) >> 8;
+            b += ((tb - b) * a) >> 8;
+            px[i] = (r << 16) | (g << 8) | b;
+        }
+    }
+
+    // =========================================================================
+    // Splats
+    // =========================================================================
+
+    /** Single opaque pixel; off-screen coordinates are ignored. */
+    public void plot(int x, int y, int rgb) {
+        if (x >= 0 && x < width && y >= 0 && y < height)
+            pixels[y * width + x] = rgb;
+    }
+
+    /** Opaque 2x2 splat with its top-left corner at (x, y). */
+    public void plot2x2(int x, int y, int rgb) {
+        if (x >= 0 && x < width - 1 && y >= 0 && y < height - 1) {
+            int i = y * width + x;
+            pixels[i] = rgb;
+            pixels[i + 1] = rgb;
+            pixels[i + width] = rgb;
+            pixels[i + width + 1] = rgb;
+        } else {
+            fillRect(x, y, 2, 2, rgb);
+        }
+    }
+
+    /** Opaque clipped rectangle. */
+    public void fillRect(int x, int y, int w, int h, int rgb) {
+        int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+        int x1 = Math.min(x + w, width), y1 = Math.min(y + h, height);
+        for (int yy = y0; yy < y1; yy++) {
+            int row = yy * width;
+            for (int xx = x0; xx < x1; xx++)
+                pixels[row + xx] = rgb;
+        }
+    }
+
+    /** Opaque clipped disc, for shapes drawn without Java2D (headless frames). */
+    public void fillCircle(int cx, int cy, int r, int rgb) {
+        int y0 = Math.max(cy - r, 0), y1 = Math.min(cy + r, height - 1);
+        for (int yy = y0; yy <= y1; yy++) {
+            int dy = yy - cy;
+            int half = (int) Math.sqrt((double) r * r - dy * dy);
+            int x0 = Math.max(cx - half, 0), x1 = Math.min(cx + half, width - 1);
+            int row = yy * width;
+            for (int xx = x0; xx <= x1; xx++)
+                pixels[row + xx] = rgb;
+        }
+    }
+
+    /** Translucent clipped rectangle, SRC_OVER with {@code alpha} 0-255. */
+    public void blendRect(int x, int y, int w, int h, int rgb, int alpha) {
+        int a = alpha + (alpha >> 7);
+        int sr = (rgb >> 16) & 0xFF, sg = (rgb >> 8) & 0xFF, sb = rgb & 0xFF;
+        int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+        int x1 = Math.min(x + w, width), y1 = Math.min(y + h, height);
+        for (int yy = y0; yy < y1; yy++) {
+            int row = yy * width;
+            for (int xx = x0; xx < x1; xx++) {
+                int c = pixels[row + xx];
+                int r = (c >> 16) & 0xFF, g = (c >> 8) & 0xFF, b = c & 0xFF;
+                r += ((sr - r) * a) >> 8;
+                g += ((sg - g) * a) >> 8;
+                b += ((sb - b) * a) >> 8;
+                pixels[row + xx] = (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /** Additive clipped rectangle with per-channel saturation, for glowing splats. */
+    public void addRect(int x, int y, int w, int h, int rgb) {
+        int sr = (rgb >> 16) & 0xFF, sg = (rgb >> 8) & 0xFF, sb = rgb & 0xFF;
+        int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+        int x1 = Math.min(x + w, width), y1 = Math.min(y + h, height);
+        for (int yy = y0; yy < y1; yy++) {
+            int row = yy * width;
+            for (int xx = x0; xx < x1; xx++) {
+                int c = pixels[row + xx];
+                int r = Math.min(255, ((c >> 16) & 0xFF) + sr);
+                int g = Math.min(255, ((c >> 8) & 0xFF) + sg);
+                int b = Math.min(255, (c & 0xFF) + sb);
+                pixels[row + xx] = (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps a front end near its frame budget by trading quality for speed.
+ *
+ * The loop passes in the work time of every drawn frame (frame time minus
+ * sleep, from {@link FrameMetrics}). The governor smooths it and moves one
+ * rung at a time along a ladder of ever cheaper settings, in this order:
+ * <ol>
+ * <li>fewer physics sub-steps per frame, halving down to one; simulated
+ * time then runs slower than real time,</li>
+ * <li>black hole secondary images and glow halos off,</li>
+ * <li>drawing every 2nd, 4th, then 8th particle,</li>
+ * <li>no further spawning beyond the population at that point.</li>
+ * </ol>
+ * Rungs that do not apply to a front end are left out. A step down happens
+ * once the smoothed work stays above 90% of the budget. A step back up
+ * needs a longer stretch below 55%. If the step up overloads the frame
+ * again within a few seconds, that rung's wait doubles, so a load sitting
+ * on a boundary settles instead of flickering.
+ *
+ * Every setting and the last decision are exposed for the HUD.
+ * {@code -Dgravity.governor=false} turns the governor off.
+ */
+public class QualityGovernor {
+
+    /** Quality settings at one rung of the ladder. */
+    public static final class Level {
+        public final int subSteps;
+        public final boolean halos;
+        public final int renderStride;
+        public final boolean capSpawns;
+        final String change; // what this rung gives up compared with the one above
+
+        Level(int subSteps, boolean halos, int renderStride, boolean capSpawns, String change) {
+            this.subSteps = subSteps;
+            this.halos = halos;
+            this.renderStride = renderStride;
+            this.capSpawns = capSpawns;
+            this.change = change;
+        }
+    }
+
+    // Smoothing factor for the per-frame work time
+    private static final double SMOOTHING = 0.1;
+    // Thresholds as fractions of the budget
+    private static final double DEGRADE_ABOVE = 0.9;
+    private static final double RESTORE_BELOW = 0.55;
+    // Frames to wait after a change before stepping down / up again
+    private static final int DEGRADE_HOLD = 15;
+    private static final int RESTORE_HOLD = 100;
+    private static final int MAX_RESTORE_HOLD = 3200;
+    // A step down this soon after stepping up counts as a bounce
+    private static final long BOUNCE_NS = 3_000_000_000L;
+
+    private final List<Level> ladder;
+    private final long budgetNs;
+    private final boolean enabled;
+    // Frames below the restore threshold needed to leave each rung upwards
+    private final int[] restoreHold;
+
+    private int level = 0;
+    private double smoothedNs = -1;
+    private int framesSinceChange = 0;
+    private boolean restored = false;
+    private long lastRestoreNs;
+    private int spawnCap = Integer.MAX_VALUE;
+    private volatile String lastDecision = "";
+
+    /**
+     * @param maxSubSteps the frame's sub-step cap at full quality
+     * @param halos       whether the front end draws halos that can be switched off
+     * @param spawning    whether the population grows from user input
+     */
+    public QualityGovernor(long budgetNs, int maxSubSteps, boolean halos, boolean spawning, boolean enabled) {
+        this.budgetNs = budgetNs;
+        this.enabled = enabled;
+
+        List<Level> rungs = new ArrayList<>();
+        Level l = new Level(maxSubSteps, true, 1, false, "full quality");
+        rungs.add(l);
+        for (int s = maxSubSteps / 2; s >= 1; s /= 2)
+            rungs.add(l = new Level(s, l.halos, l.renderStride, l.capSpawns, "sub-steps " + s));
+        if (halos)
+            rungs.add(l = new Level(l.subSteps, false, l.renderStride, l.capSpawns, "halos off"));
+        for (int k = 2; k <= 8; k *= 2)
+            rungs.add(l = new Level(l.subSteps, l.halos, k, l.capSpawns, "draw 1/" + k));
+        if (spawning)
+            rungs.add(new Level(l.subSteps, l.halos, l.renderStride, true, "spawns capped"));
+        this.ladder = rungs;
+        this.restoreHold = new int[rungs.size()];
+        Arrays.fill(restoreHold, RESTORE_HOLD);
+    }
+
+    /** Governor for a front end, unless {@code -Dgravity.governor=false}. */
+    public static QualityGovernor fromProperties(FrameMetrics metrics, FixedTimestep timestep, boolean halos,
+            boolean spawning) {
+        boolean on = Boolean.parseBoolean(System.getProperty("gravity.governor", "true"));
+        return new QualityGovernor(metrics.budgetNs(), timestep.maxSubSteps(), halos, spawning, on);
+    }
+
+    // =========================================================================
+    // Decisions (loop thread)
+    // =========================================================================
+
+    /**
+     * Feeds the work time of a drawn frame; may move one rung.
+     *
+     * @param particles current population, remembered as the cap when spawns get capped
+     */
+    public void update(long workNs, int particles, long nowNs) {
+        if (!enabled)
+            return;
+        smoothedNs = smoothedNs < 0 ? workNs : smoothedNs + SMOOTHING * (workNs - smoothedNs);
+        framesSinceChange++;
+
+        if (smoothedNs > DEGRADE_ABOVE * budgetNs && framesSinceChange >= DEGRADE_HOLD
+                && level < ladder.size() - 1) {
+            level++;
+            if (restored && nowNs - lastRestoreNs < BOUNCE_NS)
+                restoreHold[level] = Math.min(MAX_RESTORE_HOLD, 2 * restoreHold[level]);
+            if (ladder.get(level).capSpawns && spawnCap == Integer.MAX_VALUE)
+                spawnCap = particles;
+            decided("down", ladder.get(level).change, ">", DEGRADE_ABOVE);
+        } else if (smoothedNs < RESTORE_BELOW * budgetNs && level > 0 && framesSinceChange >= restoreHold[level]) {
+            String undone = ladder.get(level).change;
+            level--;
+            restored = true;
+            lastRestoreNs = nowNs;
+            if (!ladder.get(level).capSpawns)
+                spawnCap = Integer.MAX_VALUE;
+            decided("up", "undo " + undone, "<", RESTORE_BELOW);
+        }
+    }
+
+    private void decided(String direction, String what, String cmp, double threshold) {
+        lastDecision = String.format("%s: %s (work %.1f ms %s %.1f)", direction, what, smoothedNs / 1e6, cmp,
+                threshold * budgetNs / 1e6);
+        framesSinceChange = 0;
+    }
+
+    // =========================================================================
+    // Settings
+    // =========================================================================
+
+    public int subSteps() {
+        return ladder.get(level).subSteps;
+    }
+
+    public boolean halos() {
+        return ladder.get(level).halos;
+    }
+
+    public int renderStride() {
+        return ladder.get(level).renderStride;
+    }
+
+    /** False once spawns are capped and the population has reached the cap. */
+    public boolean spawnAllowed(int particles) {
+        return particles < spawnCap;
+    }
+
+    public int level() {
+        return level;
+    }
+
+    /** Deepest rung; {@link #level()} runs from 0 (full quality) to this. */
+    public int maxLevel() {
+        return ladder.size() - 1;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /** Current settings in brief, e.g. {@code "L3/8 sub-steps 1, draw 1/2"}. */
+    public String status() {
+        if (!enabled)
+            return "governor off";
+        Level full = ladder.get(0), l = ladder.get(level);
+        List<String> parts = new ArrayList<>();
+        if (l.subSteps < full.subSteps)
+            parts.add("sub-steps " + l.subSteps);
+        if (!l.halos)
+            parts.add("halos off");
+        if (l.renderStride > 1)
+            parts.add("draw 1/" + l.renderStride);
+        if (l.capSpawns)
+            parts.add(String.format("spawns capped at %,d", spawnCap));
+        return "L" + level + "/" + maxLevel() + " " + (parts.isEmpty() ? "full quality" : String.join(", ", parts));
+    }
+
+    /** Last step down or up and the smoothed work time that caused it; empty before the first. */
+    public String lastDecision() {
+        return lastDecision;
+    }
+}
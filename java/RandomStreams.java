@@ -0,0 +1,152 @@
+import java.util.SplittableRandom;
+
+/**
+ * Seeded random streams for the models, so a run can be repeated exactly.
+ *
+ * {@code -Dgravity.seed=N} fixes the seed. Without it each run picks a fresh
+ * one, and {@link HeadlessRunner} reports it so the run can still be
+ * repeated afterwards. Every consumer asks for its own named
+ * {@link #stream}: the same seed and name always give the same sequence, and
+ * streams with different names are independent, so extra draws in one model
+ * do not shift another's.
+ *
+ * Parallel passes need a stream per unit of work. A stream per worker
+ * thread would not repeat, because the pool hands chunks to whichever thread
+ * is free. {@link #split} instead splits one stream per fixed block off the
+ * parent, serially and before the pass, so the draws depend only on the
+ * block and not on who runs it.
+ */
+public final class RandomStreams {
+
+    private static RandomStreams shared;
+
+    private final long seed;
+    private final boolean fixed;
+
+    public RandomStreams(long seed) {
+        this(seed, true);
+    }
+
+    private RandomStreams(long seed, boolean fixed) {
+        this.seed = seed;
+        this.fixed = fixed;
+    }
+
+    /** Process-wide streams seeded from {@code -Dgravity.seed}, or at random when unset. */
+    public static synchronized RandomStreams shared() {
+        if (shared == null) {
+            String value = System.getProperty("gravity.seed");
+            shared = value == null || value.isBlank() ? new RandomStreams(new SplittableRandom().nextLong(), false)
+                    : new RandomStreams(Long.parseLong(value.trim()), true);
+        }
+        return shared;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    /** Whether the seed was given rather than picked at random. */
+    public boolean fixed() {
+        return fixed;
+    }
+
+    /** E.g. {@code "42"} or {@code "-6142379951520811011 (random)"}. */
+    public String describe() {
+        return fixed ? Long.toString(seed) : seed + " (random)";
+    }
+
+    /** A fresh stream for consumer {@code name}, the same for the same seed and name. */
+    public SplittableRandom stream(String name) {
+        // Mixed, because SplittableRandom seeds one gamma apart would give shifted copies of one sequence
+        return new SplittableRandom(mix(seed ^ mix(name.hashCode())));
+    }
+
+    /** Splits {@code blocks} independent streams off {@code parent}, one per fixed block of a parallel pass. */
+    public static SplittableRandom[] split(SplittableRandom parent, int blocks) {
+        SplittableRandom[] streams = new SplittableRandom[blocks];
+        for (int b = 0; b < blocks; b++)
+            streams[b] = parent.split();
+        return streams;
+    }
+
+    /**
+     * Stream number {@code index} of {@code key}. A model that draws a fresh
+     * stream each step this way only needs the key and the step count to
+     * carry on where a {@link Snapshot} left off.
+     */
+    public static SplittableRandom indexed(long key, long index) {
+        return new SplittableRandom(mix(key ^ mix(index + 1)));
+    }
+
+    // MurmurHash3's 64-bit finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    // =========================================================================
+    // Self-check
+    // =========================================================================
+
+    /**
+     * Runs every model on 1 worker and on {@code workers}, from the same
+     * seed, and requires both runs to end on the same
+     * {@link ParticleStore#checksum}. The gravity run spawns bursts of
+     * several {@link BulkSpawn} blocks through a {@link SpawnQueue} and uses
+     * particle-mesh self-gravity; the collision uses a Barnes-Hut tree.
+     * Exits with status 1 if any checksum differs.
+     *
+     * <pre>
+     *   java -Dgravity.seed=42 RandomStreams [workers (4)] [particles (20000)] [steps (30)]
+     * </pre>
+     */
+    public static void main(String[] args) {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        System.out.println("seed " + shared().describe() + ", 1 vs " + workers + " workers");
+        boolean ok = true;
+        for (String model : new String[] { "gravity", "galaxy", "blackhole", "collision" }) {
+            long single = seededRun(model, n, steps, 1);
+            long parallel = seededRun(model, n, steps, workers);
+            System.out.printf("%-10s %016x %016x %s%n", model, single, parallel, single == parallel ? "ok" : "FAIL");
+            ok &= single == parallel;
+        }
+        if (!ok)
+            System.exit(1);
+    }
+
+    // Checksum after building and stepping one model on its own stepper
+    private static long seededRun(String name, int n, int steps, int workers) {
+        ParallelStepper stepper = new ParallelStepper(workers);
+        try {
+            SimulationModel model;
+            SpawnQueue spawns = new SpawnQueue();
+            switch (name) {
+                case "gravity" -> {
+                    GravityModel m = new GravityModel(stepper, ParticleKernel.load());
+                    m.setSelfGravity(new ParticleMesh(0.1, 128, stepper));
+                    spawns.add(GravityModel.Pattern.CIRCLE, 750, 400, n / 2);
+                    spawns.add(GravityModel.Pattern.LINE, 0, 200, n / 4);
+                    model = m;
+                }
+                case "galaxy" -> model = new GalaxyModel(n, stepper);
+                case "blackhole" -> model = new BlackholeModel(n, stepper);
+                default -> model = new GalaxyCollision(2, 200, 0.3).create(n, stepper);
+            }
+            for (int s = 0; s < steps; s++) {
+                if (model instanceof GravityModel) {
+                    if (s == steps / 2)
+                        spawns.add(GravityModel.Pattern.COLUMN, 300, 0, n / 4);
+                    spawns.drainInto((GravityModel) model);
+                }
+                model.step();
+            }
+            return model.core().particles().checksum();
+        } finally {
+            stepper.shutdown();
+        }
+    }
+}
@@ -0,0 +1,363 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plays back a trajectory recorded by {@link TrajectoryRecorder} (for example
+ * with {@code -Dgravity.record=FILE} or {@code HeadlessRunner --record}).
+ *
+ * Frames are only decoded and drawn; no physics runs, so a run integrated
+ * offline at any size plays at whatever rate decoding and plotting allow.
+ * Each frame is loaded into a model of the recorded kind, with its colors
+ * and attractor positions, and drawn by that model's own
+ * {@link SimulationModel#render(PixelRaster)}. Momenta, which the blackhole
+ * colors its particles by, are not recorded; they are estimated from the
+ * displacement since the previous frame.
+ *
+ * Controls:
+ * SPACE - pause / resume
+ * UP / DOWN - double / halve the playback speed (1/16x to 64x)
+ * R - reverse direction
+ * LEFT / RIGHT - step one frame back / forward (while paused)
+ * HOME / END - jump to the first / last frame
+ * slider - seek, or drag to scrub
+ * ESC - quit
+ */
+public class ReplaySimulation extends JPanel implements Runnable {
+
+    private static final long serialVersionUID = 1L;
+
+    // ---------- Window / playback constants ----------------------------------
+    private static final int WIDTH = GravityModel.WIDTH;
+    private static final int HEIGHT = GravityModel.HEIGHT;
+    private static final int TARGET_FPS = 100;
+    private static final double MIN_SPEED = 1.0 / 16;
+    private static final double MAX_SPEED = 64;
+
+    // Star color for version 1 recordings of models that draw from a color column
+    private static final int FALLBACK_RGB = PixelRaster.rgb(255, 200, 100);
+
+    // ---------- State --------------------------------------------------------
+    private final TrajectoryReader reader;
+    private final JSlider slider;
+    // Model of the recorded kind that draws each frame, its particles and their mass
+    private final SimulationModel model;
+    private final ParticleStore store;
+    private final double mass;
+    // Frame decoded before the current one, for the momentum estimate
+    private int previousFrame = -1;
+    private int previousCount;
+    private double previousTime;
+    private float[] previousXY = new float[0];
+
+    // Playback position in frames; fractional so that slow speeds work
+    private double position = 0;
+    private volatile double speed = 1;
+    private volatile boolean paused = false;
+    // Written by the EDT (keys, slider), applied by the loop thread
+    private volatile int seekRequest = -1;
+    private volatile int stepRequest = 0;
+
+    // Performance tracking
+    private long lastFrameTime = System.nanoTime();
+    private int fps = 0;
+
+    // Off-screen buffers for smooth rendering (double buffering)
+    private BufferedImage bufferDraw;
+    private BufferedImage bufferDisplay;
+    // Direct pixel access to the same two buffers, swapped alongside them
+    private PixelRaster rasterDraw;
+    private PixelRaster rasterDisplay;
+
+    // =========================================================================
+    // Construction & wiring
+    // =========================================================================
+
+    public ReplaySimulation(TrajectoryReader reader) {
+        this.reader = reader;
+        setPreferredSize(new Dimension(WIDTH, HEIGHT));
+        setBackground(Color.BLACK);
+        bufferDraw = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        bufferDisplay = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        rasterDraw = new PixelRaster(bufferDraw);
+        rasterDisplay = new PixelRaster(bufferDisplay);
+
+        // The first frame places the attractors; version 1 files keep the model's own centre
+        try {
+            reader.next();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Snapshot empty;
+        if (reader.attractorCount() == 0) {
+            empty = new Snapshot(reader.model(), new ParticleStore(), 0, WIDTH / 2, HEIGHT / 2, 0);
+        } else {
+            List<Attractor> attractors = new ArrayList<>();
+            for (int j = 0; j < reader.attractorCount(); j++)
+                attractors.add(Attractor.pinned(reader.attractorX(j), reader.attractorY(j), 0));
+            empty = new Snapshot(reader.model(), new ParticleStore(), 0, reader.attractorX(0),
+                    reader.attractorY(0), 0, attractors, 0, 0);
+        }
+        model = empty.restore(ParallelStepper.shared());
+        if (model instanceof GalaxyModel)
+            ((GalaxyModel) model).setDensityShading(Boolean.getBoolean("gravity.density"));
+        store = model.core().particles();
+        mass = model.snapshot().mass();
+        load();
+
+        // --- Seek slider ------------------------------------------------------
+        slider = new JSlider(0, Math.max(0, reader.frameCount() - 1), 0);
+        slider.setFocusable(false);
+        slider.addChangeListener(e -> {
+            // Only user drags and clicks seek; the loop moves the knob with adjusting=false
+            if (slider.getValueIsAdjusting())
+                seekRequest = slider.getValue();
+        });
+        slider.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                seekRequest = slider.getValue();
+            }
+        });
+
+        // --- Key listeners ---------------------------------------------------
+        setFocusable(true);
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_SPACE -> paused = !paused;
+                    case KeyEvent.VK_UP -> speed = Math.copySign(Math.min(MAX_SPEED, Math.abs(speed) * 2), speed);
+                    case KeyEvent.VK_DOWN -> speed = Math.copySign(Math.max(MIN_SPEED, Math.abs(speed) / 2), speed);
+                    case KeyEvent.VK_R -> speed = -speed;
+                    case KeyEvent.VK_LEFT -> stepRequest = -1;
+                    case KeyEvent.VK_RIGHT -> stepRequest = 1;
+                    case KeyEvent.VK_HOME -> seekRequest = 0;
+                    case KeyEvent.VK_END -> seekRequest = reader.frameCount() - 1;
+                    case KeyEvent.VK_ESCAPE -> System.exit(0);
+                }
+            }
+        });
+    }
+
+    public JSlider slider() {
+        return slider;
+    }
+
+    // =========================================================================
+    // Playback loop
+    // =========================================================================
+
+    @Override
+    public void run() {
+        long targetNs = 1_000_000_000L / TARGET_FPS;
+        int last = reader.frameCount() - 1;
+
+        while (true) {
+            long start = System.nanoTime();
+
+            // --- Input: seeks and single steps win over playback -------------
+            int seek = seekRequest;
+            if (seek >= 0) {
+                seekRequest = -1;
+                position = seek;
+            } else if (stepRequest != 0) {
+                position = Math.floor(position) + stepRequest;
+                stepRequest = 0;
+            } else if (!paused) {
+                position += speed;
+            }
+            if (position < 0 || position > last) {
+                position = Math.max(0, Math.min(position, last));
+                paused = true; // stop at either end
+            }
+
+            // --- Decode: forward playback just keeps reading ----------------
+            int target = (int) position;
+            try {
+                if (target != reader.frame()) {
+                    // Elsewhere, decode the frame before too for the momenta
+                    if (target != reader.frame() + 1) {
+                        reader.seek(Math.max(0, target - 1));
+                        if (target > 0)
+                            reader.next();
+                    }
+                    rememberFrame();
+                    reader.next();
+                    load();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            // --- Render to off-screen buffer --------------------------------
+            model.render(rasterDraw);
+            int n = reader.count();
+
+            Graphics2D g2 = bufferDraw.createGraphics();
+            g2.setColor(Color.WHITE);
+            g2.setFont(new Font("Monospaced", Font.BOLD, 14));
+            g2.drawString(String.format("Replay    : %s", reader.model()), 20, 30);
+            g2.drawString(String.format("Frame     : %d / %d (step %d)", reader.frame(), last, reader.step()), 20, 50);
+            g2.drawString(String.format("Particles : %d", n), 20, 70);
+            g2.drawString(String.format("Speed     : %sx%s", formatSpeed(speed), paused ? "  PAUSED" : ""), 20, 90);
+            g2.drawString(String.format("FPS       : %d", fps), 20, 110);
+            g2.drawString("Controls: Space=pause  Up/Down=speed  R=reverse  Left/Right=step  Home/End", 20,
+                    HEIGHT - 20);
+            g2.dispose();
+
+            // --- Swap buffers and push to screen --------------------------------------
+            synchronized (this) {
+                BufferedImage temp = bufferDisplay;
+                bufferDisplay = bufferDraw;
+                bufferDraw = temp;
+                PixelRaster tempRaster = rasterDisplay;
+                rasterDisplay = rasterDraw;
+                rasterDraw = tempRaster;
+            }
+            repaint();
+            int shown = reader.frame();
+            SwingUtilities.invokeLater(() -> {
+                if (!slider.getValueIsAdjusting())
+                    slider.setValue(shown);
+            });
+
+            // --- FPS calculation -------------------------------------------
+            long now = System.nanoTime();
+            long elapsed = now - lastFrameTime;
+            if (elapsed > 0)
+                fps = (int) (1_000_000_000L / elapsed);
+            lastFrameTime = now;
+
+            // --- Cap to target FPS ------------------------------------------
+            long sleepNs = targetNs - (now - start);
+            if (sleepNs > 0) {
+                try {
+                    Thread.sleep(sleepNs / 1_000_000, (int) (sleepNs % 1_000_000));
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+
+    // =========================================================================
+    // Frame loading
+    // =========================================================================
+
+    /** Keeps the current frame's positions, before the next decode overwrites them. */
+    private void rememberFrame() {
+        int n = reader.count();
+        if (previousXY.length < 2 * n)
+            previousXY = new float[2 * n];
+        System.arraycopy(reader.positions(), 0, previousXY, 0, 2 * n);
+        previousFrame = reader.frame();
+        previousCount = n;
+        previousTime = reader.time();
+    }
+
+    /** Loads the decoded frame into the model: particles, colors and attractors. */
+    private void load() {
+        int n = reader.count();
+        float[] xy = reader.positions();
+        store.clear();
+        store.append(n);
+        double[] xs = store.x, ys = store.y, mxs = store.momentumX, mys = store.momentumY;
+        double dt = reader.time() - previousTime;
+        if (previousFrame == reader.frame() - 1 && previousCount == n && dt > 0) {
+            double k = mass / dt;
+            float[] before = previousXY;
+            for (int i = 0; i < n; i++) {
+                xs[i] = xy[i];
+                ys[i] = xy[n + i];
+                mxs[i] = k * (xy[i] - before[i]);
+                mys[i] = k * (xy[n + i] - before[n + i]);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                xs[i] = xy[i];
+                ys[i] = xy[n + i];
+                mxs[i] = 0;
+                mys[i] = 0;
+            }
+        }
+
+        int[] colors = reader.colors();
+        if (colors != null)
+            System.arraycopy(colors, 0, store.enableColor().color, 0, n);
+        else if (store.color != null)
+            Arrays.fill(store.color, 0, n, FALLBACK_RGB);
+
+        SimulationCore core = model.core();
+        int k = reader.attractorCount();
+        if (k > 0 && k == core.attractorCount()) {
+            for (int j = 0; j < k; j++)
+                core.attractor(j).setPosition(reader.attractorX(j), reader.attractorY(j));
+        } else if (k > 0) {
+            core.clearAttractors();
+            for (int j = 0; j < k; j++)
+                core.addAttractor(Attractor.pinned(reader.attractorX(j), reader.attractorY(j), 0));
+        }
+    }
+
+    private static String formatSpeed(double speed) {
+        double s = Math.abs(speed);
+        String text = s >= 1 ? String.valueOf((int) s) : "1/" + (int) Math.round(1 / s);
+        return speed < 0 ? "-" + text : text;
+    }
+
+    // =========================================================================
+    // Painting
+    // =========================================================================
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        synchronized (this) {
+            if (bufferDisplay != null) {
+                g.drawImage(bufferDisplay, 0, 0, null);
+            }
+        }
+    }
+
+    // =========================================================================
+    // Entry point
+    // =========================================================================
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: ReplaySimulation <trajectory file>");
+            System.exit(2);
+        }
+        TrajectoryReader reader = new TrajectoryReader(Paths.get(args[0]));
+        if (reader.frameCount() == 0) {
+            System.err.println(args[0] + ": no frames recorded");
+            System.exit(1);
+        }
+
+        SwingUtilities.invokeLater(() -> {
+            JFrame frame = new JFrame("Replay: " + args[0]);
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+
+            ReplaySimulation sim = new ReplaySimulation(reader);
+            frame.add(sim, BorderLayout.CENTER);
+            frame.add(sim.slider(), BorderLayout.SOUTH);
+            frame.pack();
+            frame.setLocationRelativeTo(null); // Center on screen
+            frame.setResizable(false);
+            frame.setVisible(true);
+            sim.requestFocusInWindow();
+
+            // Start playback on a dedicated thread
+            Thread t = new Thread(sim, "replay-loop");
+            t.setDaemon(true);
+            t.start();
+        });
+    }
+}
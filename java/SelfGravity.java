@@ -0,0 +1,60 @@
+/**
+ * Particle-particle gravity on top of the fixed attractor.
+ *
+ * Implementations write into {@code fx}/{@code fy} the force every other
+ * particle exerts on particle {@code i}, using the same 2D 1/r law as
+ * Gravity.py ({@code |F| = g * m_i * m_j / r}) with Plummer softening so
+ * close encounters stay finite. All particles share {@code particleMass}.
+ */
+public interface SelfGravity {
+
+    /** Overwrites {@code fx[0..n)} and {@code fy[0..n)} with the self-gravity force. */
+    void computeForces(ParticleStore store, double particleMass, double[] fx, double[] fy);
+
+    String name();
+
+    /** The coupling g of {@code |F| = g * m_i * m_j / r}. */
+    double coupling();
+
+    /**
+     * Writes into {@code out[0]}, {@code out[1]} the acceleration the
+     * particles of the last {@link #computeForces} call give a body at
+     * ({@code x}, {@code y}), which is not one of them. This is how free
+     * attractors feel the particles pull back.
+     */
+    void accelerationAt(double x, double y, double[] out);
+
+    /**
+     * Solver selected by system properties, or null when N-body mode is off:
+     * {@code -Dgravity.nbody=bh|direct|pm}, {@code -Dgravity.theta} (opening
+     * angle, default 0.5), {@code -Dgravity.softening} (default 2),
+     * {@code -Dgravity.pmGrid} (particle-mesh grid side, default 256) and
+     * {@code -Dgravity.nbodyG} (coupling, default Gravity.py's G = 0.1).
+     */
+    static SelfGravity fromProperties(ParallelStepper stepper) {
+        return fromProperties(stepper, "off", 0.1);
+    }
+
+    /**
+     * As {@link #fromProperties(ParallelStepper)}, with the mode and coupling
+     * used when {@code gravity.nbody} and {@code gravity.nbodyG} are not set.
+     */
+    static SelfGravity fromProperties(ParallelStepper stepper, String defaultMode, double defaultG) {
+        String mode = System.getProperty("gravity.nbody", defaultMode);
+        double theta = Double.parseDouble(System.getProperty("gravity.theta", "0.5"));
+        double softening = Double.parseDouble(System.getProperty("gravity.softening", "2"));
+        double g = Double.parseDouble(System.getProperty("gravity.nbodyG", Double.toString(defaultG)));
+        switch (mode) {
+            case "off":
+                return null;
+            case "bh":
+                return new BarnesHutTree(g, theta, softening, stepper);
+            case "direct":
+                return new DirectSummation(g, softening, stepper);
+            case "pm":
+                return new ParticleMesh(g, Integer.getInteger("gravity.pmGrid", 256), stepper);
+            default:
+                throw new IllegalArgumentException("gravity.nbody must be off, bh, direct or pm: " + mode);
+        }
+    }
+}
@@ -0,0 +1,518 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Particle physics shared by the three simulations: a {@link ParticleStore}
+ * pulled by K {@link Attractor}s under one force law.
+ *
+ * Models describe their physics to a core (law, G, particle mass, DT,
+ * cutoff, whether the cutoff absorbs) and call {@link #step} with any extra
+ * per-particle forces; the core picks the path:
+ * <ul>
+ * <li>an {@link Integrator}, if one is set;</li>
+ * <li>the fused {@link ParticleKernel} for a lone attractor, if the model
+ * has one (the gravity simulation's SIMD kernel);</li>
+ * <li>the built-in Euler step, fused for one attractor;</li>
+ * <li>for several attractors, a tiled sweep: each source is summed over a
+ * tile of {@value #TILE} particles in a branch-free loop the JIT can
+ * vectorise, and the cutoff test and the kick / drift follow in a second
+ * pass over the tile, which repeats the distance test per particle.</li>
+ * </ul>
+ * Every path runs under {@link ParallelStepper#forEach}. With one attractor
+ * the built-in step is semi-implicit Euler (kick, then drift), bit for bit
+ * the same as {@link SymplecticIntegrator#EULER}.
+ *
+ * After the particles, free attractors move under each other's gravity
+ * with leapfrog sub-steps, softened by the cutoff radius unless
+ * {@link #setAttractorSoftening set}. With {@link #setParticleGravity} they
+ * also feel the particles pull back, read once per step from the model's
+ * self-gravity solver. Attractors are set up before the
+ * simulation runs; afterwards only pinned positions may change, from any
+ * thread.
+ */
+public class SimulationCore {
+
+    // Particles per tile in the multi-attractor sweep; the tile's force
+    // accumulators stay in L1 while every source is summed into them
+    private static final int TILE = 512;
+    // Leapfrog sub-steps per step for free attractors
+    private static final int ATTRACTOR_SUBSTEPS = 8;
+    // Separation of the binary preset when none is given
+    private static final double DEFAULT_BINARY_SEPARATION = 200;
+
+    private final ParticleStore particles;
+    private final ParallelStepper stepper;
+    private final AttractorField.Law law;
+    private final double g;
+    private final double particleMass;
+    private final double dt;
+    private final double cutoff;
+    private final boolean absorbing;
+    private final List<Attractor> attractors = new ArrayList<>();
+    // Plummer softening between attractors; the cutoff radius unless set
+    private double attractorSoftening;
+    // Solver whose last force pass gives the particles' pull on free attractors; null = none
+    private SelfGravity particleGravity;
+
+    // Optional fused single-attractor backend, valid for attractors of kernelMass
+    private ParticleKernel kernel;
+    private double kernelMass;
+    // Optional integrator (null = built-in Euler) and step length in units of DT
+    private Integrator integrator;
+    private int stepScale = 1;
+
+    private final AtomicLong forceEvaluations = new AtomicLong();
+    private double simulatedTime = 0;
+    private DriftMonitor drift;
+
+    /**
+     * @param g            gravitational constant; source j pulls with k = g * particleMass * M_j
+     * @param dt           length of one step before {@link #setIntegrator scaling}
+     * @param cutoff       radius around each attractor inside which the law is not applied
+     * @param absorbing    whether particles inside the cutoff are flagged
+     *                     {@link AttractorField#ABSORBED} (store needs flags) or just left alone
+     */
+    public SimulationCore(ParticleStore particles, ParallelStepper stepper, AttractorField.Law law, double g,
+            double particleMass, double dt, double cutoff, boolean absorbing) {
+        this.particles = particles;
+        this.stepper = stepper;
+        this.law = law;
+        this.g = g;
+        this.particleMass = particleMass;
+        this.dt = dt;
+        this.cutoff = cutoff;
+        this.absorbing = absorbing;
+        this.attractorSoftening = cutoff;
+    }
+
+    public ParticleStore particles() {
+        return particles;
+    }
+
+    // =========================================================================
+    // Attractors
+    // =========================================================================
+
+    public Attractor addAttractor(Attractor a) {
+        attractors.add(a);
+        return a;
+    }
+
+    public void clearAttractors() {
+        attractors.clear();
+    }
+
+    public List<Attractor> attractors() {
+        return Collections.unmodifiableList(attractors);
+    }
+
+    public Attractor attractor(int j) {
+        return attractors.get(j);
+    }
+
+    public int attractorCount() {
+        return attractors.size();
+    }
+
+    public double totalMass() {
+        double m = 0;
+        for (Attractor a : attractors)
+            m += a.mass();
+        return m;
+    }
+
+    /** Mass-weighted centre of the attractors; exactly the attractor's position when there is one. */
+    public double barycenterX() {
+        if (attractors.size() == 1)
+            return attractors.get(0).x();
+        double sum = 0;
+        for (Attractor a : attractors)
+            sum += a.mass() * a.x();
+        return sum / totalMass();
+    }
+
+    public double barycenterY() {
+        if (attractors.size() == 1)
+            return attractors.get(0).y();
+        double sum = 0;
+        for (Attractor a : attractors)
+            sum += a.mass() * a.y();
+        return sum / totalMass();
+    }
+
+    /**
+     * Replaces the attractors with two free ones of {@code mass} each,
+     * {@code separation} apart on a circular orbit around (cx, cy).
+     */
+    public void setBinary(double cx, double cy, double separation, double mass) {
+        // Each body circles the centre at radius d/2: M v^2 / (d/2) = F, with the softened pull
+        double d = separation;
+        double s = law == AttractorField.Law.INVERSE_R
+                ? ForceKernel.inverseR(g * mass, d * d + attractorSoftening * attractorSoftening)
+                : ForceKernel.inverseRSquared(g * mass, d * d + attractorSoftening * attractorSoftening);
+        double v = Math.sqrt(s * d * d / 2);
+        attractors.clear();
+        attractors.add(Attractor.free(cx - d / 2, cy, mass, 0, -v));
+        attractors.add(Attractor.free(cx + d / 2, cy, mass, 0, v));
+    }
+
+    /**
+     * Replaces the model's default attractors when {@code -Dgravity.attractors}
+     * is set: {@code binary} or {@code binary:SEPARATION} splits the total
+     * mass into a circular binary around the barycentre; otherwise a list
+     * {@code x,y,M[,vx,vy];...} where entries with a velocity are free and
+     * the rest pinned.
+     */
+    public void attractorsFromProperties() {
+        String spec = System.getProperty("gravity.attractors");
+        if (spec == null || spec.isBlank())
+            return;
+        if (spec.equals("binary") || spec.startsWith("binary:")) {
+            double separation = spec.equals("binary") ? DEFAULT_BINARY_SEPARATION
+                    : Double.parseDouble(spec.substring("binary:".length()));
+            setBinary(barycenterX(), barycenterY(), separation, totalMass() / 2);
+            return;
+        }
+        List<Attractor> parsed = new ArrayList<>();
+        for (String entry : spec.split(";")) {
+            String[] v = entry.trim().split(",");
+            double[] d = new double[v.length];
+            for (int i = 0; i < v.length; i++)
+                d[i] = Double.parseDouble(v[i].trim());
+            if (d.length == 3)
+                parsed.add(Attractor.pinned(d[0], d[1], d[2]));
+            else if (d.length == 5)
+                parsed.add(Attractor.free(d[0], d[1], d[2], d[3], d[4]));
+            else
+                throw new IllegalArgumentException("gravity.attractors entry must be x,y,M or x,y,M,vx,vy: " + entry);
+        }
+        attractors.clear();
+        attractors.addAll(parsed);
+    }
+
+    /**
+     * Softens the attractors' pull on each other over {@code softening}
+     * instead of the cutoff radius, e.g. for extended galaxy cores.
+     */
+    public void setAttractorSoftening(double softening) {
+        this.attractorSoftening = softening;
+    }
+
+    public double attractorSoftening() {
+        return attractorSoftening;
+    }
+
+    /**
+     * Lets free attractors feel the particles through {@code solver}, which
+     * the model runs over the particles before every {@link #step}; null
+     * leaves them moving under each other only.
+     */
+    public void setParticleGravity(SelfGravity solver) {
+        this.particleGravity = solver;
+    }
+
+    /** The attractors' field as of now, as the integrators see it. */
+    public AttractorField field() {
+        int n = attractors.size();
+        double[] cx = new double[n], cy = new double[n], k = new double[n];
+        for (int j = 0; j < n; j++) {
+            Attractor a = attractors.get(j);
+            cx[j] = a.x();
+            cy[j] = a.y();
+            k[j] = g * particleMass * a.mass();
+        }
+        return new AttractorField(law, cx, cy, k, particleMass, cutoff, absorbing);
+    }
+
+    // =========================================================================
+    // Integration settings and statistics
+    // =========================================================================
+
+    /**
+     * Uses {@code kernel} for the built-in step while there is a single
+     * attractor of mass {@code attractorMass}; the kernel must implement
+     * this core's law, constants and DT.
+     */
+    public void setKernel(ParticleKernel kernel, double attractorMass) {
+        this.kernel = kernel;
+        this.kernelMass = attractorMass;
+    }
+
+    /**
+     * Integrates with {@code integrator} (null = the built-in Euler step),
+     * each step advancing {@code stepScale * DT}.
+     */
+    public void setIntegrator(Integrator integrator, int stepScale) {
+        this.integrator = integrator;
+        this.stepScale = Math.max(1, stepScale);
+    }
+
+    public Integrator integrator() {
+        return integrator;
+    }
+
+    public int stepScale() {
+        return stepScale;
+    }
+
+    /** Length of the next step: DT times the step scale. */
+    public double stepLength() {
+        return dt * stepScale;
+    }
+
+    /** Particle force evaluations since start; each sums every attractor. */
+    public long forceEvaluations() {
+        return forceEvaluations.get();
+    }
+
+    /** Simulated time since start, in the units of DT. */
+    public double simulatedTime() {
+        return simulatedTime;
+    }
+
+    /**
+     * Measures energy and angular momentum drift now. Baselines are taken on
+     * the first call, for {@link #forget forgotten} particles, and again
+     * whenever an attractor has moved.
+     */
+    public DriftMonitor measureDrift() {
+        if (drift == null)
+            drift = new DriftMonitor(stepper);
+        drift.measure(particles, field());
+        return drift;
+    }
+
+    /** Tells the drift monitor that particle {@code i} was replaced. */
+    public void forget(int i) {
+        if (drift != null)
+            drift.forget(i);
+    }
+
+    // =========================================================================
+    // Step
+    // =========================================================================
+
+    /**
+     * Advances the particles by {@link #stepLength()}, adding the extra
+     * forces {@code fx}/{@code fy} (or none when null), then moves the free
+     * attractors.
+     */
+    public void step(double[] fx, double[] fy) {
+        double h = stepLength();
+        simulatedTime += h;
+        int n = particles.size();
+        // Pinned positions may change mid-step; every chunk sees this snapshot
+        AttractorField field = field();
+        Integrator scheme = integrator;
+        if (scheme != null) {
+            stepper.forEach(n, (from, to) -> forceEvaluations.addAndGet(
+                    scheme.advance(particles, from, to, field, h, fx, fy)));
+        } else if (field.sources == 1 && kernel != null && attractors.get(0).mass() == kernelMass
+                && fx == null && stepScale == 1) {
+            ParticleKernel k = kernel;
+            double x2 = field.cx[0], y2 = field.cy[0];
+            stepper.forEach(n, (from, to) -> k.move(particles, from, to, x2, y2));
+            forceEvaluations.addAndGet(n);
+        } else if (field.sources == 1) {
+            stepper.forEach(n, (from, to) -> moveSingle(from, to, field, h, fx, fy));
+            forceEvaluations.addAndGet(n);
+        } else if (field.sources > 1) {
+            stepper.forEach(n, (from, to) -> moveTiled(from, to, field, h, fx, fy));
+            forceEvaluations.addAndGet(n);
+        }
+        moveAttractors(h);
+    }
+
+    /** Built-in Euler step around a lone attractor: kick, then drift. */
+    private void moveSingle(int from, int to, AttractorField field, double h, double[] fx, double[] fy) {
+        double[] xs = particles.x, ys = particles.y, mxs = particles.momentumX, mys = particles.momentumY;
+        byte[] flags = absorbing ? particles.flags : null;
+        double x2 = field.cx[0], y2 = field.cy[0], k = field.k[0];
+        double cutoffSq = field.cutoffSq;
+        // 1 / mass rather than a division per drift; exact for the models' mass of 2
+        double invMass = field.inverseMass;
+        boolean inverseSquare = law == AttractorField.Law.INVERSE_R_SQUARED;
+        for (int i = from; i < to; i++) {
+            if (flags != null && flags[i] == AttractorField.ABSORBED)
+                continue;
+
+            double dx = x2 - xs[i];
+            double dy = y2 - ys[i];
+            double distSq = dx * dx + dy * dy;
+
+            // Inside the cutoff: absorbed (respawned by the model) or left where it is
+            if (distSq < cutoffSq) {
+                if (flags != null)
+                    flags[i] = AttractorField.ABSORBED;
+                continue;
+            }
+
+            double s = inverseSquare ? ForceKernel.inverseRSquared(k, distSq) : ForceKernel.inverseR(k, distSq);
+            double forceX = s * dx;
+            double forceY = s * dy;
+            if (fx != null) {
+                forceX += fx[i];
+                forceY += fy[i];
+            }
+
+            mxs[i] += forceX * h;
+            mys[i] += forceY * h;
+
+            xs[i] += (mxs[i] * invMass) * h;
+            ys[i] += (mys[i] * invMass) * h;
+        }
+    }
+
+    /** Built-in Euler step around several attractors, a tile at a time. */
+    private void moveTiled(int from, int to, AttractorField field, double h, double[] fx, double[] fy) {
+        double[] xs = particles.x, ys = particles.y, mxs = particles.momentumX, mys = particles.momentumY;
+        byte[] flags = absorbing ? particles.flags : null;
+        double invMass = field.inverseMass;
+        boolean inverseSquare = law == AttractorField.Law.INVERSE_R_SQUARED;
+        double[] ax = new double[TILE], ay = new double[TILE];
+        for (int base = from; base < to; base += TILE) {
+            int len = Math.min(TILE, to - base);
+            Arrays.fill(ax, 0, len, 0);
+            Arrays.fill(ay, 0, len, 0);
+            for (int j = 0; j < field.sources; j++) {
+                if (inverseSquare)
+                    sumInverseRSquared(xs, ys, base, len, field.cx[j], field.cy[j], field.k[j], ax, ay);
+                else
+                    sumInverseR(xs, ys, base, len, field.cx[j], field.cy[j], field.k[j], ax, ay);
+            }
+            for (int t = 0; t < len; t++) {
+                int i = base + t;
+                if (flags != null && flags[i] == AttractorField.ABSORBED)
+                    continue;
+                // Cutoff of any source: absorbed (respawned by the model) or left where it is
+                boolean inside = false;
+                for (int j = 0; j < field.sources; j++) {
+                    double dx = field.cx[j] - xs[i], dy = field.cy[j] - ys[i];
+                    inside |= dx * dx + dy * dy < field.cutoffSq;
+                }
+                if (inside) {
+                    if (flags != null)
+                        flags[i] = AttractorField.ABSORBED;
+                    continue;
+                }
+                double forceX = ax[t];
+                double forceY = ay[t];
+                if (fx != null) {
+                    forceX += fx[i];
+                    forceY += fy[i];
+                }
+                mxs[i] += forceX * h;
+                mys[i] += forceY * h;
+                xs[i] += (mxs[i] * invMass) * h;
+                ys[i] += (mys[i] * invMass) * h;
+            }
+        }
+    }
+
+    // One source over a tile, branch-free so the JIT can vectorise it. Sums for
+    // particles inside the cutoff may be infinite or NaN; the caller discards them.
+
+    private static void sumInverseR(double[] xs, double[] ys, int base, int len, double sx, double sy, double k,
+            double[] ax, double[] ay) {
+        for (int t = 0; t < len; t++) {
+            double dx = sx - xs[base + t];
+            double dy = sy - ys[base + t];
+            double distSq = dx * dx + dy * dy;
+            double s = k / distSq;
+            ax[t] += s * dx;
+            ay[t] += s * dy;
+        }
+    }
+
+    private static void sumInverseRSquared(double[] xs, double[] ys, int base, int len, double sx, double sy,
+            double k, double[] ax, double[] ay) {
+        for (int t = 0; t < len; t++) {
+            double dx = sx - xs[base + t];
+            double dy = sy - ys[base + t];
+            double distSq = dx * dx + dy * dy;
+            double invR = 1.0 / Math.sqrt(distSq);
+            double s = k * invR * invR * invR;
+            ax[t] += s * dx;
+            ay[t] += s * dy;
+        }
+    }
+
+    /**
+     * Leapfrog (kick-drift-kick) for free attractors under each other's
+     * softened pull, plus the particles' pull at the start of the step,
+     * which is held over the sub-steps.
+     */
+    private void moveAttractors(double h) {
+        int n = attractors.size();
+        boolean anyFree = false;
+        for (Attractor a : attractors)
+            anyFree |= !a.isPinned();
+        if (!anyFree)
+            return;
+        double[] x = new double[n], y = new double[n], ax = new double[n], ay = new double[n];
+        double[] px = new double[n], py = new double[n];
+        double[] pull = new double[2];
+        for (int j = 0; j < n; j++) {
+            Attractor a = attractors.get(j);
+            x[j] = a.x();
+            y[j] = a.y();
+            // One walk of the solver's tree (or read of its mesh) per free attractor
+            if (particleGravity != null && !a.isPinned()) {
+                particleGravity.accelerationAt(x[j], y[j], pull);
+                px[j] = pull[0];
+                py[j] = pull[1];
+            }
+        }
+        double sub = h / ATTRACTOR_SUBSTEPS;
+        accelerations(x, y, px, py, ax, ay);
+        for (int s = 0; s < ATTRACTOR_SUBSTEPS; s++) {
+            for (int j = 0; j < n; j++) {
+                Attractor a = attractors.get(j);
+                if (a.isPinned())
+                    continue;
+                a.vx += ax[j] * sub / 2;
+                a.vy += ay[j] * sub / 2;
+                x[j] += a.vx * sub;
+                y[j] += a.vy * sub;
+            }
+            accelerations(x, y, px, py, ax, ay);
+            for (int j = 0; j < n; j++) {
+                Attractor a = attractors.get(j);
+                if (a.isPinned())
+                    continue;
+                a.vx += ax[j] * sub / 2;
+                a.vy += ay[j] * sub / 2;
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            Attractor a = attractors.get(j);
+            if (!a.isPinned())
+                a.moveTo(x[j], y[j]);
+        }
+    }
+
+    // Each attractor's pull from the others, on top of the particles' (px, py)
+    private void accelerations(double[] x, double[] y, double[] px, double[] py, double[] ax, double[] ay) {
+        int n = x.length;
+        double softSq = attractorSoftening * attractorSoftening;
+        for (int i = 0; i < n; i++) {
+            double sumX = px[i], sumY = py[i];
+            for (int j = 0; j < n; j++) {
+                if (j == i)
+                    continue;
+                double dx = x[j] - x[i], dy = y[j] - y[i];
+                double distSq = dx * dx + dy * dy + softSq;
+                double gm = g * attractors.get(j).mass();
+                double s = law == AttractorField.Law.INVERSE_R ? ForceKernel.inverseR(gm, distSq)
+                        : ForceKernel.inverseRSquared(gm, distSq);
+                sumX += s * dx;
+                sumY += s * dy;
+            }
+            ax[i] = sumX;
+            ay[i] = sumY;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Physics state of one simulation, with no Swing or AWT dependency.
+ *
+ * The Swing front ends (GravitySimulation, GalaxySimulation,
+ * BlackholeSimulation) own input, the HUD and the frame loop and delegate
+ * everything else here; {@link HeadlessRunner} drives the same models
+ * without a window.
+ */
+public interface SimulationModel {
+
+    /** Short name used on the command line and in reports. */
+    String name();
+
+    /** Number of particles advanced by one {@link #step()}. */
+    int particleCount();
+
+    /** Advances the physics by one fixed time step. */
+    void step();
+
+    /**
+     * The particles and attractors being stepped: add or move attractors,
+     * choose the integrator, read force counts and drift here.
+     */
+    SimulationCore core();
+
+    /**
+     * Captures the current state for {@link Snapshot#write}; the snapshot
+     * shares the model's particle arrays rather than copying them.
+     */
+    Snapshot snapshot();
+
+    /** Draws the particle field (no HUD) into {@code raster}. */
+    void render(PixelRaster raster);
+
+    /**
+     * Remembers the current positions so that
+     * {@link #render(PixelRaster, double)} can interpolate; called before the
+     * last physics step of a frame. No-op for models that do not interpolate.
+     */
+    default void savePositions() {
+    }
+
+    /**
+     * Draws particles at {@code alpha} (0-1) of the way from the positions
+     * saved by {@link #savePositions()} to the current ones. Models that do
+     * not interpolate draw the current state.
+     */
+    default void render(PixelRaster raster, double alpha) {
+        render(raster);
+    }
+}
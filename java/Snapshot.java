@@ -0,0 +1,478 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary checkpoint of a simulation's particle state.
+ *
+ * Every column of the {@link ParticleStore} is copied in one bulk transfer
+ * through a memory-mapped region of the file, so saving or loading millions
+ * of particles costs a few memcpys and no per-particle objects. Each column
+ * gets its own mapping, which keeps the 2 GB per-mapping limit per column
+ * instead of per file.
+ *
+ * <pre>
+ *   offset  type      field
+ *   0       int       magic "GRVS"
+ *   4       int       format version
+ *   8       int       particle count n
+ *   12      int       optional sections (COLOR | FLAGS | ATTRACTORS | RANDOM)
+ *   16      double    particle mass (uniform per simulation)
+ *   24      double    attractor / black hole x
+ *   32      double    attractor / black hole y
+ *   40      long      model counter (black hole: particles consumed)
+ *   48      byte[16]  model name, ASCII, zero padded
+ *   64      double[n] x, then y, momentumX, momentumY
+ *           int[n]    color, if COLOR
+ *           byte[n]   flags, if FLAGS
+ *           double    attractor softening, if ATTRACTORS
+ *           double    self-gravity coupling (0 = off)
+ *           long      attractor count k
+ *           k x (double x, y, mass, vx, vy, long 1 if pinned)
+ *           long      random stream key, if RANDOM
+ *           long      index of the next stream drawn from the key
+ * </pre>
+ *
+ * All values are little-endian. The per-particle {@code distance} and the
+ * previous positions are derived state and are not stored. Without the
+ * ATTRACTORS table, as in version 1 files, a model has one attractor at the
+ * stored centre. With it, every attractor is restored with its velocity,
+ * which is how a galaxy collision resumes with all of its cores. The RANDOM
+ * section holds the position of a model's counter-based random streams, so
+ * draws after a resume are the ones the uninterrupted run would have made.
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0x53565247; // "GRVS" read little-endian
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    private static final int NAME_BYTES = 16;
+
+    // Optional column bits
+    static final int COLOR = 1;
+    static final int FLAGS = 2;
+    static final int ATTRACTORS = 4;
+    static final int RANDOM = 8;
+    private static final int ATTRACTOR_BYTES = 48;
+    private static final int RANDOM_BYTES = 16;
+
+    private final String model;
+    private final ParticleStore particles;
+    private final double mass;
+    private final double centerX;
+    private final double centerY;
+    private final long counter;
+    // Null unless the model saved its attractors
+    private final Attractor[] attractors;
+    private final double attractorSoftening;
+    private final double coupling;
+    private final boolean random;
+    private final long randomKey;
+    private final long randomIndex;
+
+    /**
+     * Describes a model's state; {@code particles} is referenced, not copied,
+     * so write the snapshot before stepping the model again.
+     */
+    public Snapshot(String model, ParticleStore particles, double mass, double centerX, double centerY, long counter) {
+        this(model, particles, mass, centerX, centerY, counter, (Attractor[]) null, 0, 0, false, 0, 0);
+    }
+
+    /**
+     * Also saves {@code attractors}, copied as they are now, with the
+     * softening between them and the model's self-gravity {@code coupling}
+     * (0 when off).
+     */
+    public Snapshot(String model, ParticleStore particles, double mass, double centerX, double centerY, long counter,
+            List<Attractor> attractors, double attractorSoftening, double coupling) {
+        this(model, particles, mass, centerX, centerY, counter, copy(attractors), attractorSoftening, coupling, false,
+                0, 0);
+    }
+
+    private Snapshot(String model, ParticleStore particles, double mass, double centerX, double centerY, long counter,
+            Attractor[] attractors, double attractorSoftening, double coupling, boolean random, long randomKey,
+            long randomIndex) {
+        if (model.length() > NAME_BYTES)
+            throw new IllegalArgumentException("model name too long: " + model);
+        this.model = model;
+        this.particles = particles;
+        this.mass = mass;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.counter = counter;
+        this.attractors = attractors;
+        this.attractorSoftening = attractorSoftening;
+        this.coupling = coupling;
+        this.random = random;
+        this.randomKey = randomKey;
+        this.randomIndex = randomIndex;
+    }
+
+    /**
+     * This snapshot, also saving the model's random streams as a {@code key}
+     * and the {@code index} of the next one to draw (see
+     * {@link RandomStreams#indexed}).
+     */
+    public Snapshot withRandom(long key, long index) {
+        return new Snapshot(model, particles, mass, centerX, centerY, counter, attractors, attractorSoftening,
+                coupling, true, key, index);
+    }
+
+    private static Attractor[] copy(List<Attractor> list) {
+        Attractor[] copy = new Attractor[list.size()];
+        for (int j = 0; j < copy.length; j++) {
+            Attractor a = list.get(j);
+            copy[j] = a.isPinned() ? Attractor.pinned(a.x(), a.y(), a.mass())
+                    : Attractor.free(a.x(), a.y(), a.mass(), a.velocityX(), a.velocityY());
+        }
+        return copy;
+    }
+
+    /** {@link SimulationModel#name()} of the model that wrote this snapshot. */
+    public String model() {
+        return model;
+    }
+
+    public ParticleStore particles() {
+        return particles;
+    }
+
+    public double mass() {
+        return mass;
+    }
+
+    public double centerX() {
+        return centerX;
+    }
+
+    public double centerY() {
+        return centerY;
+    }
+
+    public long counter() {
+        return counter;
+    }
+
+    /** Saved attractors, or null when the snapshot has only a centre. */
+    public Attractor[] attractors() {
+        return attractors == null ? null : copy(List.of(attractors));
+    }
+
+    public double attractorSoftening() {
+        return attractorSoftening;
+    }
+
+    /**
+     * Replaces the attractors of {@code core} with the saved ones and their
+     * softening; leaves the core as it is when none were saved.
+     */
+    void restoreAttractors(SimulationCore core) {
+        if (attractors == null)
+            return;
+        core.clearAttractors();
+        for (Attractor a : attractors())
+            core.addAttractor(a);
+        core.setAttractorSoftening(attractorSoftening);
+    }
+
+    /** Self-gravity coupling the model ran with; 0 when off or not saved. */
+    public double coupling() {
+        return coupling;
+    }
+
+    /** Whether the model saved its random streams. */
+    public boolean hasRandom() {
+        return random;
+    }
+
+    public long randomKey() {
+        return randomKey;
+    }
+
+    public long randomIndex() {
+        return randomIndex;
+    }
+
+    /** Throws unless this snapshot was written by the model called {@code name}. */
+    void requireModel(String name) {
+        if (!model.equals(name))
+            throw new IllegalArgumentException("snapshot is of a " + model + " model, not " + name);
+    }
+
+    // =========================================================================
+    // Restore
+    // =========================================================================
+
+    /** Builds the model this snapshot was taken from, owning its particles. */
+    public SimulationModel restore(ParallelStepper stepper) {
+        return switch (model) {
+            case "gravity" -> new GravityModel(this, stepper, ParticleKernel.load());
+            case "galaxy", "collision" -> new GalaxyModel(this, stepper);
+            case "blackhole" -> new BlackholeModel(this, stepper);
+            default -> throw new IllegalArgumentException("unknown model in snapshot: " + model);
+        };
+    }
+
+    /** Whether {@code -Dgravity.snapshot} names a snapshot for the front ends to resume from. */
+    public static boolean requested() {
+        String path = System.getProperty("gravity.snapshot");
+        return path != null && !path.isEmpty();
+    }
+
+    /**
+     * Reads the snapshot named by {@code -Dgravity.snapshot}, which the Swing
+     * front ends start from; null when the property is not set.
+     */
+    public static Snapshot fromProperties() {
+        String path = System.getProperty("gravity.snapshot");
+        if (path == null || path.isEmpty())
+            return null;
+        try {
+            return read(Paths.get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read snapshot " + path, e);
+        }
+    }
+
+    // =========================================================================
+    // File I/O
+    // =========================================================================
+
+    public void write(Path path) throws IOException {
+        ParticleStore p = particles;
+        int n = p.size();
+        int columns = (p.color != null ? COLOR : 0) | (p.flags != null ? FLAGS : 0)
+                | (attractors != null ? ATTRACTORS : 0) | (random ? RANDOM : 0);
+
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = map(ch, FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(columns);
+            header.putDouble(mass).putDouble(centerX).putDouble(centerY).putLong(counter);
+            header.put(model.getBytes(StandardCharsets.US_ASCII));
+
+            long offset = HEADER_BYTES;
+            for (double[] column : new double[][] { p.x, p.y, p.momentumX, p.momentumY }) {
+                map(ch, FileChannel.MapMode.READ_WRITE, offset, 8L * n).asDoubleBuffer().put(column, 0, n);
+                offset += 8L * n;
+            }
+            if (p.color != null) {
+                map(ch, FileChannel.MapMode.READ_WRITE, offset, 4L * n).asIntBuffer().put(p.color, 0, n);
+                offset += 4L * n;
+            }
+            if (p.flags != null) {
+                map(ch, FileChannel.MapMode.READ_WRITE, offset, n).put(p.flags, 0, n);
+                offset += n;
+            }
+            if (attractors != null) {
+                ByteBuffer table = map(ch, FileChannel.MapMode.READ_WRITE, offset, attractorBytes(attractors.length));
+                table.putDouble(attractorSoftening).putDouble(coupling).putLong(attractors.length);
+                for (Attractor a : attractors)
+                    table.putDouble(a.x()).putDouble(a.y()).putDouble(a.mass()).putDouble(a.velocityX())
+                            .putDouble(a.velocityY()).putLong(a.isPinned() ? 1 : 0);
+                offset += attractorBytes(attractors.length);
+            }
+            if (random)
+                map(ch, FileChannel.MapMode.READ_WRITE, offset, RANDOM_BYTES).putLong(randomKey).putLong(randomIndex);
+        }
+    }
+
+    private static long attractorBytes(long k) {
+        return 24 + ATTRACTOR_BYTES * k;
+    }
+
+    public static Snapshot read(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = ch.size();
+            if (fileSize < HEADER_BYTES)
+                throw new IOException(path + ": not a snapshot (too short)");
+            ByteBuffer header = map(ch, FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC)
+                throw new IOException(path + ": not a snapshot (bad magic)");
+            int version = header.getInt();
+            if (version != 1 && version != VERSION)
+                throw new IOException(path + ": unsupported snapshot version " + version);
+            int n = header.getInt();
+            int columns = header.getInt();
+            double mass = header.getDouble();
+            double centerX = header.getDouble();
+            double centerY = header.getDouble();
+            long counter = header.getLong();
+            byte[] name = new byte[NAME_BYTES];
+            header.get(name);
+            int len = 0;
+            while (len < NAME_BYTES && name[len] != 0)
+                len++;
+            String model = new String(name, 0, len, StandardCharsets.US_ASCII);
+
+            long particleEnd = HEADER_BYTES + 32L * n + ((columns & COLOR) != 0 ? 4L * n : 0)
+                    + ((columns & FLAGS) != 0 ? n : 0);
+            long k = 0;
+            if ((columns & ATTRACTORS) != 0 && n >= 0 && fileSize >= particleEnd + attractorBytes(0))
+                k = map(ch, FileChannel.MapMode.READ_ONLY, particleEnd + 16, 8).getLong();
+            long expected = particleEnd + ((columns & ATTRACTORS) != 0 ? attractorBytes(k) : 0)
+                    + ((columns & RANDOM) != 0 ? RANDOM_BYTES : 0);
+            if (n < 0 || k < 0 || k > Integer.MAX_VALUE || fileSize != expected)
+                throw new IOException(path + ": truncated or corrupt snapshot (" + fileSize + " bytes, expected "
+                        + expected + ")");
+
+            ParticleStore p = new ParticleStore(n);
+            if ((columns & COLOR) != 0)
+                p.enableColor();
+            if ((columns & FLAGS) != 0)
+                p.enableFlags();
+            p.append(n);
+
+            long offset = HEADER_BYTES;
+            for (double[] column : new double[][] { p.x, p.y, p.momentumX, p.momentumY }) {
+                map(ch, FileChannel.MapMode.READ_ONLY, offset, 8L * n).asDoubleBuffer().get(column, 0, n);
+                offset += 8L * n;
+            }
+            if (p.color != null) {
+                map(ch, FileChannel.MapMode.READ_ONLY, offset, 4L * n).asIntBuffer().get(p.color, 0, n);
+                offset += 4L * n;
+            }
+            if (p.flags != null) {
+                map(ch, FileChannel.MapMode.READ_ONLY, offset, n).get(p.flags, 0, n);
+                offset += n;
+            }
+
+            Attractor[] attractors = null;
+            double softening = 0, coupling = 0;
+            if ((columns & ATTRACTORS) != 0) {
+                ByteBuffer table = map(ch, FileChannel.MapMode.READ_ONLY, offset, attractorBytes(k));
+                softening = table.getDouble();
+                coupling = table.getDouble();
+                table.getLong();
+                attractors = new Attractor[(int) k];
+                for (int j = 0; j < k; j++) {
+                    double x = table.getDouble(), y = table.getDouble(), m = table.getDouble();
+                    double vx = table.getDouble(), vy = table.getDouble();
+                    attractors[j] = table.getLong() != 0 ? Attractor.pinned(x, y, m) : Attractor.free(x, y, m, vx, vy);
+                }
+                offset += attractorBytes(k);
+            }
+            boolean random = (columns & RANDOM) != 0;
+            long key = 0, index = 0;
+            if (random) {
+                ByteBuffer section = map(ch, FileChannel.MapMode.READ_ONLY, offset, RANDOM_BYTES);
+                key = section.getLong();
+                index = section.getLong();
+            }
+            return new Snapshot(model, p, mass, centerX, centerY, counter, attractors, softening, coupling, random, key,
+                    index);
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel ch, FileChannel.MapMode mode, long offset, long bytes)
+            throws IOException {
+        MappedByteBuffer buf = ch.map(mode, offset, bytes);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    // =========================================================================
+    // Self-check
+    // =========================================================================
+
+    /**
+     * Round-trips every model through a snapshot file: the file must read
+     * back to the same particles, header and attractors, and a model
+     * restored from it must step on to the same state as the original.
+     * The binary black hole checks that free holes and the respawn streams
+     * resume too. Exits with status 1 otherwise.
+     *
+     * <pre>
+     *   java -Dgravity.seed=1 Snapshot [particles (20000)] [steps (20)]
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        ParallelStepper stepper = new ParallelStepper(2);
+        Path file = Files.createTempFile("gravity-", ".snap");
+        boolean ok = true;
+        try {
+            GravityModel gravity = new GravityModel(stepper, ParticleKernel.load());
+            for (int i = 0; i < n / GravityModel.PATTERN_SIZE; i++)
+                gravity.generateCircle(200 + i % 1100, 150 + i % 500);
+            BlackholeModel binary = new BlackholeModel(n, stepper);
+            binary.core().setBinary(BlackholeModel.WIDTH / 2, BlackholeModel.HEIGHT / 2, 200, BlackholeModel.M / 2);
+            SimulationModel[] models = { gravity, new GalaxyModel(n, stepper), new BlackholeModel(n, stepper),
+                    binary, new GalaxyCollision(3, 200, 0.3).create(n, stepper) };
+            for (SimulationModel model : models) {
+                for (int s = 0; s < steps; s++)
+                    model.step();
+                Snapshot saved = model.snapshot();
+                saved.write(file);
+                Snapshot loaded = read(file);
+                String mismatch = compare(saved, loaded);
+
+                SimulationModel restored = loaded.restore(stepper);
+                for (int s = 0; s < steps; s++) {
+                    model.step();
+                    restored.step();
+                }
+                long expected = model.core().particles().checksum();
+                long actual = restored.core().particles().checksum();
+                if (mismatch == null && expected != actual)
+                    mismatch = String.format("resumed run ends on %016x, not %016x", actual, expected);
+
+                String label = model == binary ? "binary" : model.name();
+                System.out.printf("%-10s %,9d particles, %,11d bytes: %s%n", label, model.particleCount(),
+                        Files.size(file), mismatch == null ? "ok" : "FAIL " + mismatch);
+                ok &= mismatch == null;
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            stepper.shutdown();
+        }
+        if (!ok)
+            System.exit(1);
+    }
+
+    // First difference between two snapshots, or null if they hold the same state
+    private static String compare(Snapshot a, Snapshot b) {
+        if (!a.model.equals(b.model) || a.mass != b.mass || a.centerX != b.centerX || a.centerY != b.centerY
+                || a.counter != b.counter)
+            return "header differs";
+        ParticleStore p = a.particles, q = b.particles;
+        int n = p.size();
+        if (q.size() != n)
+            return "particle count " + q.size() + ", not " + n;
+        if (!Arrays.equals(p.x, 0, n, q.x, 0, n) || !Arrays.equals(p.y, 0, n, q.y, 0, n)
+                || !Arrays.equals(p.momentumX, 0, n, q.momentumX, 0, n)
+                || !Arrays.equals(p.momentumY, 0, n, q.momentumY, 0, n))
+            return "positions or momenta differ";
+        if ((p.color == null) != (q.color == null) || p.color != null && !Arrays.equals(p.color, 0, n, q.color, 0, n))
+            return "colors differ";
+        if ((p.flags == null) != (q.flags == null) || p.flags != null && !Arrays.equals(p.flags, 0, n, q.flags, 0, n))
+            return "flags differ";
+        if (a.random != b.random || a.randomKey != b.randomKey || a.randomIndex != b.randomIndex)
+            return "random streams differ";
+        if ((a.attractors == null) != (b.attractors == null))
+            return "attractor table missing";
+        if (a.attractors != null) {
+            if (a.attractors.length != b.attractors.length || a.attractorSoftening != b.attractorSoftening
+                    || a.coupling != b.coupling)
+                return "attractor table differs";
+            for (int j = 0; j < a.attractors.length; j++) {
+                Attractor s = a.attractors[j], t = b.attractors[j];
+                if (s.x() != t.x() || s.y() != t.y() || s.mass() != t.mass() || s.isPinned() != t.isPinned()
+                        || s.velocityX() != t.velocityX() || s.velocityY() != t.velocityY())
+                    return "attractor " + j + " differs";
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,242 @@
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the world rectangle for short-range neighbor queries,
+ * rebuilt every step.
+ *
+ * The build is a counting sort into flat int arrays. Cell ids are computed
+ * in parallel, then one serial pass counts per cell, a prefix sum turns the
+ * counts into {@link #cellStart} offsets, and a second pass scatters the
+ * particle indices into {@link #order}. Particles of cell {@code c} are
+ * {@code order[cellStart[c] .. cellStart[c + 1])}, in ascending index order.
+ * The positions are gathered into the same order ({@link #sortedX},
+ * {@link #sortedY}). A neighbor scan then reads contiguous memory rather
+ * than jumping around a million-particle column, which turned out to
+ * matter more than the arithmetic. No per-cell objects exist, so a million
+ * particles cost a few flat arrays.
+ *
+ * With the cell size at least the interaction radius, every neighbor of a
+ * particle lies in its own or the eight surrounding cells. Cells are
+ * numbered row-major, so the three cells of each neighbor row form a single
+ * run of sorted slots ({@link #neighborRuns}). That makes a query
+ * O(particles nearby) and a full sweep O(n) at bounded density. Sweeps go
+ * cell by cell ({@link #cellCount()}) so that they can be split across
+ * workers with {@link ParallelStepper#forEach}.
+ * Particles outside the grid, which covers the world rectangle rounded up
+ * to whole cells, go to one extra "outside" cell
+ * ({@link #outsideCell()}). It is never visited as a neighbor cell, so
+ * escaped particles do not pile into the edge cells and turn queries
+ * quadratic.
+ *
+ * The arrays are public for tight loops, like {@link ParticleStore}'s
+ * columns, and are read-only outside {@link #build}.
+ */
+public class SpatialGrid {
+
+    private final double minX;
+    private final double minY;
+    private final double invCell;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+    private final ParallelStepper stepper;
+
+    /** Start of each cell's run of sorted slots; cell c ends at {@code cellStart[c + 1]}. */
+    public final int[] cellStart;
+    /** Particle index in each sorted slot. */
+    public int[] order = new int[0];
+    /** Cell id of each particle, as of the last build. */
+    public int[] cellOf = new int[0];
+    /** Positions in sorted-slot order: {@code sortedX[k] == x[order[k]]}. */
+    public double[] sortedX = new double[0];
+    public double[] sortedY = new double[0];
+
+    private final int[] cursor;
+    private int size;
+
+    public SpatialGrid(double minX, double minY, double width, double height, double cellSize,
+            ParallelStepper stepper) {
+        if (!(cellSize > 0))
+            throw new IllegalArgumentException("cell size must be positive");
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.invCell = 1.0 / cellSize;
+        this.cols = Math.max(1, (int) Math.ceil(width / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        this.stepper = stepper;
+        // in-world cells, the outside cell, and the end sentinel
+        this.cellStart = new int[cols * rows + 2];
+        this.cursor = new int[cols * rows + 1];
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public double cellSize() {
+        return cellSize;
+    }
+
+    /** Number of in-world cells; ids {@code [0, cellCount())}. */
+    public int cellCount() {
+        return cols * rows;
+    }
+
+    /** Cell holding every particle outside the grid. */
+    public int outsideCell() {
+        return cols * rows;
+    }
+
+    /** Particles indexed by the last build. */
+    public int size() {
+        return size;
+    }
+
+    /** Cell id for a position; {@link #outsideCell()} if outside the grid or not finite. */
+    public int cellIndex(double x, double y) {
+        double fx = (x - minX) * invCell;
+        double fy = (y - minY) * invCell;
+        // also false for NaN
+        if (!(fx >= 0 && fx < cols && fy >= 0 && fy < rows))
+            return cols * rows;
+        return (int) fy * cols + (int) fx;
+    }
+
+    /**
+     * Writes the sorted-slot runs covering in-world cell {@code c} and its
+     * eight neighbors into {@code runs} as {@code from, to} pairs, one pair
+     * per neighbor row, and returns the number of pairs (at most 3).
+     */
+    public int neighborRuns(int c, int[] runs) {
+        int cx = c % cols, cy = c / cols;
+        int x0 = Math.max(cx - 1, 0), x1 = Math.min(cx + 1, cols - 1);
+        int pairs = 0;
+        for (int gy = Math.max(cy - 1, 0); gy <= Math.min(cy + 1, rows - 1); gy++) {
+            runs[2 * pairs] = cellStart[gy * cols + x0];
+            runs[2 * pairs + 1] = cellStart[gy * cols + x1 + 1];
+            pairs++;
+        }
+        return pairs;
+    }
+
+    // =========================================================================
+    // Build
+    // =========================================================================
+
+    /** Re-sorts the first {@code n} particles into cells. */
+    public void build(double[] xs, double[] ys, int n) {
+        if (order.length < n) {
+            int cap = Math.max(n, order.length + (order.length >> 1));
+            order = new int[cap];
+            cellOf = new int[cap];
+            sortedX = new double[cap];
+            sortedY = new double[cap];
+        }
+        size = n;
+
+        // 1. Cell ids (parallel: each particle writes only its own slot)
+        int[] cells = cellOf;
+        stepper.forEach(n, (from, to) -> {
+            for (int i = from; i < to; i++)
+                cells[i] = cellIndex(xs[i], ys[i]);
+        });
+
+        // 2. Counts, shifted by one so the prefix sum yields start offsets
+        int[] start = cellStart;
+        Arrays.fill(start, 0);
+        for (int i = 0; i < n; i++)
+            start[cells[i] + 1]++;
+        for (int c = 1; c < start.length; c++)
+            start[c] += start[c - 1];
+
+        // 3. Stable scatter
+        int[] next = cursor;
+        System.arraycopy(start, 0, next, 0, next.length);
+        int[] sorted = order;
+        for (int i = 0; i < n; i++)
+            sorted[next[cells[i]]++] = i;
+
+        // 4. Gather positions into slot order (parallel)
+        double[] sx = sortedX, sy = sortedY;
+        stepper.forEach(n, (from, to) -> {
+            for (int k = from; k < to; k++) {
+                int i = sorted[k];
+                sx[k] = xs[i];
+                sy[k] = ys[i];
+            }
+        });
+    }
+
+    // =========================================================================
+    // Queries
+    // =========================================================================
+
+    /**
+     * Writes into {@code out[0..n)}, in sorted-slot order, each particle's
+     * SPH-style density: the sum of {@code (1 - r / h)^2} over every particle
+     * within {@code h}, counting itself, so an isolated particle has density
+     * 1. Particles in the outside cell get 1. Runs in parallel over cells;
+     * {@code h} must not exceed the cell size.
+     */
+    public void density(double h, double[] out) {
+        if (h > cellSize)
+            throw new IllegalArgumentException("radius " + h + " exceeds cell size " + cellSize);
+        double invH = 1.0 / h;
+        double hSq = h * h;
+        double[] sx = sortedX, sy = sortedY;
+        Arrays.fill(out, cellStart[cols * rows], size, 1.0);
+        stepper.forEach(cols * rows, (c0, c1) -> {
+            int[] runs = new int[6];
+            for (int c = c0; c < c1; c++) {
+                int first = cellStart[c], last = cellStart[c + 1];
+                if (first == last)
+                    continue;
+                int pairs = neighborRuns(c, runs);
+                for (int k = first; k < last; k++) {
+                    double x = sx[k], y = sy[k];
+                    double sum = 0;
+                    for (int p = 0; p < pairs; p++) {
+                        for (int j = runs[2 * p], end = runs[2 * p + 1]; j < end; j++) {
+                            double dx = sx[j] - x, dy = sy[j] - y;
+                            double dSq = dx * dx + dy * dy;
+                            if (dSq < hSq) {
+                                double q = 1 - Math.sqrt(dSq) * invH;
+                                sum += q * q;
+                            }
+                        }
+                    }
+                    out[k] = sum;
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes into {@code out[0..n)}, in sorted-slot order, the number of
+     * particles in each particle's own and neighboring cells, itself
+     * included. This is a coarse density that costs O(1) per particle however
+     * crowded the cells are, good enough for shading. Particles in the
+     * outside cell get 1.
+     */
+    public void blockCounts(double[] out) {
+        Arrays.fill(out, cellStart[cols * rows], size, 1.0);
+        stepper.forEach(cols * rows, (c0, c1) -> {
+            int[] runs = new int[6];
+            for (int c = c0; c < c1; c++) {
+                int first = cellStart[c], last = cellStart[c + 1];
+                if (first == last)
+                    continue;
+                int pairs = neighborRuns(c, runs);
+                int count = 0;
+                for (int p = 0; p < pairs; p++)
+                    count += runs[2 * p + 1] - runs[2 * p];
+                Arrays.fill(out, first, last, count);
+            }
+        });
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spawn requests for a {@link GravityModel}, collected from input handling
+ * and applied by the loop thread at the next step boundary.
+ *
+ * {@link #add} may be called from any thread at any time. {@link #drainInto}
+ * runs between two steps and takes everything pending. It reserves room for
+ * all of it at once, so a burst of requests costs at most one reallocation.
+ * Then it spawns each request as one {@link BulkSpawn}, in the order the
+ * requests were made. Spawns never land in the middle of a step, and many
+ * small requests grow the store once rather than once per pattern.
+ */
+public final class SpawnQueue {
+
+    private static final class Request {
+        final GravityModel.Pattern pattern;
+        final int x, y, count;
+
+        Request(GravityModel.Pattern pattern, int x, int y, int count) {
+            this.pattern = pattern;
+            this.x = x;
+            this.y = y;
+            this.count = count;
+        }
+    }
+
+    private List<Request> pending = new ArrayList<>();
+    private List<Request> draining = new ArrayList<>();
+    private int pendingParticles = 0;
+
+    /** Queues {@code count} particles in {@code pattern} around ({@code x}, {@code y}). */
+    public synchronized void add(GravityModel.Pattern pattern, int x, int y, int count) {
+        if (count <= 0)
+            return;
+        pending.add(new Request(pattern, x, y, count));
+        pendingParticles += count;
+    }
+
+    /** Particles requested but not yet spawned. */
+    public synchronized int pendingParticles() {
+        return pendingParticles;
+    }
+
+    /**
+     * Spawns everything queued so far into {@code model} and returns how
+     * many particles that was. Only the loop thread may call this.
+     */
+    public int drainInto(GravityModel model) {
+        int total;
+        List<Request> batch;
+        synchronized (this) {
+            if (pending.isEmpty())
+                return 0;
+            // Swap lists, so input can queue more while this batch spawns
+            batch = pending;
+            pending = draining;
+            draining = batch;
+            total = pendingParticles;
+            pendingParticles = 0;
+        }
+        ParticleStore store = model.particles();
+        store.ensureCapacity(store.size() + total);
+        for (Request r : batch)
+            model.spawn(r.pattern, r.x, r.y, r.count);
+        batch.clear();
+        return total;
+    }
+}
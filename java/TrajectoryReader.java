@@ -0,0 +1,496 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Random-access decoder for files written by {@link TrajectoryRecorder}.
+ *
+ * The reader is a cursor: {@link #seek(int)} positions it and {@link #next()}
+ * decodes one frame into {@link #positions()}, {@link #colors()} and the
+ * attractor accessors. Playing forward costs one
+ * pass over each frame's bytes. A seek restarts from the keyframe at the
+ * head of the target's chunk, so it decodes at most one chunk of frames.
+ *
+ * Inflating a chunk is the expensive part. It runs on a background thread:
+ * entering a chunk queues the next {@value #PREFETCH_CHUNKS} for inflation,
+ * and only the chunks around the cursor are kept in memory. Everything
+ * apart from prefetching runs on the caller's thread.
+ */
+public class TrajectoryReader implements AutoCloseable {
+
+    private static final int PREFETCH_CHUNKS = 2;
+
+    /** One chunk's three streams, inflated. */
+    private static final class Chunk {
+        final byte[][] streams = new byte[TrajectoryRecorder.STREAMS][];
+    }
+
+    private final FileChannel channel;
+    private final String model;
+    private final int version;
+    private final int chunkCount;
+    private final int frameCount;
+    // Chunk index, from the end of the file
+    private final long[] chunkOffset;
+    private final int[] chunkFirstFrame;
+    private final int[] chunkFrames;
+
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "trajectory-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+    // Chunks inflated or being inflated, least recently used first
+    private final Map<Integer, CompletableFuture<Chunk>> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CompletableFuture<Chunk>> eldest) {
+            return size() > PREFETCH_CHUNKS + 2;
+        }
+    };
+
+    // ---------- Cursor -------------------------------------------------------
+    private int nextFrame;
+    private int frame = -1;
+    private long step;
+    private double time;
+    private int count;
+    private float[] xy = new float[0];
+    private int attractorCount;
+    private double[] attractorXY = new double[0];
+    // Color column of the current chunk's last keyframe, or null
+    private int[] colors;
+    private boolean hasColors;
+    private int[] bits = new int[0];
+    // Chunk being decoded and the read offsets of the next frame in its streams
+    private int chunkIndex = -1;
+    private Chunk chunk;
+    private int topPos, middlePos, lowPos;
+
+    public TrajectoryReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, TrajectoryRecorder.HEADER_BYTES);
+            if (header.getInt() != TrajectoryRecorder.MAGIC)
+                throw new IOException(path + ": not a trajectory (bad magic)");
+            version = header.getInt();
+            if (version < 1 || version > TrajectoryRecorder.VERSION)
+                throw new IOException(path + ": unsupported trajectory version " + version);
+            header.position(16);
+            byte[] name = new byte[TrajectoryRecorder.NAME_BYTES];
+            header.get(name);
+            int len = 0;
+            while (len < name.length && name[len] != 0)
+                len++;
+            model = new String(name, 0, len, StandardCharsets.US_ASCII);
+
+            long size = channel.size();
+            ByteBuffer trailer = read(size - TrajectoryRecorder.TRAILER_BYTES, TrajectoryRecorder.TRAILER_BYTES);
+            long indexOffset = trailer.getLong();
+            chunkCount = trailer.getInt();
+            if (trailer.getInt() != TrajectoryRecorder.INDEX_MAGIC)
+                throw new IOException(path + ": no chunk index (recording not closed?)");
+
+            ByteBuffer index = read(indexOffset, chunkCount * TrajectoryRecorder.INDEX_ENTRY_BYTES);
+            chunkOffset = new long[chunkCount];
+            chunkFirstFrame = new int[chunkCount];
+            chunkFrames = new int[chunkCount];
+            for (int c = 0; c < chunkCount; c++) {
+                chunkOffset[c] = index.getLong();
+                index.getLong(); // first step of the chunk; frames carry their own
+                chunkFirstFrame[c] = index.getInt();
+                chunkFrames[c] = index.getInt();
+            }
+            frameCount = chunkCount == 0 ? 0 : chunkFirstFrame[chunkCount - 1] + chunkFrames[chunkCount - 1];
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** {@link SimulationModel#name()} of the recorded model. */
+    public String model() {
+        return model;
+    }
+
+    public int frameCount() {
+        return frameCount;
+    }
+
+    /** Index of the frame last decoded by {@link #next()}, or -1. */
+    public int frame() {
+        return frame;
+    }
+
+    /** Simulation step the current frame was recorded at. */
+    public long step() {
+        return step;
+    }
+
+    /** Simulated time of the current frame; 0 in version 1 files. */
+    public double time() {
+        return time;
+    }
+
+    /** Particles in the current frame. */
+    public int count() {
+        return count;
+    }
+
+    /** Current frame: x in {@code [0, count)}, y in {@code [count, 2 * count)}; overwritten by the next decode. */
+    public float[] positions() {
+        return xy;
+    }
+
+    /**
+     * Colors of the current frame's particles, or null if the model has no
+     * color column or the file is version 1; overwritten at the next keyframe.
+     */
+    public int[] colors() {
+        return hasColors ? colors : null;
+    }
+
+    /** Attractors in the current frame; 0 in version 1 files. */
+    public int attractorCount() {
+        return attractorCount;
+    }
+
+    public double attractorX(int j) {
+        return attractorXY[2 * j];
+    }
+
+    public double attractorY(int j) {
+        return attractorXY[2 * j + 1];
+    }
+
+    // =========================================================================
+    // Cursor
+    // =========================================================================
+
+    /** Positions the cursor so that the next {@link #next()} decodes {@code target}. */
+    public void seek(int target) throws IOException {
+        target = Math.max(0, Math.min(target, frameCount));
+        int c = chunkOf(target);
+        if (c < 0) { // past the end
+            nextFrame = frameCount;
+            return;
+        }
+        // Decoding forward within the current chunk is cheaper than restarting it
+        if (c != chunkIndex || target < nextFrame)
+            enterChunk(c);
+        skip(target - nextFrame);
+    }
+
+    /** Decodes the next frame; false when the recording has ended. */
+    public boolean next() throws IOException {
+        if (nextFrame >= frameCount)
+            return false;
+        if (chunkIndex < 0 || nextFrame >= chunkFirstFrame[chunkIndex] + chunkFrames[chunkIndex])
+            enterChunk(chunkOf(nextFrame));
+        decode();
+        return true;
+    }
+
+    private void skip(int frames) throws IOException {
+        for (int i = 0; i < frames; i++)
+            next();
+    }
+
+    /** Chunk holding {@code target}, or -1 past the last frame. */
+    private int chunkOf(int target) {
+        if (target >= frameCount)
+            return -1;
+        int c = Arrays.binarySearch(chunkFirstFrame, target);
+        return c >= 0 ? c : -c - 2;
+    }
+
+    private void enterChunk(int c) throws IOException {
+        chunk = await(request(c));
+        chunkIndex = c;
+        nextFrame = chunkFirstFrame[c];
+        topPos = middlePos = lowPos = 0;
+        for (int p = 1; p <= PREFETCH_CHUNKS && c + p < chunkCount; p++)
+            request(c + p);
+    }
+
+    private void decode() {
+        byte[] top = chunk.streams[TrajectoryRecorder.TOP];
+        byte[] middle = chunk.streams[TrajectoryRecorder.MIDDLE];
+        byte[] low = chunk.streams[TrajectoryRecorder.LOW];
+        ByteBuffer head = ByteBuffer.wrap(top, topPos, top.length - topPos).order(ByteOrder.LITTLE_ENDIAN);
+        long frameStep = head.getLong();
+        double frameTime = version > 1 ? head.getDouble() : 0;
+        int n = head.getInt();
+        int w = 2 * n;
+        boolean keyframe = nextFrame == chunkFirstFrame[chunkIndex] || n != count;
+        if (bits.length < w) {
+            bits = Arrays.copyOf(bits, w);
+            xy = new float[w];
+        }
+        if (keyframe)
+            Arrays.fill(bits, 0, w, 0);
+        if (version > 1) {
+            int k = head.getInt();
+            boolean color = head.getInt() != 0;
+            if (attractorXY.length < 2 * k)
+                attractorXY = new double[2 * k];
+            for (int j = 0; j < 2 * k; j++)
+                attractorXY[j] = head.getDouble();
+            attractorCount = k;
+            if (keyframe) {
+                hasColors = color;
+                if (color) {
+                    if (colors == null || colors.length < n)
+                        colors = new int[n];
+                    head.asIntBuffer().get(colors, 0, n);
+                    head.position(head.position() + 4 * n);
+                }
+            }
+        }
+
+        int[] b = bits;
+        float[] out = xy;
+        int t = head.position(), m = middlePos, l = lowPos;
+        for (int j = 0; j < w; j++) {
+            int z = (top[t + j] & 0xFF) << 24 | (middle[m + j] & 0xFF) << 16
+                    | (low[l + j] & 0xFF) << 8 | (low[l + w + j] & 0xFF);
+            b[j] += (z >>> 1) ^ -(z & 1);
+            out[j] = Float.intBitsToFloat(b[j]);
+        }
+        topPos = t + w;
+        middlePos = m + w;
+        lowPos = l + 2 * w;
+
+        step = frameStep;
+        time = frameTime;
+        count = n;
+        frame = nextFrame++;
+    }
+
+    // =========================================================================
+    // Chunk loading
+    // =========================================================================
+
+    private CompletableFuture<Chunk> request(int c) {
+        synchronized (cache) {
+            return cache.computeIfAbsent(c, k -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return load(k);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, prefetcher));
+        }
+    }
+
+    private static Chunk await(CompletableFuture<Chunk> future) throws IOException {
+        try {
+            return future.join();
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            throw new IOException("cannot decode trajectory chunk", cause);
+        }
+    }
+
+    private Chunk load(int c) throws IOException {
+        ByteBuffer head = read(chunkOffset[c], TrajectoryRecorder.CHUNK_HEADER_BYTES);
+        int[] rawBytes = new int[TrajectoryRecorder.STREAMS];
+        int[] storedBytes = new int[TrajectoryRecorder.STREAMS];
+        int total = 0;
+        for (int s = 0; s < TrajectoryRecorder.STREAMS; s++) {
+            rawBytes[s] = head.getInt();
+            storedBytes[s] = head.getInt();
+            total += storedBytes[s];
+        }
+        ByteBuffer body = read(chunkOffset[c] + TrajectoryRecorder.CHUNK_HEADER_BYTES, total);
+
+        Chunk chunk = new Chunk();
+        Inflater inflater = new Inflater();
+        try {
+            for (int s = 0; s < TrajectoryRecorder.STREAMS; s++) {
+                byte[] stored = new byte[storedBytes[s]];
+                body.get(stored);
+                if (s == TrajectoryRecorder.LOW) {
+                    chunk.streams[s] = stored;
+                    continue;
+                }
+                byte[] raw = new byte[rawBytes[s]];
+                inflater.reset();
+                inflater.setInput(stored);
+                int len = 0;
+                while (len < raw.length && !inflater.finished())
+                    len += inflater.inflate(raw, len, raw.length - len);
+                if (len != raw.length)
+                    throw new IOException("truncated trajectory chunk " + c);
+                chunk.streams[s] = raw;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt trajectory chunk " + c, e);
+        } finally {
+            inflater.end();
+        }
+        return chunk;
+    }
+
+    private ByteBuffer read(long offset, int bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0)
+                throw new EOFException("trajectory ends at " + (offset + buf.position()));
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public void close() throws IOException {
+        prefetcher.shutdownNow();
+        channel.close();
+    }
+
+    // =========================================================================
+    // Self-check
+    // =========================================================================
+
+    /**
+     * Records a gravity run that grows every step and a galaxy collision,
+     * whose stars carry colors and whose cores move, then requires every
+     * frame to decode to exactly the float32 positions, step, time,
+     * attractors and colors it was recorded with, reading in order and
+     * again after seeks in both directions. Exits with status 1 otherwise.
+     *
+     * <pre>
+     *   java TrajectoryReader [frames (100)]
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        ParallelStepper stepper = new ParallelStepper(2);
+        String failure = null;
+        try {
+            GravityModel gravity = new GravityModel(stepper, ParticleKernel.load());
+            failure = roundTrip(gravity, frames, f -> gravity.generateCircle(300 + 7 * f, 400));
+            if (failure == null)
+                failure = roundTrip(new GalaxyCollision(2, 200, 0.3).create(2000, stepper), frames, f -> {
+                });
+        } finally {
+            stepper.shutdown();
+        }
+        if (failure != null)
+            System.exit(1);
+    }
+
+    /** What was recorded as one frame. */
+    private static final class Expected {
+        final long step;
+        final double time;
+        final float[] xy;
+        final double[] attractors;
+        final int[] colors;
+
+        Expected(long step, double time, float[] xy, double[] attractors, int[] colors) {
+            this.step = step;
+            this.time = time;
+            this.xy = xy;
+            this.attractors = attractors;
+            this.colors = colors;
+        }
+    }
+
+    // Records frames of model, calling before(f) ahead of each step, and reads them back
+    private static String roundTrip(SimulationModel model, int frames, IntConsumer before)
+            throws IOException {
+        Path file = Files.createTempFile("gravity-", ".trj");
+        List<Expected> expected = new ArrayList<>();
+        String failure = null;
+        try {
+            // Pool as deep as the run, so the writer never has to drop a frame
+            try (TrajectoryRecorder recorder = new TrajectoryRecorder(file, model.name(), frames, 8)) {
+                for (int f = 0; f < frames; f++) {
+                    before.accept(f);
+                    model.step();
+                    SimulationCore core = model.core();
+                    ParticleStore p = core.particles();
+                    float[] xy = new float[2 * p.size()];
+                    for (int i = 0; i < p.size(); i++) {
+                        xy[i] = (float) p.x[i];
+                        xy[p.size() + i] = (float) p.y[i];
+                    }
+                    double[] attractors = new double[2 * core.attractorCount()];
+                    for (int j = 0; j < core.attractorCount(); j++) {
+                        attractors[2 * j] = core.attractor(j).x();
+                        attractors[2 * j + 1] = core.attractor(j).y();
+                    }
+                    int[] colors = p.color == null ? null : Arrays.copyOf(p.color, p.size());
+                    expected.add(new Expected(f, core.simulatedTime(), xy, attractors, colors));
+                    if (!recorder.record(f, model))
+                        throw new IllegalStateException("frame " + f + " dropped");
+                }
+            }
+
+            try (TrajectoryReader reader = new TrajectoryReader(file)) {
+                if (reader.frameCount() != frames)
+                    failure = reader.frameCount() + " frames, not " + frames;
+                for (int f = 0; failure == null && reader.next(); f++)
+                    failure = check(reader, f, expected.get(f));
+                int[] seeks = { frames - 1, 0, frames / 2, frames / 2 - 1, 9, 8, 7, frames - 9 };
+                for (int i = 0; failure == null && i < seeks.length; i++) {
+                    int f = Math.max(0, Math.min(frames - 1, seeks[i]));
+                    reader.seek(f);
+                    reader.next();
+                    failure = check(reader, f, expected.get(f));
+                }
+            }
+            System.out.printf("%s: %,d frames, %,d bytes: %s%n", model.name(), frames, Files.size(file),
+                    failure == null ? "ok" : "FAIL " + failure);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        return failure;
+    }
+
+    // Difference between the reader's current frame and what was recorded as frame f, or null
+    private static String check(TrajectoryReader reader, int f, Expected e) {
+        if (reader.frame() != f || reader.step() != e.step)
+            return "frame " + f + " decoded as frame " + reader.frame() + ", step " + reader.step();
+        if (reader.time() != e.time)
+            return "frame " + f + " has time " + reader.time() + ", not " + e.time;
+        float[] xy = e.xy;
+        if (reader.count() * 2 != xy.length)
+            return "frame " + f + " has " + reader.count() + " particles, not " + xy.length / 2;
+        float[] got = reader.positions();
+        for (int i = 0; i < xy.length; i++)
+            if (Float.floatToRawIntBits(got[i]) != Float.floatToRawIntBits(xy[i]))
+                return "frame " + f + " differs at coordinate " + i;
+        double[] a = e.attractors;
+        if (reader.attractorCount() * 2 != a.length)
+            return "frame " + f + " has " + reader.attractorCount() + " attractors, not " + a.length / 2;
+        for (int j = 0; j < a.length / 2; j++)
+            if (reader.attractorX(j) != a[2 * j] || reader.attractorY(j) != a[2 * j + 1])
+                return "frame " + f + " moves attractor " + j;
+        int[] colors = reader.colors();
+        if ((colors == null) != (e.colors == null)
+                || colors != null && !Arrays.equals(colors, 0, reader.count(), e.colors, 0, reader.count()))
+            return "frame " + f + " has other colors";
+        return null;
+    }
+}
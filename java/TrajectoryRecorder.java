@@ -0,0 +1,416 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Streams particle positions to disk, one frame per recorded step.
+ *
+ * {@link #record} runs on the simulation thread. It copies the positions
+ * into a float[] frame taken from a fixed pool and hands the frame to a
+ * writer thread. Each frame also carries the attractor positions and the
+ * simulated time, and each keyframe the particles' color column, so that
+ * {@link ReplaySimulation} can draw the frames with the model's own
+ * renderer. It never waits: when the pool is exhausted because the
+ * disk or the compressor has fallen behind, the frame is dropped and
+ * counted in {@link #droppedFrames()}. The pool is sized by
+ * {@code capacityFrames}, so memory stays bounded.
+ *
+ * The writer groups frames into chunks of {@code framesPerChunk}. The first
+ * frame of a chunk is a keyframe; every later frame stores, per coordinate,
+ * the zigzagged difference between its float32 bits and the previous
+ * frame's. For a particle that moved a little that difference is small, so
+ * its high bytes are mostly zero. The differences are split into byte planes
+ * and each plane goes to the stream that suits it:
+ * <ul>
+ * <li>the top byte is almost all zeros and goes through full deflate;</li>
+ * <li>the next byte is skewed but unrepetitive, so it goes through
+ * Huffman-only deflate, which codes the skew without searching for
+ * matches that are not there;</li>
+ * <li>the two low bytes are close to random and are stored as-is.</li>
+ * </ul>
+ * A chunk index at the end of the file lets a reader seek to any frame by
+ * decoding a single chunk.
+ *
+ * <pre>
+ *   file    := header chunk* index trailer
+ *   header  := int magic "GRVT", int version, int framesPerChunk, int 0, byte[16] model name
+ *   chunk   := 3 x (int rawBytes, int storedBytes), then the top, middle and low streams
+ *   top     := deflated; per frame: long step, double time, int n, int k, int hasColor,
+ *              k x (double x, double y) attractors, int[n] color if hasColor, plane 3
+ *   middle  := deflated (Huffman only); per frame: plane 2
+ *   low     := stored; per frame: plane 1, plane 0
+ *   plane k := byte k of each of the 2n differences, x[0..n) then y[0..n)
+ *   index   := per chunk: long fileOffset, long firstStep, int firstFrame, int frames
+ *   trailer := long indexOffset, int chunkCount, int magic "GRVI"
+ * </pre>
+ *
+ * A frame is a keyframe (difference from zero) when it starts a chunk or when
+ * the particle count changed. Colors are stored with keyframes only, since
+ * they do not change while the particle count stays the same, and apply to
+ * the frames up to the next keyframe. All values are little-endian.
+ * Version 1 files have no time, attractors or colors.
+ */
+public class TrajectoryRecorder implements AutoCloseable {
+
+    static final int MAGIC = 0x54565247; // "GRVT" read little-endian
+    static final int INDEX_MAGIC = 0x49565247; // "GRVI"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 32;
+    static final int NAME_BYTES = 16;
+    // Streams of a chunk, in file order
+    static final int TOP = 0;
+    static final int MIDDLE = 1;
+    static final int LOW = 2;
+    static final int STREAMS = 3;
+    static final int CHUNK_HEADER_BYTES = 8 * STREAMS;
+    static final int INDEX_ENTRY_BYTES = 24;
+    static final int TRAILER_BYTES = 16;
+    // Fixed part of a frame's entry in the top stream
+    static final int FRAME_HEAD_BYTES = 28;
+
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int DEFAULT_FRAMES_PER_CHUNK = 32;
+
+    /** One pooled frame: a copy of the positions of {@code count} particles. */
+    private static final class Frame {
+        long step;
+        double time;
+        int count;
+        boolean keyframe;
+        float[] xy = new float[0]; // x[0..count) then y[0..count)
+        int attractors;
+        double[] attractorXY = new double[0]; // x, y of each attractor
+        int[] color; // keyframes of models with a color column only, else null
+    }
+
+    private static final Frame END = new Frame();
+
+    private final FileChannel channel;
+    private final int framesPerChunk;
+    private final ArrayBlockingQueue<Frame> free;
+    private final ArrayBlockingQueue<Frame> full;
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // ---------- Counters -----------------------------------------------------
+    private volatile long recordedFrames;
+    private volatile long droppedFrames;
+    private volatile long writtenBytes;
+
+    // ---------- Simulation-thread state -----------------------------------
+    // Frames queued so far and the particle count of the last, to pick keyframes
+    private long queuedFrames;
+    private int queuedCount = -1;
+
+    // ---------- Writer-thread state -----------------------------------------
+    private final Deflater[] deflaters = { new Deflater(Deflater.BEST_SPEED), huffmanOnly(), null };
+    private final byte[][] streams = new byte[STREAMS][0];
+    private final int[] streamLength = new int[STREAMS];
+    private final byte[][] compressed = new byte[STREAMS][0];
+    private final List<long[]> index = new ArrayList<>();
+    private int[] previous = new int[0];
+    private int[] words = new int[0];
+    private int chunkFrames;
+    private long chunkFirstStep;
+    private int framesWritten;
+    private long fileOffset;
+
+    public TrajectoryRecorder(Path path, String model) throws IOException {
+        this(path, model, DEFAULT_CAPACITY, DEFAULT_FRAMES_PER_CHUNK);
+    }
+
+    public TrajectoryRecorder(Path path, String model, int capacityFrames, int framesPerChunk) throws IOException {
+        if (capacityFrames < 1 || framesPerChunk < 1)
+            throw new IllegalArgumentException("capacity and chunk size must be positive");
+        this.framesPerChunk = framesPerChunk;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(framesPerChunk).putInt(0);
+        byte[] name = model.getBytes(StandardCharsets.US_ASCII);
+        header.put(name, 0, Math.min(name.length, NAME_BYTES));
+        header.rewind();
+        writeFully(header);
+
+        this.free = new ArrayBlockingQueue<>(capacityFrames);
+        this.full = new ArrayBlockingQueue<>(capacityFrames + 1);
+        for (int i = 0; i < capacityFrames; i++)
+            free.add(new Frame());
+
+        this.writer = new Thread(this::drain, "trajectory-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens a recorder on {@code -Dgravity.record=FILE} for the Swing front
+     * ends, closed by a shutdown hook when the window exits; null when the
+     * property is not set.
+     */
+    public static TrajectoryRecorder fromProperties(String model) {
+        String path = System.getProperty("gravity.record");
+        if (path == null || path.isEmpty())
+            return null;
+        try {
+            TrajectoryRecorder recorder = new TrajectoryRecorder(Paths.get(path), model);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    recorder.close();
+                } catch (IOException e) {
+                    System.err.println("Trajectory recording failed: " + e.getMessage());
+                }
+            }));
+            return recorder;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot record to " + path, e);
+        }
+    }
+
+    public long recordedFrames() {
+        return recordedFrames;
+    }
+
+    public long droppedFrames() {
+        return droppedFrames;
+    }
+
+    /** Compressed bytes written so far, excluding the header and index. */
+    public long writtenBytes() {
+        return writtenBytes;
+    }
+
+    private static Deflater huffmanOnly() {
+        Deflater d = new Deflater(Deflater.BEST_SPEED);
+        d.setStrategy(Deflater.HUFFMAN_ONLY);
+        return d;
+    }
+
+    // =========================================================================
+    // Simulation thread
+    // =========================================================================
+
+    /**
+     * Queues the current state of {@code model} as the frame for
+     * {@code step}. Returns false, without blocking, if the frame was dropped
+     * because the writer is behind or the recorder is closed.
+     */
+    public boolean record(long step, SimulationModel model) {
+        Frame f = closed ? null : free.poll();
+        if (f == null) {
+            droppedFrames++;
+            return false;
+        }
+        SimulationCore core = model.core();
+        ParticleStore store = core.particles();
+        int n = store.size();
+        if (f.xy.length < 2 * n)
+            f.xy = new float[Math.max(2 * n, f.xy.length + (f.xy.length >> 1))];
+        float[] xy = f.xy;
+        double[] xs = store.x, ys = store.y;
+        for (int i = 0; i < n; i++) {
+            xy[i] = (float) xs[i];
+            xy[n + i] = (float) ys[i];
+        }
+        int k = core.attractorCount();
+        if (f.attractorXY.length < 2 * k)
+            f.attractorXY = new double[2 * k];
+        for (int j = 0; j < k; j++) {
+            f.attractorXY[2 * j] = core.attractor(j).x();
+            f.attractorXY[2 * j + 1] = core.attractor(j).y();
+        }
+        // Dropped frames never reach the writer, so it sees the keyframes counted here
+        f.keyframe = queuedFrames % framesPerChunk == 0 || n != queuedCount;
+        f.color = null;
+        if (f.keyframe && store.color != null)
+            f.color = Arrays.copyOf(store.color, n);
+        f.step = step;
+        f.time = core.simulatedTime();
+        f.count = n;
+        f.attractors = k;
+        queuedFrames++;
+        queuedCount = n;
+        full.add(f); // never full: it holds at most every pooled frame plus END
+        recordedFrames++;
+        return true;
+    }
+
+    /** Writes the frames still queued, the last partial chunk and the index, then closes the file. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        full.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure == null)
+                writeIndex();
+        } finally {
+            for (Deflater d : deflaters)
+                if (d != null)
+                    d.end();
+            channel.close();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    // =========================================================================
+    // Writer thread
+    // =========================================================================
+
+    private void drain() {
+        try {
+            while (true) {
+                Frame f = full.take();
+                if (f == END)
+                    break;
+                if (failure == null) {
+                    try {
+                        encode(f);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                free.add(f);
+            }
+            if (failure == null && chunkFrames > 0)
+                flushChunk();
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void encode(Frame f) throws IOException {
+        int n = f.count;
+        int w = 2 * n;
+        if (chunkFrames == 0)
+            chunkFirstStep = f.step;
+        boolean keyframe = f.keyframe;
+        if (previous.length < w) {
+            previous = new int[w];
+            words = new int[w];
+        }
+        int headBytes = FRAME_HEAD_BYTES + 16 * f.attractors + (f.color != null ? 4 * n : 0);
+        reserve(TOP, headBytes + w);
+        reserve(MIDDLE, w);
+        reserve(LOW, 2 * w);
+
+        ByteBuffer head = ByteBuffer.wrap(streams[TOP], streamLength[TOP], headBytes).order(ByteOrder.LITTLE_ENDIAN);
+        head.putLong(f.step).putDouble(f.time).putInt(n).putInt(f.attractors).putInt(f.color != null ? 1 : 0);
+        for (int j = 0; j < 2 * f.attractors; j++)
+            head.putDouble(f.attractorXY[j]);
+        if (f.color != null)
+            head.asIntBuffer().put(f.color, 0, n);
+
+        // Zigzagged difference of the float bits from the previous frame (or
+        // from zero for a keyframe), then its four byte planes. Separate
+        // simple loops let the JIT vectorise each pass.
+        float[] xy = f.xy;
+        int[] prev = previous, z = words;
+        if (keyframe)
+            Arrays.fill(prev, 0, w, 0);
+        for (int j = 0; j < w; j++) {
+            int bits = Float.floatToRawIntBits(xy[j]);
+            int d = bits - prev[j];
+            prev[j] = bits;
+            z[j] = (d << 1) ^ (d >> 31);
+        }
+        byte[] top = streams[TOP], middle = streams[MIDDLE], low = streams[LOW];
+        int t = streamLength[TOP] + headBytes, m = streamLength[MIDDLE], l = streamLength[LOW];
+        for (int j = 0; j < w; j++)
+            top[t + j] = (byte) (z[j] >>> 24);
+        for (int j = 0; j < w; j++)
+            middle[m + j] = (byte) (z[j] >>> 16);
+        for (int j = 0; j < w; j++)
+            low[l + j] = (byte) (z[j] >>> 8);
+        for (int j = 0; j < w; j++)
+            low[l + w + j] = (byte) z[j];
+        streamLength[TOP] = t + w;
+        streamLength[MIDDLE] = m + w;
+        streamLength[LOW] = l + 2 * w;
+
+        if (++chunkFrames == framesPerChunk)
+            flushChunk();
+    }
+
+    private void reserve(int stream, int bytes) {
+        int need = streamLength[stream] + bytes;
+        if (streams[stream].length < need)
+            streams[stream] = Arrays.copyOf(streams[stream], Math.max(need, streams[stream].length * 2));
+    }
+
+    private void flushChunk() throws IOException {
+        index.add(new long[] { fileOffset, chunkFirstStep, framesWritten, chunkFrames });
+        ByteBuffer head = ByteBuffer.allocate(CHUNK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer[] bodies = new ByteBuffer[STREAMS];
+        for (int s = 0; s < STREAMS; s++) {
+            bodies[s] = deflaters[s] == null ? ByteBuffer.wrap(streams[s], 0, streamLength[s])
+                    : deflate(s);
+            head.putInt(streamLength[s]).putInt(bodies[s].remaining());
+            streamLength[s] = 0;
+        }
+        head.flip();
+        writtenBytes += head.remaining();
+        writeFully(head);
+        for (ByteBuffer body : bodies) {
+            writtenBytes += body.remaining();
+            writeFully(body);
+        }
+
+        framesWritten += chunkFrames;
+        chunkFrames = 0;
+    }
+
+    private ByteBuffer deflate(int s) {
+        Deflater deflater = deflaters[s];
+        deflater.reset();
+        deflater.setInput(streams[s], 0, streamLength[s]);
+        deflater.finish();
+        byte[] out = compressed[s];
+        if (out.length < streamLength[s] / 2 + 64)
+            out = new byte[streamLength[s] / 2 + 64];
+        int len = 0;
+        while (!deflater.finished()) {
+            if (len == out.length)
+                out = Arrays.copyOf(out, out.length * 2);
+            len += deflater.deflate(out, len, out.length - len);
+        }
+        compressed[s] = out;
+        return ByteBuffer.wrap(out, 0, len);
+    }
+
+    private void writeIndex() throws IOException {
+        long indexOffset = fileOffset;
+        ByteBuffer buf = ByteBuffer.allocate(index.size() * INDEX_ENTRY_BYTES + TRAILER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (long[] e : index)
+            buf.putLong(e[0]).putLong(e[1]).putInt((int) e[2]).putInt((int) e[3]);
+        buf.putLong(indexOffset).putInt(index.size()).putInt(INDEX_MAGIC).flip();
+        writeFully(buf);
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            fileOffset += channel.write(buf);
+    }
+}
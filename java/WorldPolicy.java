@@ -0,0 +1,205 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the population of an open-ended simulation: what happens at the
+ * world edge, how long a particle lives, and how many may exist at once.
+ *
+ * Edges ({@link Mode}) are the screen rectangle grown by a margin. Particles
+ * are only ever appended, and {@link ParticleStore#compact} keeps order, so
+ * the store stays sorted by age. Expired particles are therefore a prefix
+ * found by binary search over the birth column, and oldest-first eviction
+ * removes a prefix of the survivors.
+ *
+ * Removal is one stable compaction pass over every column. To keep that off
+ * most steps, removals are batched. Culled and expired particles are
+ * compacted away once they reach 1/{@value #BATCH_DIVISOR} of the
+ * population; until then they are integrated a few more steps, off screen
+ * or about to expire. Going over the cap evicts at once, down to
+ * 1/{@value #HEADROOM_DIVISOR} below it, so the cap holds without
+ * compacting on every spawn.
+ */
+public class WorldPolicy {
+
+    public enum Mode {
+        /** Particles leave the world freely (the original behavior). */
+        NONE,
+        /** Particles outside the world are removed. */
+        CULL,
+        /** The world is a torus: leaving one edge re-enters at the opposite one. */
+        WRAP,
+        /** Particles stop at the edge, losing their outward momentum. */
+        CLAMP
+    }
+
+    private static final int BATCH_DIVISOR = 64;
+    private static final int HEADROOM_DIVISOR = 32;
+
+    private final Mode mode;
+    private final double minX, minY, maxX, maxY;
+    private final long lifetime; // steps; 0 = forever
+    private final int maxParticles; // 0 = unlimited
+    private final ParallelStepper stepper;
+
+    // Particles [0, stamped) have a birth step
+    private int stamped;
+    private long removed;
+
+    public WorldPolicy(Mode mode, double margin, long lifetime, int maxParticles, ParallelStepper stepper) {
+        this.mode = mode;
+        this.minX = -margin;
+        this.minY = -margin;
+        this.maxX = GravityModel.WIDTH + margin;
+        this.maxY = GravityModel.HEIGHT + margin;
+        this.lifetime = Math.max(0, lifetime);
+        this.maxParticles = Math.max(0, maxParticles);
+        this.stepper = stepper;
+    }
+
+    /**
+     * Policy selected by system properties, or null when nothing is bounded:
+     * {@code -Dgravity.world=none|cull|wrap|clamp},
+     * {@code -Dgravity.worldMargin} (pixels beyond the screen, default 200),
+     * {@code -Dgravity.lifetime} (steps, default 0 = forever) and
+     * {@code -Dgravity.maxParticles} (default 0 = unlimited).
+     */
+    public static WorldPolicy fromProperties(ParallelStepper stepper) {
+        String name = System.getProperty("gravity.world", "none");
+        Mode mode;
+        switch (name) {
+            case "none" -> mode = Mode.NONE;
+            case "cull" -> mode = Mode.CULL;
+            case "wrap" -> mode = Mode.WRAP;
+            case "clamp" -> mode = Mode.CLAMP;
+            default -> throw new IllegalArgumentException("gravity.world must be none, cull, wrap or clamp: " + name);
+        }
+        double margin = Double.parseDouble(System.getProperty("gravity.worldMargin", "200"));
+        long lifetime = Long.getLong("gravity.lifetime", 0);
+        int max = Integer.getInteger("gravity.maxParticles", 0);
+        if (mode == Mode.NONE && lifetime == 0 && max == 0)
+            return null;
+        return new WorldPolicy(mode, margin, lifetime, max, stepper);
+    }
+
+    /** Particles removed so far. */
+    public long removed() {
+        return removed;
+    }
+
+    public String describe() {
+        StringBuilder sb = new StringBuilder(mode.name().toLowerCase());
+        if (lifetime > 0)
+            sb.append(", life ").append(lifetime);
+        if (maxParticles > 0)
+            sb.append(String.format(", max %,d", maxParticles));
+        return sb.toString();
+    }
+
+    // =========================================================================
+    // Per step
+    // =========================================================================
+
+    /** Applies the policy after step {@code step}; returns the particles removed. */
+    public int apply(ParticleStore store, long step) {
+        int n = store.size();
+        if (lifetime > 0) {
+            // Everything appended since the last call was born this step
+            store.enableBirth();
+            stamped = Math.min(stamped, n);
+            Arrays.fill(store.birth, stamped, n, step);
+            stamped = n;
+        }
+
+        double[] xs = store.x, ys = store.y, mxs = store.momentumX, mys = store.momentumY;
+        int outside = 0;
+        switch (mode) {
+            case WRAP -> stepper.forEach(n, (from, to) -> wrap(xs, ys, from, to));
+            case CLAMP -> stepper.forEach(n, (from, to) -> clamp(xs, ys, mxs, mys, from, to));
+            case CULL -> {
+                AtomicInteger count = new AtomicInteger();
+                stepper.forEach(n, (from, to) -> {
+                    int c = 0;
+                    for (int i = from; i < to; i++)
+                        if (isOutside(xs[i], ys[i]))
+                            c++;
+                    count.addAndGet(c);
+                });
+                outside = count.get();
+            }
+            default -> {
+            }
+        }
+
+        int expired = lifetime > 0 ? expiredPrefix(store.birth, n, step - lifetime) : 0;
+        // Culled particles inside the expired prefix are counted twice here; close enough to decide
+        int survivors = Math.max(0, n - expired - outside);
+        int evict = maxParticles > 0 && survivors > maxParticles
+                ? survivors - maxParticles + maxParticles / HEADROOM_DIVISOR
+                : 0;
+        if (evict == 0 && (expired + outside == 0 || expired + outside < n / BATCH_DIVISOR))
+            return 0;
+
+        boolean cull = mode == Mode.CULL;
+        int[] toEvict = { evict };
+        int gone = store.compact(i -> {
+            if (i < expired || (cull && isOutside(xs[i], ys[i])))
+                return true;
+            if (toEvict[0] > 0) { // oldest survivors first
+                toEvict[0]--;
+                return true;
+            }
+            return false;
+        });
+        stamped = store.size();
+        removed += gone;
+        return gone;
+    }
+
+    private boolean isOutside(double x, double y) {
+        // NaN positions count as outside
+        return !(x >= minX && x < maxX && y >= minY && y < maxY);
+    }
+
+    /** Length of the prefix born before {@code cutoff}; births are non-decreasing. */
+    private static int expiredPrefix(long[] birth, int n, long cutoff) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (birth[mid] < cutoff)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private void wrap(double[] xs, double[] ys, int from, int to) {
+        double w = maxX - minX, h = maxY - minY;
+        for (int i = from; i < to; i++) {
+            double x = xs[i], y = ys[i];
+            if (x < minX || x >= maxX)
+                xs[i] = minX + (((x - minX) % w) + w) % w;
+            if (y < minY || y >= maxY)
+                ys[i] = minY + (((y - minY) % h) + h) % h;
+        }
+    }
+
+    private void clamp(double[] xs, double[] ys, double[] mxs, double[] mys, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (xs[i] < minX) {
+                xs[i] = minX;
+                mxs[i] = Math.max(0, mxs[i]);
+            } else if (xs[i] > maxX) {
+                xs[i] = maxX;
+                mxs[i] = Math.min(0, mxs[i]);
+            }
+            if (ys[i] < minY) {
+                ys[i] = minY;
+                mys[i] = Math.max(0, mys[i]);
+            } else if (ys[i] > maxY) {
+                ys[i] = maxY;
+                mys[i] = Math.min(0, mys[i]);
+            }
+        }
+    }
+}
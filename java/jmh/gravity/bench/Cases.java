@@ -0,0 +1,40 @@
+package gravity.bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.DoubleSupplier;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Builds the case a benchmark method times from the default-package
+ * {@code Benchmarks} catalog, which code in a named package can only reach
+ * by reflection. Only the setup goes through reflection; the timed call is
+ * a plain {@link DoubleSupplier#getAsDouble}.
+ */
+final class Cases {
+
+    private Cases() {
+    }
+
+    /** The case named like the running benchmark method, e.g. {@code galaxyStep}. */
+    static DoubleSupplier create(BenchmarkParams params, int particles, int workers)
+            throws ReflectiveOperationException {
+        String benchmark = params.getBenchmark();
+        String name = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+        Method create = Class.forName("Benchmarks").getMethod("create", String.class, int.class, int.class);
+        try {
+            return (DoubleSupplier) create.invoke(null, name, particles, workers);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /** Stops the case's workers. */
+    static void close(DoubleSupplier op) throws Exception {
+        if (op != null)
+            ((AutoCloseable) op).close();
+    }
+}
@@ -0,0 +1,94 @@
+package gravity.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * The cases that run on a {@code ParallelStepper}, for every particle count
+ * and worker count ({@code -p workers=1,2,8} for others). One op is one
+ * step or pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ParallelBenchmarks {
+
+    @Param({ "10000", "100000", "1000000" })
+    public int particles;
+
+    @Param({ "1", "4" })
+    public int workers;
+
+    private DoubleSupplier op;
+
+    @Setup
+    public void setUp(BenchmarkParams params) throws ReflectiveOperationException {
+        op = Cases.create(params, particles, workers);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Cases.close(op);
+    }
+
+    /** Particle.move over a ParticleStore, through whichever kernel is loaded. */
+    @Benchmark
+    public double particleMove() {
+        return op.getAsDouble();
+    }
+
+    @Benchmark
+    public double galaxyStep() {
+        return op.getAsDouble();
+    }
+
+    @Benchmark
+    public double blackholeStep() {
+        return op.getAsDouble();
+    }
+
+    /** Two merging galaxies on a Barnes-Hut tree. */
+    @Benchmark
+    public double collisionStep() {
+        return op.getAsDouble();
+    }
+
+    /** One particle-mesh force pass on the default 256 grid. */
+    @Benchmark
+    public double pmForces() {
+        return op.getAsDouble();
+    }
+
+    /** Counting-sort rebuild of the neighbor grid. */
+    @Benchmark
+    public double gridBuild() {
+        return op.getAsDouble();
+    }
+
+    @Benchmark
+    public double gridCollide() {
+        return op.getAsDouble();
+    }
+
+    @Benchmark
+    public double gridPressure() {
+        return op.getAsDouble();
+    }
+}
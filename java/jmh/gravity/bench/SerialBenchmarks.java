@@ -0,0 +1,74 @@
+package gravity.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * The rendering and spawning cases, which run on the calling thread, so
+ * only the particle count varies. One op is one frame, or spawning every
+ * particle in batches of 100 into an empty store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SerialBenchmarks {
+
+    @Param({ "10000", "100000", "1000000" })
+    public int particles;
+
+    private DoubleSupplier op;
+
+    @Setup
+    public void setUp(BenchmarkParams params) throws ReflectiveOperationException {
+        op = Cases.create(params, particles, 1);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Cases.close(op);
+    }
+
+    /** Both black hole lensing passes into an off-screen raster. */
+    @Benchmark
+    public double blackholeLensing() {
+        return op.getAsDouble();
+    }
+
+    /** The per-particle Graphics2D path the simulations used before PixelRaster. */
+    @Benchmark
+    public double renderGraphics2d() {
+        return op.getAsDouble();
+    }
+
+    @Benchmark
+    public double renderRaster() {
+        return op.getAsDouble();
+    }
+
+    @Benchmark
+    public double spawnCircle() {
+        return op.getAsDouble();
+    }
+
+    @Benchmark
+    public double spawnLine() {
+        return op.getAsDouble();
+    }
+}